@@ -0,0 +1,157 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.SpannableString;
+import android.text.style.ForegroundColorSpan;
+import android.view.View;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.devrel.samples.compute.android.ItemListFragment.ComputeResourceListAdapter;
+import com.google.devrel.samples.compute.android.dummy.DummyContent;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.Section;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the objects allocated by {@link ComputeResourceListAdapter#getView} while 10,000 rows are
+ * bound to a recycled row view, as a scrolling ListView does. Run on a device with
+ * {@code gradlew connectedInstrumentTest}.
+ *
+ * {@code TextView#setText} copies styled text it is handed, so binding cannot be free of
+ * allocations; the test allows what two {@code setText} calls per row cost and nothing more. The
+ * render models are built when the adapter picks up the snapshot, which is not counted.
+ */
+public class ComputeResourceListAdapterTest extends AndroidTestCase {
+  private static final int ROW_COUNT = 10000;
+  private static final String BASE_LINK =
+      "https://www.googleapis.com/compute/v1/projects/test-project/zones/us-central1-a/";
+
+  private ComputeResourceListAdapter mAdapter;
+  private ListView mParent;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    DummyContent.clear();
+    Map<Section, List<DummyItem>> sections = Maps.newEnumMap(Section.class);
+    sections.put(Section.INSTANCES, newInstances(ROW_COUNT / 2));
+    sections.put(Section.DISKS, newDisks(ROW_COUNT / 2));
+    DummyContent.replaceContent(sections);
+
+    mAdapter = new ComputeResourceListAdapter(getContext());
+    mAdapter.notifyDataSetChanged();
+    mParent = new ListView(getContext());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    DummyContent.clear();
+    super.tearDown();
+  }
+
+  public void testBindingRowsAllocatesNoMoreThanSettingTheirText() {
+    int rowCount = mAdapter.getCount();
+    assertTrue(rowCount >= ROW_COUNT);
+
+    // Inflate the recycled row view and let the TextViews settle on their layouts.
+    View view = null;
+    for (int position = 0; position < rowCount; position++) {
+      view = mAdapter.getView(position, view, mParent);
+    }
+
+    int setTextAllocations = countSetTextAllocations();
+    Debug.resetThreadAllocCount();
+    Debug.startAllocCounting();
+    for (int position = 0; position < rowCount; position++) {
+      mAdapter.getView(position, view, mParent);
+    }
+    Debug.stopAllocCounting();
+    int bindAllocations = Debug.getThreadAllocCount();
+
+    assertTrue(bindAllocations + " objects allocated binding " + rowCount + " rows, "
+        + setTextAllocations + " per setText call",
+        bindAllocations <= 2 * rowCount * setTextAllocations);
+  }
+
+  public void testRebindingTheSameRowsKeepsTheirViews() {
+    View first = mAdapter.getView(1, null, mParent);
+    TextView largeText = (TextView) first.findViewById(android.R.id.text1);
+    CharSequence boundText = largeText.getText();
+
+    View second = mAdapter.getView(1, first, mParent);
+
+    assertSame(first, second);
+    assertEquals(boundText.toString(), largeText.getText().toString());
+  }
+
+  /**
+   * Objects allocated by one {@code setText} call with styled text, the most a row bind does per
+   * TextView.
+   */
+  private int countSetTextAllocations() {
+    TextView textView = new TextView(getContext());
+    SpannableString[] texts = new SpannableString[2];
+    for (int i = 0; i < texts.length; i++) {
+      texts[i] = new SpannableString("RUNNING " + i);
+      texts[i].setSpan(new ForegroundColorSpan(0xff00ff00), 0, 7, 0);
+    }
+    textView.setText(texts[1]);
+
+    int calls = 1000;
+    Debug.resetThreadAllocCount();
+    Debug.startAllocCounting();
+    for (int i = 0; i < calls; i++) {
+      textView.setText(texts[i % 2]);
+    }
+    Debug.stopAllocCounting();
+    return (Debug.getThreadAllocCount() + calls - 1) / calls;
+  }
+
+  private static List<DummyItem> newInstances(int count) {
+    List<DummyItem> items = Lists.newArrayListWithCapacity(count);
+    for (int i = 0; i < count; i++) {
+      String name = "instance-" + i;
+      // Alternate the styles of the rows: described or not, running or not.
+      items.add(new InstanceItem(new InstanceRecord(BASE_LINK + "instances/" + name, name,
+          "us-central1-a", (i % 3 == 0) ? "TERMINATED" : "RUNNING",
+          (i % 2 == 0) ? "Web server number " + i + " serving the front end" : null, null, 0L,
+          null), null));
+    }
+    return items;
+  }
+
+  private static List<DummyItem> newDisks(int count) {
+    List<DummyItem> items = Lists.newArrayListWithCapacity(count);
+    for (int i = 0; i < count; i++) {
+      String name = "disk-" + i;
+      items.add(new DiskItem(new DiskRecord(BASE_LINK + "disks/" + name, name, "us-central1-a",
+          (i % 3 == 0) ? "CREATING" : "READY", null, 10L, 0L), null));
+    }
+    return items;
+  }
+}
@@ -35,6 +35,11 @@ public final class AppConstants {
    * Google account that is used with the application.
    */
   public static final String PREF_SELECTED_PROJECT_ID_SUFFIX = "ProjectId";
+  /**
+   * Preference name suffix, appended to the Google account and project ID, recording whether the
+   * last listing of the project found it large.
+   */
+  public static final String PREF_LARGE_PROJECT_SUFFIX = "LargeProject";
   public static final String DATE_TIME_FORMAT_STRING = "EEE, MMM d yyyy @hh:mma z";
   public static final String COMPUTE_ENGINE_ANDROID_SAMPLE_APP_NAME = "ComputeEngineAndroidSampleApp/0.1";
   /**
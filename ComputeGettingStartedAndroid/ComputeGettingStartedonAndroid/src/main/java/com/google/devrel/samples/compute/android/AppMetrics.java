@@ -0,0 +1,97 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android;
+
+import android.util.Log;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide performance metrics. Values are kept in memory and written to the log so they can
+ * be collected with {@code adb logcat -s AppMetrics}.
+ */
+public final class AppMetrics {
+  private static final String LOG_TAG = "AppMetrics";
+
+  /**
+   * Milliseconds between the start of a project download and the first resource row being handed
+   * to the list adapter.
+   */
+  public static final String TIME_TO_FIRST_ROW_MILLIS = "timeToFirstRowMillis";
+  /**
+   * Milliseconds a full project download took from the first request to the last page.
+   */
+  public static final String PROJECT_FETCH_WALL_CLOCK_MILLIS = "projectFetchWallClockMillis";
+  /**
+   * Prefix of the metrics holding the milliseconds each resource stream took to download.
+   */
+  public static final String STREAM_MILLIS_PREFIX = "streamMillis.";
+
+  private static final ConcurrentMap<String, AtomicLong> METRICS = Maps.newConcurrentMap();
+
+  private AppMetrics() {
+  }
+
+  /**
+   * Record the latest value of a metric.
+   */
+  public static void record(String name, long value) {
+    getMetric(name).set(value);
+    Log.i(LOG_TAG, name + "=" + value);
+  }
+
+  /**
+   * Add to a counter metric and return its new value.
+   */
+  public static long increment(String name, long delta) {
+    return getMetric(name).addAndGet(delta);
+  }
+
+  /**
+   * Retrieve the current value of a metric or zero if it was never recorded.
+   */
+  public static long get(String name) {
+    AtomicLong metric = METRICS.get(name);
+    return (metric == null) ? 0L : metric.get();
+  }
+
+  /**
+   * Copy of every metric recorded so far.
+   */
+  public static Map<String, Long> snapshot() {
+    Map<String, Long> snapshot = Maps.newTreeMap();
+    for (Map.Entry<String, AtomicLong> metric : METRICS.entrySet()) {
+      snapshot.put(metric.getKey(), metric.getValue().get());
+    }
+    return snapshot;
+  }
+
+  private static AtomicLong getMetric(String name) {
+    AtomicLong metric = METRICS.get(name);
+    if (metric == null) {
+      AtomicLong newMetric = new AtomicLong();
+      metric = METRICS.putIfAbsent(name, newMetric);
+      if (metric == null) {
+        metric = newMetric;
+      }
+    }
+    return metric;
+  }
+}
@@ -27,27 +27,22 @@ import android.util.Log;
 import com.google.android.gms.auth.GoogleAuthUtil;
 import com.google.android.gms.common.AccountPicker;
 import com.google.android.gms.common.GooglePlayServicesUtil;
-import com.google.api.client.extensions.android.http.AndroidHttp;
 import com.google.api.client.extensions.android.json.AndroidJsonFactory;
-import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAccountCredential;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.services.compute.Compute;
 import com.google.api.services.compute.ComputeScopes;
-import com.google.common.collect.Lists;
+import com.google.devrel.samples.compute.android.model.SelfLinks;
+import com.google.devrel.samples.compute.android.tasks.ProjectFetchEngine.ListingMode;
 
 import java.lang.reflect.Array;
-import java.text.ParseException;
+import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TimeZone;
 
 import javax.annotation.Nullable;
 
-import static com.google.devrel.samples.compute.android.BuildConfig.DEBUG;
-
 /**
  * Utility methods simplifying sample code.
  *
@@ -55,8 +50,53 @@ import static com.google.devrel.samples.compute.android.BuildConfig.DEBUG;
  */
 public class AppUtils {
   private static final String LOG_TAG = "AppUtils";
-  public static final int RESOURCE_LISTING_TOTAL_LIMIT = 100;
   public static final int RESOURCE_LISTING_ITERATION_LIMIT = 25;
+  /**
+   * Pages of each Instance and Disk listing downloaded up front; further pages are downloaded as
+   * the list is scrolled. Keep it at most {@code ProjectFetchEngine.PAGE_LOOKAHEAD}: a listing
+   * further ahead of its listener blocks a thread of the shared stream executor, which other
+   * downloads wait for.
+   */
+  public static final int RESOURCE_LISTING_INITIAL_PAGES = 1;
+  /**
+   * Maximum number of pages of a list section held in memory at once.
+   */
+  public static final int RESOURCE_LISTING_WINDOW_PAGES = 8;
+  /**
+   * Whether resource lists are displayed page by page as they download.
+   */
+  public static final boolean INCREMENTAL_RESOURCE_DELIVERY = true;
+  /**
+   * How Instances and Disks are listed; {@code AUTO} lists large projects zone by zone.
+   */
+  public static final ListingMode RESOURCE_LISTING_MODE = ListingMode.AUTO;
+  /**
+   * Profile of the HTTP transport shared by the {@code Compute} clients.
+   */
+  public static final ComputeTransports.Profile HTTP_TRANSPORT_PROFILE = ComputeTransports.POOLED;
+  /**
+   * Milliseconds after a project load during which recreated screens reuse its resources rather
+   * than downloading them again.
+   */
+  public static final long PROJECT_RELOAD_INTERVAL_MILLIS = 60 * 1000L;
+  /**
+   * Maximum number of full Instances and Disks kept for the detail screen.
+   */
+  public static final int DETAIL_CACHE_SIZE = 50;
+  /**
+   * Milliseconds a full Instance or Disk is displayed before it is downloaded again.
+   */
+  public static final long DETAIL_CACHE_TTL_MILLIS = 60 * 1000L;
+  /**
+   * Rows on either side of a selected resource whose detail is downloaded ahead of time.
+   */
+  public static final int DETAIL_PREFETCH_DISTANCE = 2;
+
+  /**
+   * OAuth2 scopes requested for the Google Compute Engine API.
+   */
+  public static final String[] COMPUTE_OAUTH2_SCOPES =
+      new String[]{ComputeScopes.COMPUTE, ComputeScopes.DEVSTORAGE_READ_ONLY};
 
   /**
    * Static instance of the JSON factory.
@@ -64,9 +104,15 @@ public class AppUtils {
   private static final JsonFactory JSON_FACTORY = new AndroidJsonFactory();
 
   /**
-   * Static instance of the HTTP transport.
+   * Display formatters; {@code SimpleDateFormat} is expensive to create and not thread-safe.
    */
-  private static HttpTransport HTTP_TRANSPORT = AndroidHttp.newCompatibleTransport();
+  private static final ThreadLocal<DateFormat> DATE_TIME_FORMATTER =
+      new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+          return new SimpleDateFormat(AppConstants.DATE_TIME_FORMAT_STRING);
+        }
+      };
 
    /**
     * Trim string if it is longer than the specified length.
@@ -130,6 +176,13 @@ public class AppUtils {
     return scopeString.toString();
   }
 
+  /**
+   * OAuth2 scope string for {@link #COMPUTE_OAUTH2_SCOPES}; the key tokens are cached under.
+   */
+  public static String getComputeOAuth2ScopeString() {
+    return getOAuth2ScopeString(COMPUTE_OAUTH2_SCOPES);
+  }
+
   /**
    * Generates an {@code Intent} that can invoke an account picker for Google Accounts.
    */
@@ -153,6 +206,9 @@ public class AppUtils {
    * Set the account stored for the application.
    */
   public static void setStoredAccount(Context context, String account) {
+    // Clients built for a previously selected account are no longer needed.
+    ComputeClientRegistry.onAccountSelected(context, account);
+
     SharedPreferences preferences = context.getSharedPreferences(AppConstants.APP_PREF_NM,
         Context.MODE_PRIVATE);
     preferences.edit().putString(AppConstants.PREF_SELECTED_ACCOUNT_EMAIL, account).commit();
@@ -187,42 +243,73 @@ public class AppUtils {
         .commit();
   }
 
+  /**
+   * Whether the last full listing of a project found it too large for the pages an aggregated
+   * listing downloads up front, see {@code ProjectFetchEngine#isLargeProject()}.
+   */
+  public static boolean isStoredProjectLarge(Context context, String account, String projectId) {
+    return Boolean.parseBoolean(getStoredProperty(context,
+        account + ":" + projectId + ":" + AppConstants.PREF_LARGE_PROJECT_SUFFIX));
+  }
+
+  /**
+   * Store whether the last full listing of a project found it large.
+   */
+  public static void setStoredProjectLarge(Context context, String account, String projectId,
+      boolean largeProject) {
+    SharedPreferences preferences = context.getSharedPreferences(AppConstants.APP_PREF_NM,
+        Context.MODE_PRIVATE);
+    preferences.edit().putString(account + ":" + projectId + ":"
+        + AppConstants.PREF_LARGE_PROJECT_SUFFIX, String.valueOf(largeProject)).commit();
+  }
+
+  /**
+   * Convert an RFC 3339 timestamp to a {@code Date}, or {@code null} if it is not valid. Prefer
+   * {@link Rfc3339#parse(CharSequence)} when only the epoch milliseconds are needed.
+   */
   public static Date convertDateTime(String dateTimeString) {
-    SimpleDateFormat simpleDateFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
-    Date newDate = null;
     try {
-      if (DEBUG) {
-        newDate = simpleDateFormatter.parse(dateTimeString);
-        Log.v(LOG_TAG, newDate + "");
-      }
-    } catch (ParseException parseException) {
-      Log.e(LOG_TAG, "Date parsing exception", parseException);
+      return new Date(Rfc3339.parse(dateTimeString));
+    } catch (IllegalArgumentException e) {
+      Log.e(LOG_TAG, "Date parsing exception", e);
+      return null;
     }
-    return newDate;
   }
 
+  /**
+   * Format epoch milliseconds for display with {@link AppConstants#DATE_TIME_FORMAT_STRING} in the
+   * current time zone. The formatter is created once per thread.
+   */
+  public static String formatDateTime(long timeInMillis) {
+    DateFormat dateFormatter = DATE_TIME_FORMATTER.get();
+    dateFormatter.setTimeZone(TimeZone.getDefault());
+    return dateFormatter.format(new Date(timeInMillis));
+  }
+
+  /**
+   * Retrieve the shared Google Compute Engine API object for an account. The object is cached by
+   * {@link ComputeClientRegistry} so this is cheap enough to call from the UI thread.
+   */
   public static Compute getComputeServiceObject(Context context, String emailAddress) {
-    List scopes = Lists.newArrayList(ComputeScopes.COMPUTE, ComputeScopes.DEVSTORAGE_READ_ONLY);
+    return ComputeClientRegistry.getCompute(context, emailAddress);
+  }
 
-    // Utilize the Android credential type. This will give you problems if you haven't
-    // registered the android application within the developer console (see README file).
-    GoogleAccountCredential credential = GoogleAccountCredential.usingOAuth2(context, scopes);
-    // Tell the credential which Google account(email) to use.
-    credential.setSelectedAccountName(emailAddress);
+  /**
+   * Retrieve the shared HTTP transport; see {@link ComputeTransports}.
+   */
+  public static HttpTransport getHttpTransport(Context context) {
+    return ComputeTransports.getTransport(context);
+  }
 
-    // Create Google Compute Engine API query object.
-    return new Compute.Builder(HTTP_TRANSPORT, JSON_FACTORY, credential)
-        .setApplicationName(AppConstants.COMPUTE_ENGINE_ANDROID_SAMPLE_APP_NAME).build();
+  public static JsonFactory getJsonFactory() {
+    return JSON_FACTORY;
   }
 
+  /**
+   * Retrieve the last segment of a self link, or {@code null} if the link ends with a slash.
+   */
   public static final String getNameFromSelfLink(String selfLink) {
-    Pattern p = Pattern.compile("([^/]+$)");
-    Matcher m = p.matcher(selfLink);
-    String name = null;
-    if (m.find()) {
-      name = m.group(1);
-    }
-    return name;
+    return SelfLinks.getName(selfLink);
   }
 
   /**
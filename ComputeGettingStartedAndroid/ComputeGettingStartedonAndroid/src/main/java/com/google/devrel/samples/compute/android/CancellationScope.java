@@ -0,0 +1,201 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android;
+
+import android.util.Log;
+
+import com.google.api.client.http.HttpResponse;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels the HTTP requests made on behalf of a task. Interrupting a thread does not abort a
+ * blocking socket read, so a cancelled task used to download and decode the rest of its response.
+ *
+ * A thread works for a scope between {@link #enter()} and {@link #exit(CancellationScope)}; every
+ * response it receives through a client built by {@link ComputeTransports} is registered with
+ * the scope. {@link #cancel()} disconnects the responses being read, which makes their reads
+ * fail at once, and responses arriving after cancellation are dropped unread. Requests made in a
+ * cancelled scope are not retried.
+ */
+public final class CancellationScope {
+  private static final String LOG_TAG = "CancellationScope";
+
+  /**
+   * Responses disconnected while they were being read.
+   */
+  public static final String METRIC_RESPONSES_ABORTED = "responsesAborted";
+  /**
+   * Bytes of the responses that arrived after their scope was cancelled and were dropped unread,
+   * as declared by the server.
+   */
+  public static final String METRIC_WASTED_BYTES = "wastedResponseBytes";
+
+  private static final ThreadLocal<CancellationScope> CURRENT =
+      new ThreadLocal<CancellationScope>();
+
+  /**
+   * Disconnects the responses of cancelled scopes. Scopes are usually cancelled on the main
+   * thread, and closing a connection may touch the network. The thread times out when idle.
+   */
+  private static final Executor DISCONNECTOR;
+
+  static {
+    ThreadPoolExecutor disconnector = new ThreadPoolExecutor(1, 1, 30L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, LOG_TAG);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    disconnector.allowCoreThreadTimeOut(true);
+    DISCONNECTOR = disconnector;
+  }
+
+  /**
+   * Latest response received by every thread working for the scope.
+   */
+  private final Map<Thread, HttpResponse> mResponses = Maps.newHashMap();
+  private volatile boolean mCancelled = false;
+
+  /**
+   * The scope the calling thread works for, or {@code null}.
+   */
+  public static CancellationScope current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Whether the scope the calling thread works for, if any, was cancelled.
+   */
+  public static boolean isCurrentCancelled() {
+    CancellationScope scope = CURRENT.get();
+    return scope != null && scope.isCancelled();
+  }
+
+  /**
+   * Make the calling thread work for this scope.
+   *
+   * @return the scope the thread worked for before, to be handed to {@link #exit}
+   */
+  public CancellationScope enter() {
+    CancellationScope previous = CURRENT.get();
+    CURRENT.set(this);
+    return previous;
+  }
+
+  /**
+   * Stop working for this scope and return to {@code previous}.
+   */
+  public void exit(CancellationScope previous) {
+    synchronized (mResponses) {
+      mResponses.remove(Thread.currentThread());
+    }
+    CURRENT.set(previous);
+  }
+
+  /**
+   * Wrap a runnable so that it works for this scope.
+   */
+  public Runnable wrap(final Runnable runnable) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        CancellationScope previous = enter();
+        try {
+          runnable.run();
+        } finally {
+          exit(previous);
+        }
+      }
+    };
+  }
+
+  public boolean isCancelled() {
+    return mCancelled;
+  }
+
+  /**
+   * Cancel the scope and disconnect the responses being read. The responses are disconnected on a
+   * thread of the scope, off the calling thread.
+   */
+  public void cancel() {
+    if (mCancelled) {
+      return;
+    }
+    mCancelled = true;
+    final List<HttpResponse> responses;
+    synchronized (mResponses) {
+      responses = Lists.newArrayList(mResponses.values());
+      mResponses.clear();
+    }
+    if (responses.isEmpty()) {
+      return;
+    }
+    DISCONNECTOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        for (HttpResponse response : responses) {
+          try {
+            response.disconnect();
+            AppMetrics.increment(METRIC_RESPONSES_ABORTED, 1L);
+          } catch (IOException e) {
+            Log.w(LOG_TAG, "Exception aborting response", e);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Register a response received by the calling thread with its scope, if any.
+   *
+   * @throws InterruptedIOException if the scope was cancelled; the response is dropped
+   */
+  static void register(HttpResponse response) throws IOException {
+    CancellationScope scope = CURRENT.get();
+    if (scope == null) {
+      return;
+    }
+    if (!scope.mCancelled) {
+      synchronized (scope.mResponses) {
+        scope.mResponses.put(Thread.currentThread(), response);
+      }
+      // A cancellation racing the registration has missed the response.
+      if (!scope.mCancelled) {
+        return;
+      }
+    }
+    Long contentLength = response.getHeaders().getContentLength();
+    if (contentLength != null) {
+      AppMetrics.increment(METRIC_WASTED_BYTES, contentLength);
+    }
+    response.disconnect();
+    throw new InterruptedIOException("Request cancelled");
+  }
+}
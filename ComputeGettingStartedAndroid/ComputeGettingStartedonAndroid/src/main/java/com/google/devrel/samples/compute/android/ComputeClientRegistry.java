@@ -0,0 +1,179 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.services.compute.Compute;
+import com.google.common.collect.Maps;
+import com.google.devrel.samples.compute.android.auth.TokenManager;
+import com.google.devrel.samples.compute.android.auth.TokenRequestInitializer;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands out one shared {@code Compute} client and request initializer per Google account instead of
+ * building new ones for every task. {@code Compute} clients are safe to use from several threads;
+ * each request built from a client is not and must stay on the thread that executes it.
+ *
+ * Clients are released when the selected account changes, or explicitly through
+ * {@link #release(String)} and {@link #releaseAll()}.
+ */
+public final class ComputeClientRegistry {
+  private static final String LOG_TAG = "ComputeClientRegistry";
+
+  /**
+   * Microseconds it took to build the most recently created client.
+   */
+  public static final String METRIC_CONSTRUCTION_MICROS = "computeClientConstructionMicros";
+  /**
+   * Milliseconds the first request of the most recently created client took, including the time
+   * to retrieve its OAuth2 token.
+   */
+  public static final String METRIC_FIRST_REQUEST_MILLIS = "computeClientFirstRequestMillis";
+  public static final String METRIC_CACHE_HITS = "computeClientCacheHits";
+  public static final String METRIC_CACHE_MISSES = "computeClientCacheMisses";
+
+  private static final Map<String, Client> CLIENTS = Maps.newHashMap();
+
+  private ComputeClientRegistry() {
+  }
+
+  /**
+   * A {@code Compute} client along with the request initializer it was built with.
+   */
+  private static class Client {
+    final HttpRequestInitializer requestInitializer;
+    final Compute compute;
+
+    Client(HttpRequestInitializer requestInitializer, Compute compute) {
+      this.requestInitializer = requestInitializer;
+      this.compute = compute;
+    }
+  }
+
+  /**
+   * Retrieve the shared {@code Compute} client for an account, building it on first use.
+   */
+  public static Compute getCompute(Context context, String emailAddress) {
+    return getClient(context, emailAddress).compute;
+  }
+
+  /**
+   * Retrieve the shared request initializer authorizing the requests of an account.
+   */
+  public static HttpRequestInitializer getRequestInitializer(Context context,
+      String emailAddress) {
+    return getClient(context, emailAddress).requestInitializer;
+  }
+
+  /**
+   * Release the clients, tokens and scheduled token refreshes of every account other than
+   * {@code emailAddress}. Called when the user selects a Google account.
+   */
+  public static synchronized void onAccountSelected(Context context, String emailAddress) {
+    if (CLIENTS.keySet().retainAll(Collections.singleton(emailAddress))) {
+      Log.i(LOG_TAG, "Released clients of previously selected accounts");
+    }
+    TokenManager.getInstance(context).clearOtherAccounts(emailAddress);
+  }
+
+  /**
+   * Release the client of an account; the next request for it builds a new one.
+   */
+  public static synchronized void release(String emailAddress) {
+    CLIENTS.remove(emailAddress);
+  }
+
+  /**
+   * Release every client, for example when the application no longer needs network access.
+   */
+  public static synchronized void releaseAll() {
+    CLIENTS.clear();
+  }
+
+  private static synchronized Client getClient(Context context, String emailAddress) {
+    Client client = CLIENTS.get(emailAddress);
+    if (client != null) {
+      AppMetrics.increment(METRIC_CACHE_HITS, 1);
+      return client;
+    }
+
+    AppMetrics.increment(METRIC_CACHE_MISSES, 1);
+    long startNanos = System.nanoTime();
+
+    // Authorize requests with tokens cached by the TokenManager. Tokens come from Play Services,
+    // which will give you problems if you haven't registered the android application within the
+    // developer console (see README file).
+    HttpRequestInitializer requestInitializer = new TokenRequestInitializer(
+        TokenManager.getInstance(context), emailAddress, AppUtils.getComputeOAuth2ScopeString());
+
+    // Create Google Compute Engine API query object. Requests are also configured by the
+    // transport profile and measured.
+    Compute compute = new Compute.Builder(AppUtils.getHttpTransport(context),
+        AppUtils.getJsonFactory(),
+        new FirstRequestTimer(ComputeTransports.wrap(requestInitializer)))
+        .setApplicationName(AppConstants.COMPUTE_ENGINE_ANDROID_SAMPLE_APP_NAME).build();
+
+    AppMetrics.record(METRIC_CONSTRUCTION_MICROS, (System.nanoTime() - startNanos) / 1000L);
+
+    client = new Client(requestInitializer, compute);
+    CLIENTS.put(emailAddress, client);
+    return client;
+  }
+
+  /**
+   * Request initializer recording how long the first request of a client takes.
+   */
+  private static class FirstRequestTimer implements HttpRequestInitializer {
+    private final HttpRequestInitializer mDelegate;
+    private final AtomicBoolean mTimed = new AtomicBoolean(false);
+
+    FirstRequestTimer(HttpRequestInitializer delegate) {
+      mDelegate = delegate;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) throws IOException {
+      mDelegate.initialize(request);
+      if (mTimed.getAndSet(true)) {
+        return;
+      }
+
+      final long startMillis = SystemClock.elapsedRealtime();
+      final HttpResponseInterceptor responseInterceptor = request.getResponseInterceptor();
+      request.setResponseInterceptor(new HttpResponseInterceptor() {
+        @Override
+        public void interceptResponse(HttpResponse response) throws IOException {
+          AppMetrics.record(METRIC_FIRST_REQUEST_MILLIS,
+              SystemClock.elapsedRealtime() - startMillis);
+          if (responseInterceptor != null) {
+            responseInterceptor.interceptResponse(response);
+          }
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,328 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android;
+
+import android.content.Context;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.api.client.extensions.android.http.AndroidHttp;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.util.ObjectParser;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+/**
+ * Provides the HTTP transport of the {@code Compute} clients. The transport is built from a
+ * {@link Profile} selected at startup, {@link AppUtils#HTTP_TRANSPORT_PROFILE} by default, and
+ * shared by every client of the process.
+ *
+ * Requests made through {@link #wrap(HttpRequestInitializer)} are retried on transient errors by
+ * {@link RetryPolicy} and can be aborted through their {@link CancellationScope}. Responses parsed
+ * by the client, or read through {@link #getContent(HttpResponse)}, report their latency and size
+ * once their content is read, so profiles can be compared with {@code adb logcat -s AppMetrics}.
+ */
+public final class ComputeTransports {
+  private static final String LOG_TAG = "ComputeTransports";
+
+  /**
+   * Responses whose content was read to the end or closed.
+   */
+  public static final String METRIC_REQUESTS = "httpRequests";
+  /**
+   * Milliseconds from the start of a request to the end of its response content, summed over the
+   * {@link #METRIC_REQUESTS} responses.
+   */
+  public static final String METRIC_REQUEST_MILLIS = "httpRequestMillis";
+  /**
+   * Response content bytes read, after decompression, summed over the {@link #METRIC_REQUESTS}
+   * responses.
+   */
+  public static final String METRIC_RESPONSE_BYTES = "httpResponseBytes";
+
+  /**
+   * Builds the shared transport and configures every request made with it.
+   */
+  public interface Profile {
+    public HttpTransport newTransport(Context context);
+
+    public void initialize(HttpRequest request);
+  }
+
+  /**
+   * {@code AndroidHttp.newCompatibleTransport()} with the client library defaults: a new TLS
+   * session for every connection opened after a process start, at most five idle connections
+   * kept alive and 20 second timeouts.
+   */
+  public static final Profile COMPATIBLE = new Profile() {
+    @Override
+    public HttpTransport newTransport(Context context) {
+      return AndroidHttp.newCompatibleTransport();
+    }
+
+    @Override
+    public void initialize(HttpRequest request) {
+    }
+
+    @Override
+    public String toString() {
+      return "COMPATIBLE";
+    }
+  };
+
+  /**
+   * {@code NetHttpTransport} tuned for bursts of API calls:
+   * <ul>
+   * <li>TLS sessions are cached on disk, so connections opened after a process start resume a
+   * session instead of a full handshake.</li>
+   * <li>Shorter connect timeout, so a dead network fails fast, and a read timeout sized for
+   * large list pages.</li>
+   * </ul>
+   * Idle connections are kept alive by the process wide pool of {@code HttpURLConnection}, which
+   * this profile leaves as configured.
+   */
+  public static final Profile POOLED = new Profile() {
+    @Override
+    public HttpTransport newTransport(Context context) {
+      return new NetHttpTransport.Builder()
+          .setSslSocketFactory(SSLCertificateSocketFactory.getDefault(HANDSHAKE_TIMEOUT_MILLIS,
+              new SSLSessionCache(context.getApplicationContext())))
+          .build();
+    }
+
+    @Override
+    public void initialize(HttpRequest request) {
+      request.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+      request.setReadTimeout(READ_TIMEOUT_MILLIS);
+    }
+
+    @Override
+    public String toString() {
+      return "POOLED";
+    }
+  };
+
+  public static final int HANDSHAKE_TIMEOUT_MILLIS = 10 * 1000;
+  public static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+  public static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+  /**
+   * The selected profile, or {@code null} until it is selected or first used. The default is read
+   * lazily: {@code AppUtils} refers back to the profiles of this class while it is initialized.
+   */
+  private static Profile sProfile;
+  private static HttpTransport sTransport;
+
+  private ComputeTransports() {
+  }
+
+  /**
+   * Select the profile of the shared transport. Must be called before the first client is built.
+   *
+   * @throws IllegalStateException if the transport was already built
+   */
+  public static synchronized void setProfile(Profile profile) {
+    if (sTransport != null && profile != sProfile) {
+      throw new IllegalStateException("Transport already built with profile " + sProfile);
+    }
+    sProfile = profile;
+  }
+
+  /**
+   * Retrieve the shared transport, building it on first use.
+   */
+  public static synchronized HttpTransport getTransport(Context context) {
+    if (sTransport == null) {
+      Profile profile = getProfile();
+      Log.i(LOG_TAG, "Building HTTP transport with profile " + profile);
+      sTransport = profile.newTransport(context);
+    }
+    return sTransport;
+  }
+
+  private static synchronized Profile getProfile() {
+    if (sProfile == null) {
+      sProfile = AppUtils.HTTP_TRANSPORT_PROFILE;
+    }
+    return sProfile;
+  }
+
+  /**
+   * Open the content of a response to a request made through {@link #wrap}, measuring it as it is
+   * read. Readers of unparsed responses use this instead of {@link HttpResponse#getContent()};
+   * responses parsed by the client are measured by the parser of their request.
+   */
+  public static InputStream getContent(HttpResponse response) throws IOException {
+    InputStream content = response.getContent();
+    ObjectParser parser = response.getRequest().getParser();
+    if (content == null || !(parser instanceof MeasuringParser)) {
+      return content;
+    }
+    return ((MeasuringParser) parser).measure(content);
+  }
+
+  /**
+   * Wrap a request initializer so that requests are also configured by the selected profile and
+   * measured.
+   */
+  public static HttpRequestInitializer wrap(final HttpRequestInitializer delegate) {
+    final Profile profile = getProfile();
+    return new HttpRequestInitializer() {
+      @Override
+      public void initialize(HttpRequest request) throws IOException {
+        delegate.initialize(request);
+        profile.initialize(request);
+        // Installed last so that it runs after the handler refreshing expired tokens.
+        RetryPolicy.install(request);
+
+        final long startMillis = SystemClock.elapsedRealtime();
+        final HttpResponseInterceptor responseInterceptor = request.getResponseInterceptor();
+        request.setResponseInterceptor(new HttpResponseInterceptor() {
+          @Override
+          public void interceptResponse(HttpResponse response) throws IOException {
+            // The client sets its parser after the initializers ran, so it is wrapped here.
+            HttpRequest request = response.getRequest();
+            if (!(request.getParser() instanceof MeasuringParser)) {
+              request.setParser(new MeasuringParser(request.getParser(), startMillis));
+            }
+            // Let a cancelled task abort the response.
+            CancellationScope.register(response);
+            if (responseInterceptor != null) {
+              responseInterceptor.interceptResponse(response);
+            }
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * Parses responses with the parser of the client, measuring the content it reads.
+   */
+  private static class MeasuringParser implements ObjectParser {
+    private final ObjectParser mDelegate;
+    private final long mStartMillis;
+
+    MeasuringParser(ObjectParser delegate, long startMillis) {
+      mDelegate = delegate;
+      mStartMillis = startMillis;
+    }
+
+    InputStream measure(InputStream content) {
+      return new MeasuredContent(content, mStartMillis);
+    }
+
+    @Override
+    public <T> T parseAndClose(InputStream in, Charset charset, Class<T> dataClass)
+        throws IOException {
+      return mDelegate.parseAndClose(measure(in), charset, dataClass);
+    }
+
+    @Override
+    public Object parseAndClose(InputStream in, Charset charset, Type dataType)
+        throws IOException {
+      return mDelegate.parseAndClose(measure(in), charset, dataType);
+    }
+
+    @Override
+    public <T> T parseAndClose(Reader reader, Class<T> dataClass) throws IOException {
+      return mDelegate.parseAndClose(reader, dataClass);
+    }
+
+    @Override
+    public Object parseAndClose(Reader reader, Type dataType) throws IOException {
+      return mDelegate.parseAndClose(reader, dataType);
+    }
+  }
+
+  /**
+   * Counts the bytes read from a response and reports the response once its end is reached or it
+   * is closed, whichever comes first.
+   */
+  private static class MeasuredContent extends FilterInputStream {
+    private final long mStartMillis;
+    private long mBytesRead = 0L;
+    private boolean mReported = false;
+
+    MeasuredContent(InputStream in, long startMillis) {
+      super(in);
+      mStartMillis = startMillis;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b == -1) {
+        report();
+      } else {
+        mBytesRead++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      int n = super.read(buffer, offset, count);
+      if (n == -1) {
+        report();
+      } else {
+        mBytesRead += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+      long n = super.skip(count);
+      mBytesRead += n;
+      return n;
+    }
+
+    @Override
+    public boolean markSupported() {
+      // A reset would count bytes twice.
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      report();
+      super.close();
+    }
+
+    private void report() {
+      if (mReported) {
+        return;
+      }
+      mReported = true;
+      AppMetrics.increment(METRIC_REQUESTS, 1L);
+      AppMetrics.increment(METRIC_REQUEST_MILLIS, SystemClock.elapsedRealtime() - mStartMillis);
+      AppMetrics.increment(METRIC_RESPONSE_BYTES, mBytesRead);
+    }
+  }
+}
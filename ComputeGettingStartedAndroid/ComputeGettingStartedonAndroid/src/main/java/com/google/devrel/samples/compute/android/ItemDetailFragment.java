@@ -30,19 +30,20 @@ import android.widget.Toast;
 
 import com.google.api.services.compute.Compute;
 import com.google.api.services.compute.ComputeRequest;
-import com.google.api.services.compute.model.Disk;
-import com.google.api.services.compute.model.Instance;
-import com.google.api.services.compute.model.Zone;
 import com.google.devrel.samples.compute.android.dummy.DummyContent;
 import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
 import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
 import com.google.devrel.samples.compute.android.dummy.DummyContent.ZoneItem;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord.MaintenanceWindow;
+import com.google.devrel.samples.compute.android.tasks.ResourceDetailCache;
 import com.google.devrel.samples.compute.android.tasks.ZoneOperationParameters;
 import com.google.devrel.samples.compute.android.tasks.ZoneOperationTask;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 
 import static com.google.devrel.samples.compute.android.BuildConfig.DEBUG;
 
@@ -55,7 +56,9 @@ import static com.google.devrel.samples.compute.android.BuildConfig.DEBUG;
  * This Android sample code has been modified to display Google Compute Engine resource data
  * that is stored in extended {@code DummyContent} objects. When displaying some types of resources
  * a button has also been added that invokes a {@code ZoneOperationTask} to delete the resources in
- * a background {@code AsyncTask}.
+ * a background {@code AsyncTask}. Instances and Disks are displayed with the fields of the list
+ * right away; the remaining fields are filled in once the {@link ResourceDetailCache} has the full
+ * resource.
  *
  * @author paul.rashidi@google.com (Paul Rashidi)
  */
@@ -72,6 +75,11 @@ public class ItemDetailFragment extends Fragment {
    */
   private DummyContent.DummyItem mItem;
 
+  /**
+   * Whether {@link #mItem} holds the full resource rather than the fields of the list.
+   */
+  private boolean mDetailLoaded;
+
   private String mGoogleAccount;
   private String mProjectId;
 
@@ -110,11 +118,19 @@ public class ItemDetailFragment extends Fragment {
       Log.w(LOG_TAG, "ID being displayed: " + argumentId);
 
       // Pull DummyItem from storage.
-      DummyContent.DummyItem dummyItem = DummyContent.ITEM_MAP.get(argumentId);
+      DummyContent.DummyItem dummyItem = DummyContent.getSnapshot().getItem(argumentId);
 
       // Display data if DummyItem was found.
       if (dummyItem != null) {
         mItem = dummyItem;
+        mDetailLoaded = !ResourceDetailCache.isHydratable(dummyItem);
+        if (!mDetailLoaded) {
+          DummyItem detail = ResourceDetailCache.getDetail(dummyItem);
+          if (detail != null) {
+            mItem = detail;
+            mDetailLoaded = true;
+          }
+        }
         if (DEBUG) {
           Log.v(LOG_TAG, "Creating view for " + dummyItem.toString());
         }
@@ -137,21 +153,42 @@ public class ItemDetailFragment extends Fragment {
     return rootView;
   }
 
+  @Override
+  public void onViewCreated(View view, Bundle savedInstanceState) {
+    super.onViewCreated(view, savedInstanceState);
+    if (mItem == null || mDetailLoaded) {
+      return;
+    }
+
+    // Fill in the fields the list does not download once the full resource is available.
+    ResourceDetailCache.load(getActivity(), mGoogleAccount, mProjectId, mItem,
+        new ResourceDetailCache.Listener() {
+          @Override
+          public void onDetailLoaded(DummyItem detail) {
+            View rootView = getView();
+            if (detail == null || rootView == null || !detail.id.equals(mItem.id)) {
+              return;
+            }
+            mItem = detail;
+            mDetailLoaded = true;
+            if (detail instanceof InstanceItem) {
+              displayInstanceInformation(rootView, (InstanceItem) detail);
+            } else if (detail instanceof DiskItem) {
+              displayDiskInformation(rootView, (DiskItem) detail);
+            }
+          }
+        });
+  }
+
   private void displayZoneInformation(View rootView, ZoneItem zoneItem) {
-    Zone zone = zoneItem.zone;
+    ZoneRecord zone = zoneItem.zone;
 
     // Create next maintenance window text.
     StringBuilder maintWindowTextString = new StringBuilder();
-    if (zoneItem.zone.getMaintenanceWindows() != null
-        && zoneItem.zone.getMaintenanceWindows().size() > 0) {
-      for (Zone.MaintenanceWindows nextMaintWindow : zoneItem.zone.getMaintenanceWindows()) {
-        java.text.DateFormat dateFormatter = new SimpleDateFormat(
-            AppConstants.DATE_TIME_FORMAT_STRING);
-
-        String beginString = dateFormatter.format(
-            AppUtils.convertDateTime(nextMaintWindow.getBeginTime()));
-        String endString = dateFormatter.format(
-            AppUtils.convertDateTime(nextMaintWindow.getEndTime()));
+    if (zone.maintenanceWindows.size() > 0) {
+      for (MaintenanceWindow nextMaintWindow : zone.maintenanceWindows) {
+        String beginString = AppUtils.formatDateTime(nextMaintWindow.beginTimeMillis);
+        String endString = AppUtils.formatDateTime(nextMaintWindow.endTimeMillis);
         if (maintWindowTextString.length()!=0) {
           maintWindowTextString.append("\n");
         }
@@ -164,46 +201,47 @@ public class ItemDetailFragment extends Fragment {
     }
 
     // Assign data to the appropriate TextViews.
-    setTextViewText(rootView, R.id.item_detail_name_tv, zone.getName());
-    setTextViewText(rootView, R.id.item_detail_status_tv, zone.getStatus());
+    setTextViewText(rootView, R.id.item_detail_name_tv, zone.name);
+    setTextViewText(rootView, R.id.item_detail_status_tv, zone.status);
     setTextViewText(rootView, R.id.item_detail_outage_tv, maintWindowTextString.toString());
   }
 
   private void displayInstanceInformation(View rootView, InstanceItem instanceItem) {
-    Instance instance = instanceItem.instance;
-
-    java.text.DateFormat dateFormatter = new SimpleDateFormat(
-        AppConstants.DATE_TIME_FORMAT_STRING);
+    InstanceRecord instance = instanceItem.instance;
 
     // Assign instance data to the appropriate TextViews.
-    setTextViewText(rootView, R.id.item_detail_name_tv, instance.getName());
-    setTextViewText(rootView, R.id.item_detail_description_tv, instance.getDescription());
-    setTextViewText(rootView, R.id.item_detail_status_tv, instance.getStatus());
-    setTextViewText(rootView, R.id.item_detail_machine_type_tv,
-        AppUtils.getNameFromSelfLink(instance.getMachineType()));
-    setTextViewText(rootView, R.id.item_detail_zone_tv,
-        AppUtils.getNameFromSelfLink(instance.getZone()));
-
-    // Compose the creation time display string and populate it into the view.
-    Date creationDateTime = AppUtils.convertDateTime(instance.getCreationTimestamp());
-    String createTimeString = dateFormatter.format(creationDateTime);
-
-    // Append a simple up-time human readable string to the create time.
-    createTimeString = createTimeString + "\n" + generateDaysAgoString(creationDateTime.getTime());
-    setTextViewText(rootView, R.id.item_detail_creation_time_tv, createTimeString);
+    setTextViewText(rootView, R.id.item_detail_name_tv, instance.name);
+    setTextViewText(rootView, R.id.item_detail_description_tv, instance.description);
+    setTextViewText(rootView, R.id.item_detail_status_tv, instance.status);
+    setTextViewText(rootView, R.id.item_detail_zone_tv, instance.zone);
+    if (!mDetailLoaded) {
+      // The machine type and creation time are not part of the list.
+      setTextViewText(rootView, R.id.item_detail_machine_type_tv,
+          getString(R.string.detail_loading));
+      setTextViewText(rootView, R.id.item_detail_creation_time_tv,
+          getString(R.string.detail_loading));
+    } else {
+      setTextViewText(rootView, R.id.item_detail_machine_type_tv, instance.machineType);
+
+      // Compose the creation time display string and populate it into the view.
+      String createTimeString = AppUtils.formatDateTime(instance.creationTimeMillis);
+
+      // Append a simple up-time human readable string to the create time.
+      createTimeString = createTimeString + "\n"
+          + generateDaysAgoString(instance.creationTimeMillis);
+      setTextViewText(rootView, R.id.item_detail_creation_time_tv, createTimeString);
+    }
 
     // Build a string to display the associated tags for the Instance then populate into view.
     StringBuilder tagsString = new StringBuilder();
-    if (instance.getTags() != null && instance.getTags().getItems() != null) {
-      for (String tag : instance.getTags().getItems()) {
-        if (tagsString.length() > 0) {
-          // Process iterations 2-N.
-          tagsString.append("\n");
-          tagsString.append(tag);
-        } else {
-          // Process iteration 1.
-          tagsString.append(tag);
-        }
+    for (String tag : instance.tags) {
+      if (tagsString.length() > 0) {
+        // Process iterations 2-N.
+        tagsString.append("\n");
+        tagsString.append(tag);
+      } else {
+        // Process iteration 1.
+        tagsString.append(tag);
       }
     }
     setTextViewText(rootView, R.id.item_detail_tags_tv, tagsString.toString());
@@ -217,13 +255,13 @@ public class ItemDetailFragment extends Fragment {
         Toast.makeText(view.getContext(), R.string.toast_deleting_instance_dot_dot,
             Toast.LENGTH_LONG).show();
         Compute compute = AppUtils.getComputeServiceObject(getActivity(), mGoogleAccount);
-        Instance instance = ((InstanceItem) ItemDetailFragment.this.mItem).instance;
+        InstanceRecord instance = ((InstanceItem) ItemDetailFragment.this.mItem).instance;
 
         // Create and execute the delete operation.
         Compute.Instances.Delete deleteCommand;
         try {
-          String zoneName = AppUtils.getNameFromSelfLink(instance.getZone());
-          deleteCommand = compute.instances().delete(mProjectId, zoneName, instance.getName());
+          String zoneName = instance.zone;
+          deleteCommand = compute.instances().delete(mProjectId, zoneName, instance.name);
           executeZoneOperation(zoneName, deleteCommand);
         } catch (IOException e) {
           e.printStackTrace();
@@ -233,24 +271,28 @@ public class ItemDetailFragment extends Fragment {
   }
 
   private void displayDiskInformation(View rootView, DiskItem diskItem) {
-    Disk disk = diskItem.disk;
-    java.text.DateFormat dateFormatter = new SimpleDateFormat(AppConstants.DATE_TIME_FORMAT_STRING);
+    DiskRecord disk = diskItem.disk;
 
     // Assign instance data to the appropriate TextViews.
-    setTextViewText(rootView, R.id.item_detail_name_tv, disk.getName());
-    setTextViewText(rootView, R.id.item_detail_description_tv, disk.getDescription());
-    setTextViewText(rootView, R.id.item_detail_status_tv, disk.getStatus());
-    setTextViewText(rootView, R.id.item_detail_size_tv, disk.getSizeGb() + "");
-    setTextViewText(rootView, R.id.item_detail_zone_tv,
-        AppUtils.getNameFromSelfLink(disk.getZone()));
+    setTextViewText(rootView, R.id.item_detail_name_tv, disk.name);
+    setTextViewText(rootView, R.id.item_detail_description_tv, disk.description);
+    setTextViewText(rootView, R.id.item_detail_status_tv, disk.status);
+    setTextViewText(rootView, R.id.item_detail_zone_tv, disk.zone);
+    if (!mDetailLoaded) {
+      // The size and creation time are not part of the list.
+      setTextViewText(rootView, R.id.item_detail_size_tv, getString(R.string.detail_loading));
+      setTextViewText(rootView, R.id.item_detail_creation_time_tv,
+          getString(R.string.detail_loading));
+    } else {
+      setTextViewText(rootView, R.id.item_detail_size_tv, disk.sizeGb + "");
 
-    // Compose the creation time display string and populate it into the view.
-    Date creationDateTime = AppUtils.convertDateTime(disk.getCreationTimestamp());
-    String createTimeString = dateFormatter.format(creationDateTime);
+      // Compose the creation time display string and populate it into the view.
+      String createTimeString = AppUtils.formatDateTime(disk.creationTimeMillis);
 
-    // Append a simple up-time human readable string to the create time.
-    createTimeString = createTimeString + "\n" + generateDaysAgoString(creationDateTime.getTime());
-    setTextViewText(rootView, R.id.item_detail_creation_time_tv, createTimeString);
+      // Append a simple up-time human readable string to the create time.
+      createTimeString = createTimeString + "\n" + generateDaysAgoString(disk.creationTimeMillis);
+      setTextViewText(rootView, R.id.item_detail_creation_time_tv, createTimeString);
+    }
 
     // Enable the delete button.
     Button deleteButton = ((Button) rootView.findViewById(R.id.item_detail_delete_button));
@@ -261,13 +303,13 @@ public class ItemDetailFragment extends Fragment {
         Toast.makeText(view.getContext(), R.string.toast_deleting_instance_dot_dot,
             Toast.LENGTH_LONG).show();
         Compute compute = AppUtils.getComputeServiceObject(getActivity(), mGoogleAccount);
-        Disk disk = ((DiskItem) ItemDetailFragment.this.mItem).disk;
+        DiskRecord disk = ((DiskItem) ItemDetailFragment.this.mItem).disk;
 
         // Create and execute the delete operation.
         Compute.Disks.Delete deleteCommand;
         try {
-          String zoneName = AppUtils.getNameFromSelfLink(disk.getZone());
-          deleteCommand = compute.disks().delete(mProjectId, zoneName, disk.getName());
+          String zoneName = disk.zone;
+          deleteCommand = compute.disks().delete(mProjectId, zoneName, disk.name);
           executeZoneOperation(zoneName, deleteCommand);
         } catch (IOException e) {
           e.printStackTrace();
@@ -281,7 +323,7 @@ public class ItemDetailFragment extends Fragment {
     ZoneOperationParameters deleteResourceOperation = new ZoneOperationParameters();
     deleteResourceOperation.zone = zoneName;
     deleteResourceOperation.computeOperation = command;
-    task.execute(deleteResourceOperation);
+    task.executeInLane(deleteResourceOperation);
   }
 
   private static void setTextViewText(View rootView, int viewId, String text) {
@@ -19,6 +19,8 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.app.FragmentActivity;
 
+import com.google.devrel.samples.compute.android.tasks.ComputeTask;
+
 
 /**
  * An activity representing a list of Items. This activity
@@ -67,6 +69,13 @@ public class ItemListActivity extends FragmentActivity
         // TODO(developer): If exposing deep links into your app, handle intents here.
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Detach the operation tasks started from this activity.
+        ComputeTask.onOwnerDestroyed(this);
+    }
+
     /**
      * Callback method from {@link ItemListFragment.Callbacks}
      * indicating that the item with the given ID was selected.
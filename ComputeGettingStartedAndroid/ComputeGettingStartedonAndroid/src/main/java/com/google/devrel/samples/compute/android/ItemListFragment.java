@@ -16,29 +16,59 @@
 package com.google.devrel.samples.compute.android;
 
 import android.app.Activity;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DataSetObserver;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.ListFragment;
+import android.support.v4.app.LoaderManager.LoaderCallbacks;
+import android.support.v4.content.Loader;
 import android.text.SpannableString;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.RelativeSizeSpan;
 import android.util.Log;
+import android.view.ActionMode;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
 import android.widget.ListView;
+import android.widget.SearchView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.google.api.client.repackaged.com.google.common.base.Strings;
-import com.google.api.services.compute.model.Disk;
-import com.google.api.services.compute.model.Instance;
-import com.google.api.services.compute.model.Zone;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.devrel.samples.compute.android.data.ResourceStore;
 import com.google.devrel.samples.compute.android.dummy.DummyContent;
 import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
 import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
 import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.Section;
 import com.google.devrel.samples.compute.android.dummy.DummyContent.ZoneItem;
-import com.google.devrel.samples.compute.android.tasks.DownloadProjectInformationTask;
+import com.google.devrel.samples.compute.android.dummy.ResourceSnapshot;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+import com.google.devrel.samples.compute.android.model.ResourceQuery;
+import com.google.devrel.samples.compute.android.model.ZoneRecord;
+import com.google.devrel.samples.compute.android.tasks.BulkOperationPipeline;
+import com.google.devrel.samples.compute.android.tasks.ProjectLoader;
+import com.google.devrel.samples.compute.android.tasks.ResourceDetailCache;
+import com.google.devrel.samples.compute.android.tasks.ResourcePager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * A list fragment representing a list of Items. This fragment
@@ -51,11 +81,16 @@ import com.google.devrel.samples.compute.android.tasks.DownloadProjectInformatio
  *
  * This Android sample code has been modified to display Google Compute Engine resource data
  * that is stored in extended {@code DummyContent.DummyItem} objects in a consolidated
- * {@code ListView}.
+ * {@code ListView}. Resources stored by the {@code ResourceProvider} are displayed immediately
+ * while a fresh copy is downloaded in the background by a {@code ProjectLoader}, which fragments
+ * recreated on a configuration change share instead of downloading again. Further pages of
+ * Instances and Disks are downloaded as the list is scrolled, and the filter in the action bar
+ * searches the names, tags and descriptions of the loaded resources. A long press selects
+ * Instances and Disks for a bulk delete.
  *
  * @author paul.rashidi@google.com (Paul Rashidi)
  */
-public class ItemListFragment extends ListFragment {
+public class ItemListFragment extends ListFragment implements LoaderCallbacks<Cursor> {
   /**
    * The serialization (saved instance state) Bundle key representing the
    * activated item position. Only used on tablets.
@@ -64,9 +99,45 @@ public class ItemListFragment extends ListFragment {
 
   private static final String LOG_TAG = "ItemListFragment";
 
+  /**
+   * ID of the {@code Loader} reading resources stored by the {@code ResourceProvider}.
+   */
+  private static final int STORED_RESOURCES_LOADER = 0;
+
+  /**
+   * Minimum time between two progress toasts of a bulk operation.
+   */
+  private static final long BULK_PROGRESS_TOAST_INTERVAL_MILLIS = 2000L;
+
   private String mEmailAccount;
   private String mProjectId;
 
+  /**
+   * Action mode active while the user selects resources for a bulk operation.
+   */
+  private ActionMode mSelectionMode;
+
+  /**
+   * Loads the resources of the project; shared with the fragments created before and after this
+   * one, for example across a rotation.
+   */
+  private ProjectLoader mLoader;
+
+  /**
+   * Refreshes the list whenever the loader changed the displayed content.
+   */
+  private final DataSetObserver mContentObserver = new DataSetObserver() {
+    @Override
+    public void onChanged() {
+      ((BaseAdapter) getListAdapter()).notifyDataSetChanged();
+    }
+  };
+
+  /**
+   * Restricts the Instances and Disks downloaded; built from the filter when it is submitted.
+   */
+  private ResourceQuery mQuery = ResourceQuery.ALL;
+
   /**
    * The fragment's current callback object, which is notified of list item
    * clicks.
@@ -117,15 +188,121 @@ public class ItemListFragment extends ListFragment {
 
     Log.d(LOG_TAG, "Listing resources for:" + mEmailAccount + " and " + mProjectId);
 
+    // Contributes the resource filter to the action bar.
+    setHasOptionsMenu(true);
+
+    // Resources of a previous project must not be displayed; those of this project stay on
+    // display, for example across a rotation, until the download refreshes them.
+    DummyContent.setProject(mEmailAccount, mProjectId);
+
     // TODO(developer): replace with a real list adapter that is backed by real data storage.
-    ArrayAdapter<DummyItem> arrayAdapter = new ComputeResourceListAdapter(this.getActivity());
-    setListAdapter(arrayAdapter);
+    ComputeResourceListAdapter listAdapter = new ComputeResourceListAdapter(this.getActivity());
+    setListAdapter(listAdapter);
+
+    // Display the resources stored by the last download right away...
+    getLoaderManager().initLoader(STORED_RESOURCES_LOADER, null, this);
+
+    // ...and refresh the local data in the background, unless a previous instance of this
+    // fragment is already doing so or just did.
+    mLoader = ProjectLoader.get(getActivity(), mEmailAccount, mProjectId);
+    mQuery = mLoader.getQuery();
+    mLoader.registerObserver(mContentObserver);
+    mLoader.load(mQuery);
+  }
+
+  /**
+   * Download again if the {@code status:}, {@code name:} and {@code zone:} terms of the filter
+   * select different Instances and Disks than those on display.
+   */
+  private void applyResourceQuery(String filter) {
+    ResourceQuery query;
+    try {
+      query = ResourceQuery.parse(filter);
+    } catch (IllegalArgumentException e) {
+      Toast.makeText(getActivity(), R.string.toast_invalid_filter, Toast.LENGTH_SHORT).show();
+      return;
+    }
+    if (query.equals(mQuery)) {
+      return;
+    }
+    mQuery = query;
+    Log.d(LOG_TAG, "Listing resources matching " + query);
+
+    // Instances and Disks of the previous query must not show while the new ones download.
+    ResourceSnapshot snapshot = DummyContent.getSnapshot();
+    Map<Section, List<DummyItem>> sections = Maps.newEnumMap(Section.class);
+    if (snapshot.getSectionStart(Section.ZONES) >= 0) {
+      sections.put(Section.ZONES, snapshot.getSectionItems(Section.ZONES));
+    }
+    if (DummyContent.replaceContent(sections)) {
+      ((BaseAdapter) getListAdapter()).notifyDataSetChanged();
+    }
+    mLoader.load(query);
+  }
+
+  @Override
+  public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+    super.onCreateOptionsMenu(menu, inflater);
+    inflater.inflate(R.menu.item_list, menu);
+
+    // Filter the displayed resources as the query is typed.
+    SearchView searchView = (SearchView) menu.findItem(R.id.action_filter).getActionView();
+    searchView.setQueryHint(getString(R.string.hint_filter_resources));
+    searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+      @Override
+      public boolean onQueryTextSubmit(String query) {
+        // Predicates on status, name and Zone are evaluated by the server.
+        applyResourceQuery(query);
+        return false;
+      }
+
+      @Override
+      public boolean onQueryTextChange(String newText) {
+        ((ComputeResourceListAdapter) getListAdapter()).setQuery(
+            ResourceQuery.stripQualifiers(newText));
+        if (newText.length() == 0) {
+          applyResourceQuery(newText);
+        }
+        return true;
+      }
+    });
+  }
+
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    mLoader.unregisterObserver(mContentObserver);
+    if (getActivity().isFinishing()) {
+      // The list is closed for good rather than recreated.
+      mLoader.close();
+    }
+  }
+
+  @Override
+  public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+    return ResourceStore.newProjectLoader(getActivity(), mEmailAccount, mProjectId);
+  }
+
+  @Override
+  public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+    if (!DummyContent.isEmpty()) {
+      // The download already delivered fresh data; stored data is only a placeholder for it.
+      return;
+    }
 
-    // Kick off a task to refresh the local data.
-    DownloadProjectInformationTask downloadProjectInfoTask =
-        new DownloadProjectInformationTask(getActivity(), mEmailAccount, mProjectId, arrayAdapter);
-    downloadProjectInfoTask.execute((Object)null);
+    if (cursor == null || cursor.getCount() == 0) {
+      return;
+    }
 
+    Log.d(LOG_TAG, "Displaying " + cursor.getCount() + " stored resources");
+    Map<Section, List<DummyItem>> storedItems = ResourceStore.readItems(cursor);
+    DummyContent.replaceContent(storedItems);
+    ((BaseAdapter) getListAdapter()).notifyDataSetChanged();
+  }
+
+  @Override
+  public void onLoaderReset(Loader<Cursor> loader) {
+    // Stored resources are copied into {@code DummyContent}; no cursor reference is retained.
   }
 
   @Override
@@ -137,6 +314,123 @@ public class ItemListFragment extends ListFragment {
         STATE_ACTIVATED_POSITION)) {
       setActivatedPosition(savedInstanceState.getInt(STATE_ACTIVATED_POSITION));
     }
+
+    // Download further pages of Instances and Disks as their rows come into view.
+    getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+      @Override
+      public void onScrollStateChanged(AbsListView view, int scrollState) {
+      }
+
+      @Override
+      public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+          int totalItemCount) {
+        ComputeResourceListAdapter adapter = (ComputeResourceListAdapter) getListAdapter();
+        ResourcePager pager = mLoader.getPager();
+        if (pager != null && visibleItemCount > 0 && !adapter.isFiltered()) {
+          pager.onRowsVisible(adapter.getSnapshot(), firstVisibleItem,
+              firstVisibleItem + visibleItemCount - 1);
+        }
+      }
+    });
+
+    // A long press starts selecting resources for a bulk delete.
+    getListView().setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+      @Override
+      public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+        DummyItem item = (DummyItem) parent.getItemAtPosition(position);
+        if (!ComputeResourceListAdapter.isSelectable(item)) {
+          return false;
+        }
+        if (mSelectionMode == null) {
+          mSelectionMode = getActivity().startActionMode(mSelectionModeCallback);
+        }
+        toggleSelection(item);
+        return true;
+      }
+    });
+  }
+
+  private void toggleSelection(DummyItem item) {
+    ComputeResourceListAdapter adapter = (ComputeResourceListAdapter) getListAdapter();
+    adapter.toggleSelection(item);
+    if (adapter.getSelectedCount() == 0) {
+      mSelectionMode.finish();
+    } else {
+      mSelectionMode.setTitle(getString(R.string.title_selected_count,
+          adapter.getSelectedCount()));
+    }
+  }
+
+  private final ActionMode.Callback mSelectionModeCallback = new ActionMode.Callback() {
+    @Override
+    public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+      mode.getMenuInflater().inflate(R.menu.item_list_selection, menu);
+      return true;
+    }
+
+    @Override
+    public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+      return false;
+    }
+
+    @Override
+    public boolean onActionItemClicked(ActionMode mode, MenuItem menuItem) {
+      if (menuItem.getItemId() == R.id.action_delete_selected) {
+        deleteSelectedResources();
+        mode.finish();
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public void onDestroyActionMode(ActionMode mode) {
+      ((ComputeResourceListAdapter) getListAdapter()).clearSelection();
+      mSelectionMode = null;
+    }
+  };
+
+  /**
+   * Delete the selected resources with a {@code BulkOperationPipeline}, reporting progress in a
+   * single aggregated toast.
+   */
+  private void deleteSelectedResources() {
+    ComputeResourceListAdapter adapter = (ComputeResourceListAdapter) getListAdapter();
+    // The loader outlives this fragment; removals reach the fragment displaying the list by then,
+    // for example after a rotation, through its content observer.
+    final ProjectLoader loader = mLoader;
+    final Context applicationContext = getActivity().getApplicationContext();
+    final Toast progressToast = Toast.makeText(applicationContext, "", Toast.LENGTH_SHORT);
+
+    BulkOperationPipeline pipeline = new BulkOperationPipeline(
+        AppUtils.getComputeServiceObject(getActivity(), mEmailAccount), mProjectId,
+        BulkOperationPipeline.DEFAULT_CONCURRENCY, BulkOperationPipeline.DEFAULT_BATCH_SIZE,
+        new BulkOperationPipeline.Listener() {
+          private long mLastToastMillis = 0L;
+
+          @Override
+          public void onProgress(BulkOperationPipeline.Progress progress) {
+            long nowMillis = SystemClock.elapsedRealtime();
+            if (progress.isFinished()) {
+              progressToast.setText(applicationContext.getString(
+                  R.string.toast_bulk_delete_finished, progress.succeeded, progress.failed));
+            } else if (nowMillis - mLastToastMillis > BULK_PROGRESS_TOAST_INTERVAL_MILLIS) {
+              progressToast.setText(applicationContext.getString(
+                  R.string.toast_bulk_delete_progress, progress.total, progress.submitted,
+                  progress.succeeded, progress.failed));
+            } else {
+              return;
+            }
+            mLastToastMillis = nowMillis;
+            progressToast.show();
+          }
+
+          @Override
+          public void onResourceDeleted(DummyItem item) {
+            loader.removeResource(item);
+          }
+        });
+    pipeline.deleteAll(adapter.getSelectedItems());
   }
 
   @Override
@@ -163,13 +457,47 @@ public class ItemListFragment extends ListFragment {
   public void onListItemClick(ListView listView, View view, int position, long id) {
     super.onListItemClick(listView, view, position, id);
 
+    if (mSelectionMode != null) {
+      // Clicks change the selection while selecting resources.
+      DummyItem selectedItem = (DummyItem) listView.getItemAtPosition(position);
+      if (ComputeResourceListAdapter.isSelectable(selectedItem)) {
+        toggleSelection(selectedItem);
+      }
+      return;
+    }
+
     // Notify the active callbacks interface (the activity, if the
     // fragment is attached to one) that an item has been selected.
-    DummyContent.DummyItem item = DummyContent.ITEMS.get(position);
-    if (!(item instanceof DummyContent.DummyHeader)) {
-      // Ignore clicks on header items.
-      mCallbacks.onItemSelected(DummyContent.ITEMS.get(position).id);
+    DummyContent.DummyItem item = (DummyItem) listView.getItemAtPosition(position);
+    if (item instanceof DummyContent.DummyHeader && ((DummyContent.DummyHeader) item).failed) {
+      // Download the sections that failed to load again.
+      mLoader.retryFailed();
+      return;
+    }
+    if (!(item instanceof DummyContent.DummyHeader)
+        && !(item instanceof DummyContent.DummyPlaceholder)) {
+      // Ignore clicks on header and placeholder items.
+      prefetchDetails(listView, position);
+      mCallbacks.onItemSelected(item.id);
+    }
+  }
+
+  /**
+   * Download the full resources of the selected row and of the rows around it, so their detail
+   * screens open from the cache.
+   */
+  private void prefetchDetails(ListView listView, int position) {
+    List<DummyItem> items = Lists.newArrayList();
+    // The selected row first, so its download starts before those of its neighbours.
+    items.add((DummyItem) listView.getItemAtPosition(position));
+    int first = Math.max(0, position - AppUtils.DETAIL_PREFETCH_DISTANCE);
+    int last = Math.min(listView.getCount() - 1, position + AppUtils.DETAIL_PREFETCH_DISTANCE);
+    for (int i = first; i <= last; i++) {
+      if (i != position) {
+        items.add((DummyItem) listView.getItemAtPosition(i));
+      }
     }
+    ResourceDetailCache.prefetch(getActivity(), mEmailAccount, mProjectId, items);
   }
 
   @Override
@@ -203,12 +531,14 @@ public class ItemListFragment extends ListFragment {
   }
 
   /**
-   * Reuse the basic code of an {@code ArrayAdapter} to display Google Compute Engine resources in a
-   * ListView.
+   * Display the rows of a {@code ResourceSnapshot} in a ListView. The adapter keeps reading the
+   * snapshot it was last notified of, so the rows cannot change under the ListView between
+   * {@link #notifyDataSetChanged()} calls.
    */
-  public static class ComputeResourceListAdapter extends ArrayAdapter<DummyItem> {
+  public static class ComputeResourceListAdapter extends BaseAdapter {
     private static final int COLOR_GREEN = Color.parseColor("#0FB721");
     private static final int COLOR_RED = Color.parseColor("#CA1229");
+    private static final int COLOR_SELECTED = Color.parseColor("#5533B5E5");
     /**
      * Reusing an Android supplied simple list layout.
      */
@@ -222,145 +552,293 @@ public class ItemListFragment extends ListFragment {
      */
     private static final int SMALL_TEXT_VIEW_ID_IN_LAYOUT = android.R.id.text2;
 
-    public ComputeResourceListAdapter(Activity activity) {
-      super(activity, ITEM_LAYOUT, LARGE_TEXT_VIEW_ID_IN_LAYOUT, DummyContent.ITEMS);
+    /**
+     * IDs of the resources selected for a bulk operation.
+     */
+    private final Set<String> mSelectedIds = Sets.newHashSet();
+    private final LayoutInflater mInflater;
+    private ResourceSnapshot mSnapshot;
+    /**
+     * Search results displayed instead of the snapshot rows while a filter query is set.
+     */
+    private List<DummyItem> mFilteredRows;
+    private String mQuery = "";
+    /**
+     * Render models of the displayed items, built when a snapshot or search result is picked up.
+     * Entries go away with the items once no snapshot holds them any more.
+     */
+    private final Map<DummyItem, RowModel> mRowModels = new WeakHashMap<DummyItem, RowModel>();
+
+    public ComputeResourceListAdapter(Context context) {
+      mInflater = LayoutInflater.from(context);
+      mSnapshot = DummyContent.getSnapshot();
+      buildRowModels(mSnapshot.getRows());
     }
 
+    /**
+     * Pick up the latest snapshot published by {@code DummyContent}, and build the render models of
+     * its new items so that binding rows while scrolling does not allocate.
+     */
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-      // ArrayAdapter takes care of populating the view with text according to the .toString() of
-      // the objects within the array that it is mapping to the ListView widget.
-      View view = super.getView(position, convertView, parent);
+    public void notifyDataSetChanged() {
+      mSnapshot = DummyContent.getSnapshot();
+      mFilteredRows = (mQuery.length() > 0) ? DummyContent.search(mQuery) : null;
+      buildRowModels((mFilteredRows != null) ? mFilteredRows : mSnapshot.getRows());
+      super.notifyDataSetChanged();
+    }
 
-      // Find the item associated with this row.
-      DummyContent.DummyItem item = getItem(position);
+    /**
+     * Display only the resources matching {@code query}; an empty query displays every row.
+     */
+    public void setQuery(String query) {
+      mQuery = query.trim();
+      notifyDataSetChanged();
+    }
 
-      // Override the text being displayed by ArrayAdapter by default.
-      if (item instanceof InstanceItem) {
-        displayInstanceDataInView(view, (InstanceItem) item);
-      } else if (item instanceof DiskItem) {
-        displayDiskDataInView(view, (DiskItem) item);
-      } else if (item instanceof ZoneItem) {
-        displayZoneDataInView(view, (ZoneItem) item);
-      } else {
-        // Clear out the small text view.
-        TextView smallTextTextView = (TextView) view.findViewById(SMALL_TEXT_VIEW_ID_IN_LAYOUT);
-        smallTextTextView.setText("");
-        smallTextTextView.setVisibility(View.GONE);
+    /**
+     * Whether search results are displayed rather than the snapshot rows.
+     */
+    public boolean isFiltered() {
+      return mFilteredRows != null;
+    }
+
+    /**
+     * The snapshot currently displayed.
+     */
+    public ResourceSnapshot getSnapshot() {
+      return mSnapshot;
+    }
+
+    @Override
+    public int getCount() {
+      return (mFilteredRows != null) ? mFilteredRows.size() : mSnapshot.size();
+    }
+
+    @Override
+    public DummyItem getItem(int position) {
+      return (mFilteredRows != null) ? mFilteredRows.get(position) : mSnapshot.get(position);
+    }
+
+    /**
+     * Row IDs are derived from item IDs, so the ListView keeps its state across refreshes.
+     */
+    @Override
+    public long getItemId(int position) {
+      return getItem(position).getStableId();
+    }
+
+    @Override
+    public boolean hasStableIds() {
+      return true;
+    }
+
+    /**
+     * Whether an item can be selected for a bulk operation.
+     */
+    public static boolean isSelectable(DummyItem item) {
+      return item instanceof InstanceItem || item instanceof DiskItem;
+    }
+
+    public void toggleSelection(DummyItem item) {
+      if (!mSelectedIds.remove(item.id)) {
+        mSelectedIds.add(item.id);
+      }
+      notifyDataSetChanged();
+    }
+
+    public void clearSelection() {
+      mSelectedIds.clear();
+      notifyDataSetChanged();
+    }
+
+    public int getSelectedCount() {
+      return mSelectedIds.size();
+    }
+
+    public List<DummyItem> getSelectedItems() {
+      List<DummyItem> selectedItems = Lists.newArrayList();
+      for (String selectedId : mSelectedIds) {
+        DummyItem item = mSnapshot.getItem(selectedId);
+        if (item != null) {
+          selectedItems.add(item);
+        }
       }
+      return selectedItems;
+    }
 
-      if (item instanceof DummyContent.DummyHeader) {
-        TextView textView = (TextView) view.findViewById(LARGE_TEXT_VIEW_ID_IN_LAYOUT);
-        textView.setGravity(View.TEXT_ALIGNMENT_GRAVITY);
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+      View view = convertView;
+      ViewHolder holder;
+      if (view == null) {
+        view = mInflater.inflate(ITEM_LAYOUT, parent, false);
+        holder = new ViewHolder(view);
+        view.setTag(holder);
       } else {
-        TextView textView = (TextView) view.findViewById(LARGE_TEXT_VIEW_ID_IN_LAYOUT);
-        textView.setGravity(View.TEXT_ALIGNMENT_CENTER);
+        holder = (ViewHolder) view.getTag();
       }
 
+      // Find the item associated with this row and bind its precomputed text.
+      DummyContent.DummyItem item = getItem(position);
+      RowModel rowModel = mRowModels.get(item);
+      holder.largeText.setText(rowModel.largeText);
+      holder.largeText.setGravity(rowModel.gravity);
+      holder.smallText.setText(rowModel.smallText);
+      holder.smallText.setVisibility((rowModel.smallText != null) ? View.VISIBLE : View.GONE);
+
+      // Highlight rows selected for a bulk operation.
+      view.setBackgroundColor(mSelectedIds.contains(item.id) ? COLOR_SELECTED : Color.TRANSPARENT);
+
       return view;
     }
 
     /**
-     * Override the {@code ArrayAdapter} code to display more than just .toString() if the item is
-     * a Zone.
+     * Build the render models of the rows that do not have one yet. Unchanged items keep their
+     * instance across snapshots, so only inserted and changed items are built.
      */
-    private void displayZoneDataInView(View view, ZoneItem zoneItem) {
-      Zone zone = zoneItem.zone;
+    private void buildRowModels(List<DummyItem> rows) {
+      for (int i = 0; i < rows.size(); i++) {
+        DummyItem item = rows.get(i);
+        if (!mRowModels.containsKey(item)) {
+          mRowModels.put(item, buildRowModel(item));
+        }
+      }
+    }
+
+    /**
+     * The views of a row, looked up once when the row is inflated.
+     */
+    private static class ViewHolder {
+      final TextView largeText;
+      final TextView smallText;
+
+      ViewHolder(View view) {
+        largeText = (TextView) view.findViewById(LARGE_TEXT_VIEW_ID_IN_LAYOUT);
+        smallText = (TextView) view.findViewById(SMALL_TEXT_VIEW_ID_IN_LAYOUT);
+      }
+    }
+
+    /**
+     * Styled text of a row. Items are immutable once published, so the model is built once per
+     * item and binding a row only sets references.
+     */
+    private static class RowModel {
+      final CharSequence largeText;
+      /**
+       * {@code null} hides the small TextView.
+       */
+      final CharSequence smallText;
+      final int gravity;
+
+      RowModel(CharSequence largeText, CharSequence smallText, int gravity) {
+        this.largeText = largeText;
+        this.smallText = smallText;
+        this.gravity = gravity;
+      }
+    }
+
+    private static RowModel buildRowModel(DummyItem item) {
+      if (item instanceof InstanceItem) {
+        return buildInstanceRowModel((InstanceItem) item);
+      } else if (item instanceof DiskItem) {
+        return buildDiskRowModel((DiskItem) item);
+      } else if (item instanceof ZoneItem) {
+        return buildZoneRowModel((ZoneItem) item);
+      } else if (item instanceof DummyContent.DummyHeader) {
+        if (((DummyContent.DummyHeader) item).failed) {
+          SpannableString text = new SpannableString(item.toString());
+          text.setSpan(new ForegroundColorSpan(COLOR_RED), 0, text.length(), 0);
+          return new RowModel(text, null, View.TEXT_ALIGNMENT_GRAVITY);
+        }
+        return new RowModel(item.toString(), null, View.TEXT_ALIGNMENT_GRAVITY);
+      }
+      return new RowModel(item.toString(), null, View.TEXT_ALIGNMENT_CENTER);
+    }
+
+    /**
+     * Display more than just .toString() if the item is a Zone.
+     */
+    private static RowModel buildZoneRowModel(ZoneItem zoneItem) {
+      ZoneRecord zone = zoneItem.zone;
 
       // Construct a colored status string.
-      SpannableString statusText = new SpannableString(zone.getStatus());
-      if ("UP".equalsIgnoreCase(zone.getStatus())) {
-        statusText.setSpan(new ForegroundColorSpan(COLOR_GREEN), 0, zone.getStatus().length(), 0);
+      SpannableString statusText = new SpannableString(zone.status);
+      if ("UP".equalsIgnoreCase(zone.status)) {
+        statusText.setSpan(new ForegroundColorSpan(COLOR_GREEN), 0, zone.status.length(), 0);
       } else {
-        statusText.setSpan(new ForegroundColorSpan(COLOR_RED), 0, zone.getStatus().length(), 0);
+        statusText.setSpan(new ForegroundColorSpan(COLOR_RED), 0, zone.status.length(), 0);
       }
 
-      // Put the status string in the small TextView of the view.
-      TextView smallTextTextView = (TextView)view.findViewById(SMALL_TEXT_VIEW_ID_IN_LAYOUT);
-      smallTextTextView.setText(statusText);
-      smallTextTextView.setVisibility(View.VISIBLE);
-
-      // Rebuild the large TextView string if the zoneItem has a userMessage.
+      // Rebuild the large text if the zoneItem has a userMessage.
+      CharSequence largeText = zone.name;
       if (!Strings.isNullOrEmpty(zoneItem.userMessage)) {
-        TextView largeTextTextView = (TextView) view.findViewById(LARGE_TEXT_VIEW_ID_IN_LAYOUT);
-        SpannableString text2 = new SpannableString(zone.getName() + "\n" + zoneItem.userMessage);
-        text2.setSpan(new ForegroundColorSpan(COLOR_RED), zone.getName().length() + 1,
+        SpannableString text2 = new SpannableString(zone.name + "\n" + zoneItem.userMessage);
+        text2.setSpan(new ForegroundColorSpan(COLOR_RED), zone.name.length() + 1,
             text2.length(), 0);
-        text2.setSpan(new RelativeSizeSpan(.75F), zone.getName().length() + 1, text2.length(), 0);
-        largeTextTextView.setText(text2);
+        text2.setSpan(new RelativeSizeSpan(.75F), zone.name.length() + 1, text2.length(), 0);
+        largeText = text2;
       }
+      return new RowModel(largeText, statusText, View.TEXT_ALIGNMENT_CENTER);
     }
 
     /**
-     * Override the {@code ArrayAdapter} code to display more than just .toString() if the item is
-     * a Disk.
+     * Display more than just .toString() if the item is a Disk.
      */
-    private void displayDiskDataInView(View view, DiskItem diskItem) {
-      Disk disk = diskItem.disk;
+    private static RowModel buildDiskRowModel(DiskItem diskItem) {
+      DiskRecord disk = diskItem.disk;
 
-      // For a DiskItem populate the small text view with the user message and status.
+      // For a DiskItem populate the small text with the user message and status.
       SpannableString text;
       if (!Strings.isNullOrEmpty(diskItem.userMessage)) {
         // User message was present.
-        String statusText = disk.getStatus() + "\n"
-            + ((diskItem.userMessage != null) ? diskItem.userMessage : "");
-        text = new SpannableString(statusText);
+        text = new SpannableString(disk.status + "\n" + diskItem.userMessage);
         text.setSpan(new ForegroundColorSpan(COLOR_RED), 0, text.length(), 0);
-      } else if ("READY".equalsIgnoreCase(disk.getStatus())) {
+      } else if ("READY".equalsIgnoreCase(disk.status)) {
         // No user message and disk was in a good state, therefore, display status.
-        text = new SpannableString(disk.getStatus());
-        text.setSpan(new ForegroundColorSpan(COLOR_GREEN), 0, disk.getStatus().length(), 0);
+        text = new SpannableString(disk.status);
+        text.setSpan(new ForegroundColorSpan(COLOR_GREEN), 0, disk.status.length(), 0);
       } else {
         // No user message and disk was not in a good state; display status in red.
-        text = new SpannableString(disk.getStatus());
-        text.setSpan(new ForegroundColorSpan(COLOR_RED), 0, disk.getStatus().length(), 0);
+        text = new SpannableString(disk.status);
+        text.setSpan(new ForegroundColorSpan(COLOR_RED), 0, disk.status.length(), 0);
       }
-
-      TextView smallTextTextView = (TextView)view.findViewById(SMALL_TEXT_VIEW_ID_IN_LAYOUT);
-      smallTextTextView.setText(text);
-      smallTextTextView.setVisibility(View.VISIBLE);
+      return new RowModel(disk.name, text, View.TEXT_ALIGNMENT_CENTER);
     }
 
     /**
-     * Override the {@code ArrayAdapter} code to display more than just .toString() if the item is
-     * a Instance.
+     * Display more than just .toString() if the item is an Instance.
      */
-    private void displayInstanceDataInView(View view, InstanceItem instanceItem) {
-      Instance instance = instanceItem.instance;
-
-      // Rebuild the large text TextView if the Instance has a description.
-      if (!Strings.isNullOrEmpty(instance.getDescription())) {
-        String descriptionText = AppUtils.trimString(instance.getDescription(), 40, null, "..");
-        TextView largeTextTextView = (TextView) view.findViewById(LARGE_TEXT_VIEW_ID_IN_LAYOUT);
-        SpannableString text2 = new SpannableString(instance.getName() + "\n" + descriptionText);
-        text2.setSpan(new ForegroundColorSpan(Color.GRAY), instance.getName().length() + 1,
+    private static RowModel buildInstanceRowModel(InstanceItem instanceItem) {
+      InstanceRecord instance = instanceItem.instance;
+
+      // Rebuild the large text if the Instance has a description.
+      CharSequence largeText = instance.name;
+      if (!Strings.isNullOrEmpty(instance.description)) {
+        String descriptionText = AppUtils.trimString(instance.description, 40, null, "..");
+        SpannableString text2 = new SpannableString(instance.name + "\n" + descriptionText);
+        text2.setSpan(new ForegroundColorSpan(Color.GRAY), instance.name.length() + 1,
             text2.length(), 0);
-        text2.setSpan(new RelativeSizeSpan(.75F), instance.getName().length() + 1, text2.length(),
+        text2.setSpan(new RelativeSizeSpan(.75F), instance.name.length() + 1, text2.length(),
             0);
-        largeTextTextView.setText(text2);
+        largeText = text2;
       }
 
-      // For an InstanceItem populate the small text view with the user message and status.
+      // For an InstanceItem populate the small text with the user message and status.
       SpannableString text;
       if (!Strings.isNullOrEmpty(instanceItem.userMessage)) {
         // User message was present.
-        String statusText = instance.getStatus() + "\n"
-            + ((instanceItem.userMessage != null) ? instanceItem.userMessage : "");
-        text = new SpannableString(statusText);
+        text = new SpannableString(instance.status + "\n" + instanceItem.userMessage);
         text.setSpan(new ForegroundColorSpan(COLOR_RED), 0, text.length(), 0);
-      } else if ("RUNNING".equalsIgnoreCase(instance.getStatus())) {
+      } else if ("RUNNING".equalsIgnoreCase(instance.status)) {
         // No user message and instance was in a good state, therefore, display status.
-        text = new SpannableString(instance.getStatus());
-        text.setSpan(new ForegroundColorSpan(COLOR_GREEN), 0, instance.getStatus().length(), 0);
+        text = new SpannableString(instance.status);
+        text.setSpan(new ForegroundColorSpan(COLOR_GREEN), 0, instance.status.length(), 0);
       } else {
         // No user message and instance was not in a good state; display status in red.
-        text = new SpannableString(instance.getStatus());
-        text.setSpan(new ForegroundColorSpan(COLOR_RED), 0, instance.getStatus().length(), 0);
+        text = new SpannableString(instance.status);
+        text.setSpan(new ForegroundColorSpan(COLOR_RED), 0, instance.status.length(), 0);
       }
-
-      TextView smallTextTextView = (TextView)view.findViewById(SMALL_TEXT_VIEW_ID_IN_LAYOUT);
-      smallTextTextView.setText(text);
-      smallTextTextView.setVisibility(View.VISIBLE);
+      return new RowModel(largeText, text, View.TEXT_ALIGNMENT_CENTER);
     }
   }
 }
@@ -21,8 +21,8 @@ import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
@@ -36,7 +36,9 @@ import com.google.android.gms.auth.GoogleAuthException;
 import com.google.android.gms.auth.GoogleAuthUtil;
 import com.google.android.gms.auth.UserRecoverableAuthException;
 import com.google.api.client.repackaged.com.google.common.base.Strings;
-import com.google.api.services.compute.ComputeScopes;
+import com.google.devrel.samples.compute.android.auth.TokenManager;
+import com.google.devrel.samples.compute.android.tasks.ComputeTask;
+import com.google.devrel.samples.compute.android.tasks.TaskLane;
 
 import java.io.IOException;
 
@@ -170,6 +172,14 @@ public class LoginActivity extends Activity {
 
   }
 
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    // Abort the authorization check; it reports to this Activity only.
+    ComputeTask.onOwnerDestroyed(this);
+    mAuthTask = null;
+  }
+
   @Override
   protected void onActivityResult(int requestCode, int resultCode, Intent data) {
     super.onActivityResult(requestCode, resultCode, data);
@@ -247,11 +257,7 @@ public class LoginActivity extends Activity {
 
     // Cancel previously running tasks.
     if (mAuthTask != null) {
-      try {
-        mAuthTask.cancel(true);
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
+      mAuthTask.abort();
     }
 
     // Show a progress spinner.
@@ -259,8 +265,8 @@ public class LoginActivity extends Activity {
     showProgress(true);
 
     // Start task to check authorization.
-    mAuthTask = new AuthorizationCheckTask();
-    mAuthTask.execute();
+    mAuthTask = new AuthorizationCheckTask(this, getEmailAccount());
+    mAuthTask.executeInLane();
   }
 
   /**
@@ -307,35 +313,49 @@ public class LoginActivity extends Activity {
    * granted (to this application) then the task may fire an {@code Intent} to request that the user
    * approve such access. If the appropriate access does exist then the button that will let the
    * user proceed to the next activity is enabled.
+   *
+   * The task only holds the {@code LoginActivity} weakly and skips updating it once it has been
+   * destroyed.
    */
-  class AuthorizationCheckTask extends AsyncTask<Object, Integer, Boolean> {
+  static class AuthorizationCheckTask extends ComputeTask<Object, Integer, Boolean> {
+    private final Context mContext;
+    private final String mEmailAccount;
     private Intent userRecoverableIntent;
+
+    AuthorizationCheckTask(LoginActivity activity, String emailAccount) {
+      super(activity);
+      mContext = activity.getApplicationContext();
+      mEmailAccount = emailAccount;
+    }
+
+    @Override
+    protected TaskLane getLane() {
+      return TaskLane.INTERACTIVE;
+    }
+
     @Override
     protected Boolean doInBackground(Object... unused) {
       Log.i(LOG_TAG, "Background task started.");
 
-      // Ensure only one task is running at a time.
-      mAuthTask = this;
-
       // Ensure an email was selected.
-      String emailAccount = LoginActivity.this.getEmailAccount();
+      String emailAccount = mEmailAccount;
       if (Strings.isNullOrEmpty(emailAccount)) {
         publishProgress(R.string.toast_no_google_account_selected);
         // Failure.
         return false;
       }
 
-      String oauth2 = AppUtils.getOAuth2ScopeString(new String[]{ComputeScopes.COMPUTE,
-          ComputeScopes.DEVSTORAGE_READ_ONLY});
+      String oauth2 = AppUtils.getComputeOAuth2ScopeString();
 
       if (DEBUG) {
-        Log.d(LOG_TAG, "Attempting to get AuthToken for account: " + getEmailAccount());
+        Log.d(LOG_TAG, "Attempting to get AuthToken for account: " + emailAccount);
       }
 
       try {
         // If the application has the appropriate access then a token will be retrieved, otherwise
-        // an error will be thrown.
-        GoogleAuthUtil.getToken(LoginActivity.this, getEmailAccount(), oauth2, null);
+        // an error will be thrown. The token is cached and refreshed ahead of expiry, so repeated
+        // checks are cheap and the first API request does not wait for authorization.
+        TokenManager.getInstance(mContext).getToken(emailAccount, oauth2);
 
         if (DEBUG) {
           Log.d(LOG_TAG, "AuthToken retrieved");
@@ -363,26 +383,31 @@ public class LoginActivity extends Activity {
 
     @Override
     protected void onPreExecute() {
+      LoginActivity activity = (LoginActivity) getOwner();
+      if (activity == null) {
+        return;
+      }
       // Disable the button that can invoke this task.
-      Button listComputeButton = (Button) LoginActivity.this.findViewById(
-          R.id.view_resources_button);
+      Button listComputeButton = (Button) activity.findViewById(R.id.view_resources_button);
       listComputeButton.setEnabled(false);
-      mAuthTask = this;
+      activity.mAuthTask = this;
     }
 
     @Override
     protected void onPostExecute(Boolean success) {
+      LoginActivity activity = (LoginActivity) getOwner();
+      if (activity == null) {
+        return;
+      }
       if (success) {
         // Authorization check successful.
 
         // Enable button to move to the next activity to view teh resources list.
-        Button listComputeButton = (Button) LoginActivity.this.findViewById(
-            R.id.view_resources_button);
+        Button listComputeButton = (Button) activity.findViewById(R.id.view_resources_button);
         listComputeButton.setEnabled(true);
 
         // Disable the verify credentials button since the auth task succeeded.
-        Button verifyLogin = (Button) LoginActivity.this.findViewById(
-            R.id.verify_authorization_button);
+        Button verifyLogin = (Button) activity.findViewById(R.id.verify_authorization_button);
         verifyLogin.setEnabled(false);
         // Also change text on the button to indicate why it is disabled.
         verifyLogin.setText(R.string.button_authorization_verified);
@@ -393,21 +418,28 @@ public class LoginActivity extends Activity {
           // If an intent exists fire it to resolve the issue. onActivityResult will be called once
           // the intent completes, and if the intent completed successfully we will start an
           // instance of this task again to check authorization.
-          LoginActivity.this.startActivityForResult(userRecoverableIntent,
+          activity.startActivityForResult(userRecoverableIntent,
               ACTIVITY_RESULT_FROM_REQUEST_AUTH);
         }
       }
 
       // Stop Activity progress screen.
-      showProgress(false);
-      mAuthTask = null;
+      activity.showProgress(false);
+      if (activity.mAuthTask == this) {
+        activity.mAuthTask = null;
+      }
     }
 
     @Override
     protected void onCancelled() {
+      LoginActivity activity = (LoginActivity) getOwner();
+      if (activity == null || activity.mAuthTask != this) {
+        // Replaced by a newer check, which owns the progress screen.
+        return;
+      }
       // Stop Activity progress screen.
-      showProgress(false);
-      mAuthTask = null;
+      activity.showProgress(false);
+      activity.mAuthTask = null;
     }
   }
 }
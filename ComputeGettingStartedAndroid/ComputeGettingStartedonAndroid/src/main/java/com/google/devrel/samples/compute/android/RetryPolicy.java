@@ -0,0 +1,172 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android;
+
+import android.util.Log;
+
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Retries read requests that failed with a transient error: a network error or one of the status
+ * codes of {@link #isRetryableStatusCode(int)}. Each retry waits for an exponential back-off with
+ * jitter, so that the requests of a burst that failed together do not retry in lock step. At most
+ * {@link #MAX_RETRIES} retries are made per request.
+ *
+ * Only {@code GET} requests are retried; retrying a request that changes a resource could apply
+ * the change twice. Threads that must not block, such as one rescheduling failed requests on its
+ * own, turn retries off with {@link #setRetriesEnabledOnThread(boolean)}.
+ */
+public final class RetryPolicy {
+  private static final String LOG_TAG = "RetryPolicy";
+
+  public static final int MAX_RETRIES = 4;
+  /**
+   * Delay before the first retry; doubles with every further retry.
+   */
+  static final long INITIAL_DELAY_MILLIS = 500L;
+  static final long MAX_DELAY_MILLIS = 8000L;
+  /**
+   * Fraction of the back-off delay that is randomized.
+   */
+  static final double JITTER_FACTOR = 0.5;
+
+  /**
+   * Number of requests retried, counting every retry.
+   */
+  public static final String METRIC_RETRIES = "httpRetries";
+
+  private static final Random RANDOM = new Random();
+
+  private static final ThreadLocal<Boolean> RETRIES_ENABLED = new ThreadLocal<Boolean>() {
+    @Override
+    protected Boolean initialValue() {
+      return true;
+    }
+  };
+
+  private RetryPolicy() {
+  }
+
+  /**
+   * Retry {@code request} on transient errors, after any unsuccessful response handler it already
+   * has, such as the one refreshing expired tokens, had its chance. The request method is checked
+   * when the request fails, since request initializers run before it is set.
+   */
+  public static void install(HttpRequest request) {
+    Handler handler = new Handler(request.getUnsuccessfulResponseHandler());
+    request.setUnsuccessfulResponseHandler(handler);
+    request.setIOExceptionHandler(handler);
+  }
+
+  /**
+   * Let requests failing on the calling thread be retried, or return their error at once instead
+   * of sleeping before a retry.
+   *
+   * @return whether retries were enabled before, to be restored afterwards
+   */
+  public static boolean setRetriesEnabledOnThread(boolean enabled) {
+    boolean wasEnabled = RETRIES_ENABLED.get();
+    RETRIES_ENABLED.set(enabled);
+    return wasEnabled;
+  }
+
+  /**
+   * Whether a response status signals a transient error: request timeout, rate limiting or a
+   * server side error.
+   */
+  public static boolean isRetryableStatusCode(int statusCode) {
+    return statusCode == 408 || statusCode == 429 || statusCode == 500 || statusCode == 502
+        || statusCode == 503 || statusCode == 504;
+  }
+
+  /**
+   * Delay before retry number {@code retry}, counted from 0.
+   */
+  public static long getBackOffMillis(int retry) {
+    long delayMillis = Math.min(INITIAL_DELAY_MILLIS << Math.min(retry, 16), MAX_DELAY_MILLIS);
+    double jitter;
+    synchronized (RANDOM) {
+      jitter = RANDOM.nextDouble() * JITTER_FACTOR;
+    }
+    return (long) (delayMillis * (1.0 - jitter));
+  }
+
+  /**
+   * Wait before retry number {@code retry}.
+   *
+   * @return {@code false} if no more retries are allowed, or the thread was interrupted or works
+   *     for a cancelled {@link CancellationScope}
+   */
+  public static boolean backOff(int retry) {
+    if (retry >= MAX_RETRIES || CancellationScope.isCurrentCancelled()) {
+      return false;
+    }
+    try {
+      Thread.sleep(getBackOffMillis(retry));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    AppMetrics.increment(METRIC_RETRIES, 1L);
+    return true;
+  }
+
+  /**
+   * Handles the failures of a single request.
+   */
+  private static class Handler implements HttpUnsuccessfulResponseHandler, HttpIOExceptionHandler {
+    private final HttpUnsuccessfulResponseHandler mDelegate;
+    private int mRetries = 0;
+
+    Handler(HttpUnsuccessfulResponseHandler delegate) {
+      mDelegate = delegate;
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response,
+        boolean supportsRetry) throws IOException {
+      if (mDelegate != null && mDelegate.handleResponse(request, response, supportsRetry)) {
+        return true;
+      }
+      if (!supportsRetry || !isRetryable(request)
+          || !isRetryableStatusCode(response.getStatusCode())) {
+        return false;
+      }
+      Log.w(LOG_TAG, "Retrying " + request.getUrl() + " after HTTP " + response.getStatusCode());
+      return backOff(mRetries++);
+    }
+
+    @Override
+    public boolean handleIOException(HttpRequest request, boolean supportsRetry) {
+      if (!supportsRetry || !isRetryable(request)) {
+        return false;
+      }
+      Log.w(LOG_TAG, "Retrying " + request.getUrl() + " after a network error");
+      return backOff(mRetries++);
+    }
+
+    private static boolean isRetryable(HttpRequest request) {
+      return HttpMethods.GET.equals(request.getRequestMethod()) && RETRIES_ENABLED.get();
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android;
+
+/**
+ * Parses RFC 3339 timestamps, such as {@code 2013-06-26T10:29:42.830-07:00}, into milliseconds
+ * since the epoch. Parsing is done by hand on the characters of the timestamp, so valid input is
+ * parsed without allocating and the parser can be used from any thread.
+ */
+public final class Rfc3339 {
+  private static final long MILLIS_PER_SECOND = 1000L;
+  private static final long SECONDS_PER_MINUTE = 60L;
+  private static final long MINUTES_PER_DAY = 24L * 60L;
+
+  private Rfc3339() {
+  }
+
+  /**
+   * Parse a timestamp into milliseconds since the epoch.
+   *
+   * @throws IllegalArgumentException if {@code value} is not an RFC 3339 date-time
+   */
+  public static long parse(CharSequence value) {
+    int length = value.length();
+    // The shortest date-time is "yyyy-MM-ddTHH:mm:ssZ".
+    if (length < 20) {
+      throw invalid(value);
+    }
+
+    int year = readDigits(value, 0, 4);
+    expect(value, 4, '-');
+    int month = readDigits(value, 5, 2);
+    expect(value, 7, '-');
+    int day = readDigits(value, 8, 2);
+    char separator = value.charAt(10);
+    if (separator != 'T' && separator != 't' && separator != ' ') {
+      throw invalid(value);
+    }
+    int hour = readDigits(value, 11, 2);
+    expect(value, 13, ':');
+    int minute = readDigits(value, 14, 2);
+    expect(value, 16, ':');
+    int second = readDigits(value, 17, 2);
+
+    // Optional fraction of a second; digits beyond milliseconds are ignored.
+    int position = 19;
+    int millis = 0;
+    if (value.charAt(position) == '.') {
+      int fractionStart = ++position;
+      int scale = 100;
+      while (position < length && isDigit(value.charAt(position))) {
+        millis += (value.charAt(position) - '0') * scale;
+        scale /= 10;
+        position++;
+      }
+      if (position == fractionStart) {
+        throw invalid(value);
+      }
+    }
+
+    // Time zone offset.
+    if (position >= length) {
+      throw invalid(value);
+    }
+    int offsetMinutes;
+    char zone = value.charAt(position);
+    if (zone == 'Z' || zone == 'z') {
+      offsetMinutes = 0;
+      position++;
+    } else if ((zone == '+' || zone == '-') && position + 6 == length) {
+      expect(value, position + 3, ':');
+      offsetMinutes = readDigits(value, position + 1, 2) * 60 + readDigits(value, position + 4, 2);
+      if (zone == '-') {
+        offsetMinutes = -offsetMinutes;
+      }
+      position += 6;
+    } else {
+      throw invalid(value);
+    }
+    if (position != length) {
+      throw invalid(value);
+    }
+
+    if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23
+        || minute > 59 || second > 60) {
+      throw invalid(value);
+    }
+    // A leap second is folded into the last second of its minute.
+    if (second == 60) {
+      second = 59;
+    }
+
+    long minutes = daysSinceEpoch(year, month, day) * MINUTES_PER_DAY + hour * 60 + minute
+        - offsetMinutes;
+    return (minutes * SECONDS_PER_MINUTE + second) * MILLIS_PER_SECOND + millis;
+  }
+
+  /**
+   * Parse a timestamp, returning {@code defaultMillis} if it is {@code null} or invalid.
+   */
+  public static long parse(CharSequence value, long defaultMillis) {
+    if (value == null) {
+      return defaultMillis;
+    }
+    try {
+      return parse(value);
+    } catch (IllegalArgumentException e) {
+      return defaultMillis;
+    }
+  }
+
+  private static int readDigits(CharSequence value, int start, int count) {
+    int result = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = value.charAt(i);
+      if (!isDigit(c)) {
+        throw invalid(value);
+      }
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+
+  private static void expect(CharSequence value, int position, char expected) {
+    if (value.charAt(position) != expected) {
+      throw invalid(value);
+    }
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static int daysInMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        boolean leapYear = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+        return leapYear ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * Days from 1970-01-01 to a date of the proleptic Gregorian calendar.
+   */
+  private static long daysSinceEpoch(int year, int month, int day) {
+    // Count years from March so the leap day falls at the end of the year.
+    int marchYear = (month <= 2) ? year - 1 : year;
+    int era = (marchYear >= 0 ? marchYear : marchYear - 399) / 400;
+    int yearOfEra = marchYear - era * 400;
+    int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097L + dayOfEra - 719468L;
+  }
+
+  private static IllegalArgumentException invalid(CharSequence value) {
+    return new IllegalArgumentException("Invalid RFC 3339 date-time: " + value);
+  }
+}
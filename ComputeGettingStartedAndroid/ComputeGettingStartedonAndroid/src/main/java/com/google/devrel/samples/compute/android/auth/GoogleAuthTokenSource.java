@@ -0,0 +1,47 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.auth;
+
+import android.content.Context;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.android.gms.auth.GoogleAuthUtil;
+
+import java.io.IOException;
+
+/**
+ * {@link TokenSource} retrieving tokens for Google accounts registered with the device through
+ * Google Play Services.
+ */
+public class GoogleAuthTokenSource implements TokenSource {
+  private final Context mContext;
+
+  public GoogleAuthTokenSource(Context context) {
+    mContext = context.getApplicationContext();
+  }
+
+  @Override
+  public String fetchToken(String account, String scope) throws IOException, GoogleAuthException {
+    // If the application has the appropriate access then a token will be retrieved, otherwise
+    // an error will be thrown.
+    return GoogleAuthUtil.getToken(mContext, account, scope);
+  }
+
+  @Override
+  public void invalidateToken(String token) {
+    GoogleAuthUtil.invalidateToken(mContext, token);
+  }
+}
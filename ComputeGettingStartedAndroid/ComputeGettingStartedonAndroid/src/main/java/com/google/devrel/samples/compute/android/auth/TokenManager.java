@@ -0,0 +1,305 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.auth;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches OAuth2 access tokens per account and scope string. Tokens are refreshed on a background
+ * thread shortly before they expire, and concurrent callers missing the cache share a single
+ * in-flight request to the {@link TokenSource}.
+ *
+ * Google Play Services does not report token lifetimes, so tokens are assumed to be valid for
+ * {@link #TOKEN_LIFETIME_MILLIS}; a rejected token should be passed to
+ * {@link #invalidate(String, String, String)}. Play Services also hands out the token it cached
+ * until that token is invalidated, so a proactive refresh invalidates the token it replaces.
+ * At most one refresh is scheduled per key.
+ */
+public class TokenManager {
+  private static final String LOG_TAG = "TokenManager";
+
+  /**
+   * Assumed lifetime of an access token.
+   */
+  public static final long TOKEN_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(55);
+
+  /**
+   * How long before expiry a token is refreshed in the background.
+   */
+  public static final long REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private static TokenManager sInstance;
+
+  private final TokenSource mTokenSource;
+  private final ScheduledExecutorService mScheduler;
+  private final Ticker mTicker;
+
+  private final ConcurrentMap<String, CachedToken> mTokens = Maps.newConcurrentMap();
+  private final ConcurrentMap<String, FutureTask<CachedToken>> mInFlight =
+      Maps.newConcurrentMap();
+  private final ConcurrentMap<String, ScheduledFuture<?>> mScheduledRefreshes =
+      Maps.newConcurrentMap();
+  /**
+   * Incremented whenever tokens are cleared; refreshes started before do not cache their token.
+   */
+  private final AtomicInteger mGeneration = new AtomicInteger();
+
+  /**
+   * Retrieve the application wide manager backed by Google Play Services.
+   */
+  public static synchronized TokenManager getInstance(Context context) {
+    if (sInstance == null) {
+      ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "TokenRefresh");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      sInstance = new TokenManager(new GoogleAuthTokenSource(context), scheduler,
+          Ticker.systemTicker());
+    }
+    return sInstance;
+  }
+
+  /**
+   * @param tokenSource source of new tokens
+   * @param scheduler executor running proactive refreshes
+   * @param ticker time source used to expire tokens
+   */
+  public TokenManager(TokenSource tokenSource, ScheduledExecutorService scheduler, Ticker ticker) {
+    mTokenSource = tokenSource;
+    mScheduler = scheduler;
+    mTicker = ticker;
+  }
+
+  /**
+   * A token along with the time, in ticker nanoseconds, it expires.
+   */
+  private static class CachedToken {
+    final String token;
+    final long expiresAtNanos;
+
+    CachedToken(String token, long expiresAtNanos) {
+      this.token = token;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+  }
+
+  /**
+   * Retrieve a valid token, blocking only if none is cached. Must not be called from the UI
+   * thread.
+   */
+  public String getToken(String account, String scope) throws IOException, GoogleAuthException {
+    String key = key(account, scope);
+    CachedToken cachedToken = mTokens.get(key);
+    if (cachedToken != null && mTicker.read() < cachedToken.expiresAtNanos) {
+      return cachedToken.token;
+    }
+
+    FutureTask<CachedToken> refresh = startRefresh(account, scope);
+    // Runs the refresh on this thread unless another thread already did; joins it otherwise.
+    refresh.run();
+    return awaitRefresh(refresh).token;
+  }
+
+  /**
+   * Start retrieving a token in the background so that later calls to
+   * {@link #getToken(String, String)} return immediately.
+   */
+  public void prefetch(String account, String scope) {
+    final FutureTask<CachedToken> refresh = startRefresh(account, scope);
+    mScheduler.execute(refresh);
+  }
+
+  /**
+   * Remove a token that was rejected by a server from the cache and from the token source.
+   */
+  public void invalidate(String account, String scope, String token) {
+    String key = key(account, scope);
+    CachedToken cachedToken = mTokens.get(key);
+    if (cachedToken != null && cachedToken.token.equals(token)) {
+      mTokens.remove(key, cachedToken);
+      // The next fetch schedules the refresh of its own token.
+      cancelScheduledRefresh(key);
+    }
+    mTokenSource.invalidateToken(token);
+  }
+
+  /**
+   * Forget every cached token and cancel every scheduled refresh, for example when the selected
+   * account changes.
+   */
+  public void clear() {
+    mGeneration.incrementAndGet();
+    mTokens.clear();
+    for (String key : mScheduledRefreshes.keySet()) {
+      cancelScheduledRefresh(key);
+    }
+  }
+
+  /**
+   * Forget the tokens and cancel the scheduled refreshes of every account but {@code account}.
+   */
+  public void clearOtherAccounts(String account) {
+    String prefix = key(account, "");
+    Set<String> keys = Sets.newHashSet();
+    keys.addAll(mTokens.keySet());
+    keys.addAll(mInFlight.keySet());
+    keys.addAll(mScheduledRefreshes.keySet());
+    boolean cleared = false;
+    for (String key : keys) {
+      if (!key.startsWith(prefix)) {
+        if (!cleared) {
+          mGeneration.incrementAndGet();
+          cleared = true;
+        }
+        mTokens.remove(key);
+        cancelScheduledRefresh(key);
+      }
+    }
+  }
+
+  /**
+   * Return the refresh in flight for the key, or create a new one that has not been run yet.
+   * {@code FutureTask.run()} only ever runs a task once, so any thread may run the returned task.
+   */
+  private FutureTask<CachedToken> startRefresh(final String account, final String scope) {
+    final String key = key(account, scope);
+    FutureTask<CachedToken> refresh = mInFlight.get(key);
+    if (refresh != null) {
+      return refresh;
+    }
+
+    final int generation = mGeneration.get();
+    FutureTask<CachedToken> newRefresh = new FutureTask<CachedToken>(new Callable<CachedToken>() {
+      @Override
+      public CachedToken call() throws IOException, GoogleAuthException {
+        try {
+          String token = mTokenSource.fetchToken(account, scope);
+          CachedToken cachedToken = new CachedToken(token,
+              mTicker.read() + TimeUnit.MILLISECONDS.toNanos(TOKEN_LIFETIME_MILLIS));
+          if (generation == mGeneration.get()) {
+            mTokens.put(key, cachedToken);
+            scheduleRefresh(account, scope);
+          }
+          return cachedToken;
+        } finally {
+          mInFlight.remove(key);
+        }
+      }
+    });
+    refresh = mInFlight.putIfAbsent(key, newRefresh);
+    return (refresh == null) ? newRefresh : refresh;
+  }
+
+  /**
+   * Schedule the refresh of the token just cached for the key, replacing any refresh scheduled
+   * for the token it replaced.
+   */
+  private void scheduleRefresh(final String account, final String scope) {
+    final String key = key(account, scope);
+    ScheduledFuture<?> scheduledRefresh = mScheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        CachedToken cachedToken = mTokens.get(key);
+        if (cachedToken == null) {
+          // Invalidated or cleared since; the next caller fetches a new token.
+          return;
+        }
+        // Play Services returns its cached token until it is invalidated.
+        mTokenSource.invalidateToken(cachedToken.token);
+        FutureTask<CachedToken> refresh = startRefresh(account, scope);
+        refresh.run();
+        try {
+          awaitRefresh(refresh);
+        } catch (IOException e) {
+          // The cached token stays in use until it expires; the next caller retries.
+          Log.w(LOG_TAG, "Proactive token refresh failed", e);
+        } catch (GoogleAuthException e) {
+          Log.w(LOG_TAG, "Proactive token refresh failed", e);
+        }
+      }
+    }, TOKEN_LIFETIME_MILLIS - REFRESH_AHEAD_MILLIS, TimeUnit.MILLISECONDS);
+    ScheduledFuture<?> previous = mScheduledRefreshes.put(key, scheduledRefresh);
+    if (previous != null) {
+      // Not interrupted: the previous refresh may be the one that caches this token.
+      previous.cancel(false);
+    }
+  }
+
+  private void cancelScheduledRefresh(String key) {
+    ScheduledFuture<?> scheduledRefresh = mScheduledRefreshes.remove(key);
+    if (scheduledRefresh != null) {
+      scheduledRefresh.cancel(false);
+    }
+  }
+
+  private static CachedToken awaitRefresh(Future<CachedToken> refresh)
+      throws IOException, GoogleAuthException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return refresh.get();
+        } catch (InterruptedException e) {
+          // The shared refresh must not be abandoned; restore the interrupt once it completes.
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof GoogleAuthException) {
+        throw (GoogleAuthException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static String key(String account, String scope) {
+    return account + '\n' + scope;
+  }
+}
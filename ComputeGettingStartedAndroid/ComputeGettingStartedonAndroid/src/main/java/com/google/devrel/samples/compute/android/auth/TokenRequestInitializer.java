@@ -0,0 +1,83 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.auth;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.android.gms.auth.UserRecoverableAuthException;
+import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAuthIOException;
+import com.google.api.client.googleapis.extensions.android.gms.auth.UserRecoverableAuthIOException;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.io.IOException;
+
+/**
+ * Authorizes Google Compute Engine API requests with tokens from a {@link TokenManager}. A request
+ * rejected with HTTP 401 invalidates its token and is retried once with a new one.
+ */
+public class TokenRequestInitializer implements HttpRequestInitializer {
+  private final TokenManager mTokenManager;
+  private final String mAccount;
+  private final String mScope;
+
+  public TokenRequestInitializer(TokenManager tokenManager, String account, String scope) {
+    mTokenManager = tokenManager;
+    mAccount = account;
+    mScope = scope;
+  }
+
+  @Override
+  public void initialize(HttpRequest request) {
+    RequestHandler handler = new RequestHandler();
+    request.setInterceptor(handler);
+    request.setUnsuccessfulResponseHandler(handler);
+  }
+
+  /**
+   * Handles a single request; remembers the token it sent so only that token is invalidated.
+   */
+  private class RequestHandler implements HttpExecuteInterceptor, HttpUnsuccessfulResponseHandler {
+    private boolean mReceived401;
+    private String mToken;
+
+    @Override
+    public void intercept(HttpRequest request) throws IOException {
+      try {
+        mToken = mTokenManager.getToken(mAccount, mScope);
+        request.getHeaders().setAuthorization("Bearer " + mToken);
+      } catch (UserRecoverableAuthException e) {
+        throw new UserRecoverableAuthIOException(e);
+      } catch (GoogleAuthException e) {
+        throw new GoogleAuthIOException(e);
+      }
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response,
+        boolean supportsRetry) {
+      if (response.getStatusCode() == HttpStatusCodes.STATUS_CODE_UNAUTHORIZED && !mReceived401) {
+        mReceived401 = true;
+        mTokenManager.invalidate(mAccount, mScope, mToken);
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,39 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.auth;
+
+import com.google.android.gms.auth.GoogleAuthException;
+
+import java.io.IOException;
+
+/**
+ * Source of OAuth2 access tokens used by the {@link TokenManager}. Implementations may block and
+ * are only called from background threads.
+ */
+public interface TokenSource {
+  /**
+   * Retrieve a new access token.
+   *
+   * @param account Google account name (email)
+   * @param scope OAuth2 scope string as built by {@code AppUtils.getOAuth2ScopeString}
+   */
+  public String fetchToken(String account, String scope) throws IOException, GoogleAuthException;
+
+  /**
+   * Tell the source that a token it handed out was rejected and must not be returned again.
+   */
+  public void invalidateToken(String token);
+}
@@ -0,0 +1,92 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Contract between the {@link ResourceProvider} and its clients: the content URIs and the columns
+ * of the stored Google Compute Engine resource projections.
+ */
+public final class ResourceContract {
+  public static final String AUTHORITY = "com.google.devrel.samples.compute.android.resources";
+  public static final Uri AUTHORITY_URI = Uri.parse("content://" + AUTHORITY);
+
+  private ResourceContract() {
+  }
+
+  /**
+   * Instances, Disks and Zones of a project, one row per resource.
+   */
+  public static final class Resources implements BaseColumns {
+    public static final String TABLE_NAME = "resources";
+    public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, TABLE_NAME);
+    public static final String CONTENT_TYPE =
+        ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd.google.compute.resource";
+    public static final String CONTENT_ITEM_TYPE =
+        ContentResolver.CURSOR_ITEM_BASE_TYPE + "/vnd.google.compute.resource";
+
+    /**
+     * Google account the resource was downloaded with.
+     */
+    public static final String ACCOUNT = "account";
+    public static final String PROJECT_ID = "project_id";
+    /**
+     * One of {@link #TYPE_INSTANCE}, {@link #TYPE_DISK} or {@link #TYPE_ZONE}.
+     */
+    public static final String RESOURCE_TYPE = "resource_type";
+    public static final String SELF_LINK = "self_link";
+    public static final String NAME = "name";
+    /**
+     * Zone name of an Instance or Disk; empty for a Zone.
+     */
+    public static final String ZONE = "zone";
+    public static final String STATUS = "status";
+    public static final String DESCRIPTION = "description";
+    /**
+     * Machine type name of an Instance.
+     */
+    public static final String MACHINE_TYPE = "machine_type";
+    public static final String SIZE_GB = "size_gb";
+    /**
+     * Creation time in milliseconds since the epoch.
+     */
+    public static final String CREATION_TIME_MILLIS = "creation_time_millis";
+    /**
+     * Instance tags separated by new lines.
+     */
+    public static final String TAGS = "tags";
+    /**
+     * Zone maintenance windows, one "begin end" pair of epoch milliseconds per line.
+     */
+    public static final String MAINTENANCE_WINDOWS = "maintenance_windows";
+    /**
+     * Time in milliseconds the resource was last downloaded.
+     */
+    public static final String SYNCED_AT = "synced_at";
+
+    public static final int TYPE_INSTANCE = 0;
+    public static final int TYPE_DISK = 1;
+    public static final int TYPE_ZONE = 2;
+
+    public static final String DEFAULT_SORT_ORDER = RESOURCE_TYPE + ", " + NAME;
+
+    private Resources() {
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.google.devrel.samples.compute.android.data.ResourceContract.Resources;
+
+/**
+ * Creates and upgrades the SQLite database backing the {@link ResourceProvider}.
+ */
+class ResourceDatabaseHelper extends SQLiteOpenHelper {
+  private static final String DATABASE_NAME = "resources.db";
+  /**
+   * Version 2 stores zone and machine type names, and times as epoch milliseconds.
+   */
+  private static final int DATABASE_VERSION = 2;
+
+  ResourceDatabaseHelper(Context context) {
+    super(context, DATABASE_NAME, null, DATABASE_VERSION);
+  }
+
+  @Override
+  public void onCreate(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE " + Resources.TABLE_NAME + " ("
+        + Resources._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+        + Resources.ACCOUNT + " TEXT NOT NULL, "
+        + Resources.PROJECT_ID + " TEXT NOT NULL, "
+        + Resources.RESOURCE_TYPE + " INTEGER NOT NULL, "
+        + Resources.SELF_LINK + " TEXT NOT NULL, "
+        + Resources.NAME + " TEXT, "
+        + Resources.ZONE + " TEXT, "
+        + Resources.STATUS + " TEXT, "
+        + Resources.DESCRIPTION + " TEXT, "
+        + Resources.MACHINE_TYPE + " TEXT, "
+        + Resources.SIZE_GB + " INTEGER, "
+        + Resources.CREATION_TIME_MILLIS + " INTEGER, "
+        + Resources.TAGS + " TEXT, "
+        + Resources.MAINTENANCE_WINDOWS + " TEXT, "
+        + Resources.SYNCED_AT + " INTEGER NOT NULL)");
+
+    // Resources are looked up by self link, and grouped by zone and status.
+    db.execSQL("CREATE UNIQUE INDEX resources_self_link ON " + Resources.TABLE_NAME + " ("
+        + Resources.ACCOUNT + ", " + Resources.SELF_LINK + ")");
+    db.execSQL("CREATE INDEX resources_project ON " + Resources.TABLE_NAME + " ("
+        + Resources.ACCOUNT + ", " + Resources.PROJECT_ID + ", " + Resources.RESOURCE_TYPE + ")");
+    db.execSQL("CREATE INDEX resources_zone ON " + Resources.TABLE_NAME + " ("
+        + Resources.ZONE + ")");
+    db.execSQL("CREATE INDEX resources_status ON " + Resources.TABLE_NAME + " ("
+        + Resources.STATUS + ")");
+  }
+
+  @Override
+  public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    // The table is only a cache of server data; it is safe to drop and download again.
+    db.execSQL("DROP TABLE IF EXISTS " + Resources.TABLE_NAME);
+    onCreate(db);
+  }
+}
@@ -0,0 +1,193 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.google.devrel.samples.compute.android.data.ResourceContract.Resources;
+
+import java.util.ArrayList;
+
+/**
+ * {@code ContentProvider} persisting Google Compute Engine resource projections in SQLite so the
+ * resource list can be displayed immediately on start while a fresh copy downloads.
+ */
+public class ResourceProvider extends ContentProvider {
+  private static final int RESOURCES = 1;
+  private static final int RESOURCE_ID = 2;
+
+  private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+  static {
+    URI_MATCHER.addURI(ResourceContract.AUTHORITY, Resources.TABLE_NAME, RESOURCES);
+    URI_MATCHER.addURI(ResourceContract.AUTHORITY, Resources.TABLE_NAME + "/#", RESOURCE_ID);
+  }
+
+  private ResourceDatabaseHelper mDatabaseHelper;
+
+  /**
+   * Whether the current thread is inside {@link #applyBatch(ArrayList)}; change notifications are
+   * then sent once for the whole batch.
+   */
+  private final ThreadLocal<Boolean> mInBatch = new ThreadLocal<Boolean>();
+
+  @Override
+  public boolean onCreate() {
+    mDatabaseHelper = new ResourceDatabaseHelper(getContext());
+    return true;
+  }
+
+  @Override
+  public String getType(Uri uri) {
+    switch (URI_MATCHER.match(uri)) {
+      case RESOURCES:
+        return Resources.CONTENT_TYPE;
+      case RESOURCE_ID:
+        return Resources.CONTENT_ITEM_TYPE;
+      default:
+        throw new IllegalArgumentException("Unknown URI " + uri);
+    }
+  }
+
+  @Override
+  public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+      String sortOrder) {
+    SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+    queryBuilder.setTables(Resources.TABLE_NAME);
+    switch (URI_MATCHER.match(uri)) {
+      case RESOURCES:
+        break;
+      case RESOURCE_ID:
+        queryBuilder.appendWhere(Resources._ID + "=" + ContentUris.parseId(uri));
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown URI " + uri);
+    }
+
+    if (TextUtils.isEmpty(sortOrder)) {
+      sortOrder = Resources.DEFAULT_SORT_ORDER;
+    }
+
+    Cursor cursor = queryBuilder.query(mDatabaseHelper.getReadableDatabase(), projection,
+        selection, selectionArgs, null, null, sortOrder);
+    cursor.setNotificationUri(getContext().getContentResolver(), uri);
+    return cursor;
+  }
+
+  @Override
+  public Uri insert(Uri uri, ContentValues values) {
+    if (URI_MATCHER.match(uri) != RESOURCES) {
+      throw new IllegalArgumentException("Unknown URI " + uri);
+    }
+
+    // A resource downloaded again replaces its previous row.
+    long rowId = mDatabaseHelper.getWritableDatabase().insertWithOnConflict(Resources.TABLE_NAME,
+        null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    if (!isInBatch()) {
+      notifyChange(uri);
+    }
+    return ContentUris.withAppendedId(Resources.CONTENT_URI, rowId);
+  }
+
+  @Override
+  public int bulkInsert(Uri uri, ContentValues[] values) {
+    SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+    db.beginTransaction();
+    try {
+      for (ContentValues value : values) {
+        db.insertWithOnConflict(Resources.TABLE_NAME, null, value,
+            SQLiteDatabase.CONFLICT_REPLACE);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    notifyChange(uri);
+    return values.length;
+  }
+
+  @Override
+  public int delete(Uri uri, String selection, String[] selectionArgs) {
+    int count = mDatabaseHelper.getWritableDatabase().delete(Resources.TABLE_NAME,
+        buildSelection(uri, selection), selectionArgs);
+    if (!isInBatch()) {
+      notifyChange(uri);
+    }
+    return count;
+  }
+
+  @Override
+  public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    int count = mDatabaseHelper.getWritableDatabase().update(Resources.TABLE_NAME, values,
+        buildSelection(uri, selection), selectionArgs);
+    if (!isInBatch()) {
+      notifyChange(uri);
+    }
+    return count;
+  }
+
+  /**
+   * Apply all operations in a single transaction and notify observers once.
+   */
+  @Override
+  public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+      throws OperationApplicationException {
+    SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+    ContentProviderResult[] results;
+    db.beginTransaction();
+    mInBatch.set(Boolean.TRUE);
+    try {
+      results = super.applyBatch(operations);
+      db.setTransactionSuccessful();
+    } finally {
+      mInBatch.set(Boolean.FALSE);
+      db.endTransaction();
+    }
+    notifyChange(Resources.CONTENT_URI);
+    return results;
+  }
+
+  private boolean isInBatch() {
+    return Boolean.TRUE.equals(mInBatch.get());
+  }
+
+  private void notifyChange(Uri uri) {
+    getContext().getContentResolver().notifyChange(uri, null);
+  }
+
+  private static String buildSelection(Uri uri, String selection) {
+    switch (URI_MATCHER.match(uri)) {
+      case RESOURCES:
+        return selection;
+      case RESOURCE_ID:
+        String idSelection = Resources._ID + "=" + ContentUris.parseId(uri);
+        return TextUtils.isEmpty(selection) ? idSelection
+            : idSelection + " AND (" + selection + ")";
+      default:
+        throw new IllegalArgumentException("Unknown URI " + uri);
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.support.v4.content.CursorLoader;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.devrel.samples.compute.android.data.ResourceContract.Resources;
+import com.google.devrel.samples.compute.android.dummy.DummyContent;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.Section;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.ZoneItem;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord.MaintenanceWindow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes {@code DummyItem}s through the {@link ResourceProvider}.
+ */
+public final class ResourceStore {
+  private static final String LOG_TAG = "ResourceStore";
+
+  private static final String PROJECT_SELECTION =
+      Resources.ACCOUNT + "=? AND " + Resources.PROJECT_ID + "=?";
+
+  private ResourceStore() {
+  }
+
+  /**
+   * Create a {@code Loader} for every stored resource of a project.
+   */
+  public static CursorLoader newProjectLoader(Context context, String account, String projectId) {
+    return new CursorLoader(context, Resources.CONTENT_URI, null, PROJECT_SELECTION,
+        new String[]{account, projectId}, Resources.DEFAULT_SORT_ORDER);
+  }
+
+  /**
+   * Replace every stored resource of a project with {@code items} in a single transaction.
+   */
+  public static void replaceProjectResources(ContentResolver contentResolver, String account,
+      String projectId, Collection<? extends DummyItem> items) {
+    ArrayList<ContentProviderOperation> operations = Lists.newArrayList();
+    operations.add(ContentProviderOperation.newDelete(Resources.CONTENT_URI)
+        .withSelection(PROJECT_SELECTION, new String[]{account, projectId})
+        .build());
+
+    long syncedAt = System.currentTimeMillis();
+    for (DummyItem item : items) {
+      ContentValues values = toContentValues(item);
+      if (values == null) {
+        // Headers are not stored.
+        continue;
+      }
+      values.put(Resources.ACCOUNT, account);
+      values.put(Resources.PROJECT_ID, projectId);
+      values.put(Resources.SYNCED_AT, syncedAt);
+      operations.add(ContentProviderOperation.newInsert(Resources.CONTENT_URI)
+          .withValues(values)
+          .build());
+    }
+
+    try {
+      contentResolver.applyBatch(ResourceContract.AUTHORITY, operations);
+    } catch (RemoteException e) {
+      Log.e(LOG_TAG, "Exception storing project resources", e);
+    } catch (OperationApplicationException e) {
+      Log.e(LOG_TAG, "Exception storing project resources", e);
+    }
+  }
+
+  /**
+   * Convert the rows of a project cursor back to {@code DummyItem}s grouped by section. Instances
+   * and Disks are joined to the stored Zones.
+   */
+  public static Map<Section, List<DummyItem>> readItems(Cursor cursor) {
+    Map<Section, List<DummyItem>> sectionItems = Maps.newEnumMap(Section.class);
+    for (Section section : Section.values()) {
+      sectionItems.put(section, Lists.<DummyItem>newArrayList());
+    }
+
+    // Zones have to be read first so Instances and Disks can be joined to them.
+    Map<String, ZoneItem> zoneMap = Maps.newHashMap();
+    int typeColumn = cursor.getColumnIndexOrThrow(Resources.RESOURCE_TYPE);
+    cursor.moveToPosition(-1);
+    while (cursor.moveToNext()) {
+      if (cursor.getInt(typeColumn) == Resources.TYPE_ZONE) {
+        ZoneItem zoneItem = new ZoneItem(readZone(cursor));
+        zoneMap.put(zoneItem.zone.name, zoneItem);
+        sectionItems.get(Section.ZONES).add(zoneItem);
+      }
+    }
+
+    cursor.moveToPosition(-1);
+    while (cursor.moveToNext()) {
+      int type = cursor.getInt(typeColumn);
+      if (type == Resources.TYPE_INSTANCE) {
+        InstanceRecord instance = readInstance(cursor);
+        ZoneItem zoneItem = zoneMap.get(instance.zone);
+        sectionItems.get(Section.INSTANCES).add(
+            new InstanceItem(instance, DummyContent.getZoneActivity(zoneItem)));
+      } else if (type == Resources.TYPE_DISK) {
+        DiskRecord disk = readDisk(cursor);
+        ZoneItem zoneItem = zoneMap.get(disk.zone);
+        sectionItems.get(Section.DISKS).add(
+            new DiskItem(disk, DummyContent.getZoneActivity(zoneItem)));
+      }
+    }
+    return sectionItems;
+  }
+
+  private static ContentValues toContentValues(DummyItem item) {
+    ContentValues values = new ContentValues();
+    if (item instanceof InstanceItem) {
+      InstanceRecord instance = ((InstanceItem) item).instance;
+      values.put(Resources.RESOURCE_TYPE, Resources.TYPE_INSTANCE);
+      values.put(Resources.SELF_LINK, instance.selfLink);
+      values.put(Resources.NAME, instance.name);
+      values.put(Resources.ZONE, instance.zone);
+      values.put(Resources.STATUS, instance.status);
+      values.put(Resources.DESCRIPTION, instance.description);
+      values.put(Resources.MACHINE_TYPE, instance.machineType);
+      values.put(Resources.CREATION_TIME_MILLIS, instance.creationTimeMillis);
+      if (!instance.tags.isEmpty()) {
+        values.put(Resources.TAGS, TextUtils.join("\n", instance.tags));
+      }
+    } else if (item instanceof DiskItem) {
+      DiskRecord disk = ((DiskItem) item).disk;
+      values.put(Resources.RESOURCE_TYPE, Resources.TYPE_DISK);
+      values.put(Resources.SELF_LINK, disk.selfLink);
+      values.put(Resources.NAME, disk.name);
+      values.put(Resources.ZONE, disk.zone);
+      values.put(Resources.STATUS, disk.status);
+      values.put(Resources.DESCRIPTION, disk.description);
+      values.put(Resources.SIZE_GB, disk.sizeGb);
+      values.put(Resources.CREATION_TIME_MILLIS, disk.creationTimeMillis);
+    } else if (item instanceof ZoneItem) {
+      ZoneRecord zone = ((ZoneItem) item).zone;
+      values.put(Resources.RESOURCE_TYPE, Resources.TYPE_ZONE);
+      values.put(Resources.SELF_LINK, zone.selfLink);
+      values.put(Resources.NAME, zone.name);
+      values.put(Resources.STATUS, zone.status);
+      if (!zone.maintenanceWindows.isEmpty()) {
+        StringBuilder windows = new StringBuilder();
+        for (MaintenanceWindow window : zone.maintenanceWindows) {
+          if (windows.length() > 0) {
+            windows.append('\n');
+          }
+          windows.append(window.beginTimeMillis).append(' ').append(window.endTimeMillis);
+        }
+        values.put(Resources.MAINTENANCE_WINDOWS, windows.toString());
+      }
+    } else {
+      return null;
+    }
+    return values;
+  }
+
+  private static InstanceRecord readInstance(Cursor cursor) {
+    List<String> tags = null;
+    String joinedTags = getString(cursor, Resources.TAGS);
+    if (!TextUtils.isEmpty(joinedTags)) {
+      tags = Arrays.asList(TextUtils.split(joinedTags, "\n"));
+    }
+    return new InstanceRecord(
+        getString(cursor, Resources.SELF_LINK),
+        getString(cursor, Resources.NAME),
+        getString(cursor, Resources.ZONE),
+        getString(cursor, Resources.STATUS),
+        getString(cursor, Resources.DESCRIPTION),
+        getString(cursor, Resources.MACHINE_TYPE),
+        getLong(cursor, Resources.CREATION_TIME_MILLIS),
+        tags);
+  }
+
+  private static DiskRecord readDisk(Cursor cursor) {
+    return new DiskRecord(
+        getString(cursor, Resources.SELF_LINK),
+        getString(cursor, Resources.NAME),
+        getString(cursor, Resources.ZONE),
+        getString(cursor, Resources.STATUS),
+        getString(cursor, Resources.DESCRIPTION),
+        getLong(cursor, Resources.SIZE_GB),
+        getLong(cursor, Resources.CREATION_TIME_MILLIS));
+  }
+
+  private static ZoneRecord readZone(Cursor cursor) {
+    List<MaintenanceWindow> maintenanceWindows = Lists.newArrayList();
+    String windows = getString(cursor, Resources.MAINTENANCE_WINDOWS);
+    if (!TextUtils.isEmpty(windows)) {
+      for (String window : TextUtils.split(windows, "\n")) {
+        String[] beginAndEnd = TextUtils.split(window, " ");
+        maintenanceWindows.add(new MaintenanceWindow(Long.parseLong(beginAndEnd[0]),
+            Long.parseLong(beginAndEnd[1])));
+      }
+    }
+    return new ZoneRecord(
+        getString(cursor, Resources.SELF_LINK),
+        getString(cursor, Resources.NAME),
+        getString(cursor, Resources.STATUS),
+        maintenanceWindows);
+  }
+
+  private static String getString(Cursor cursor, String column) {
+    return cursor.getString(cursor.getColumnIndexOrThrow(column));
+  }
+
+  private static long getLong(Cursor cursor, String column) {
+    return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+  }
+}
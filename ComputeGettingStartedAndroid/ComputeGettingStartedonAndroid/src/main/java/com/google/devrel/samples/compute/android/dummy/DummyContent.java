@@ -18,17 +18,18 @@ package com.google.devrel.samples.compute.android.dummy;
 import android.util.Log;
 
 import com.google.api.client.repackaged.com.google.common.base.Strings;
-import com.google.api.services.compute.model.Disk;
-import com.google.api.services.compute.model.Instance;
-import com.google.api.services.compute.model.Zone;
-import com.google.api.services.compute.model.Zone.MaintenanceWindows;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.devrel.samples.compute.android.AppUtils;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord.MaintenanceWindow;
 
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
 
 import static com.google.devrel.samples.compute.android.BuildConfig.DEBUG;
 
@@ -39,44 +40,250 @@ import static com.google.devrel.samples.compute.android.BuildConfig.DEBUG;
  * TODO(developer): Replace all uses of this class before publishing your app.
  *
  * This Android sample code has been modified to allow storage of Google Compute Engine resource
- * data. Before publishing this App you MUST refactor you data storage technique;
- * {@code ContentProviders} are always a great choice.
+ * data. It publishes the resources currently displayed as immutable {@link ResourceSnapshot}s;
+ * resources are persisted across application starts by the {@code ResourceProvider}.
  */
 public class DummyContent {
   private static final String LOG_TAG = "DummyContent";
 
   /**
-   * A list of sample (dummy) items.
+   * Sections of the resource list in display order.
    */
-  public static List<DummyItem> ITEMS = Lists.newArrayList();
+  public enum Section {
+    INSTANCES("Instances"), DISKS("Disks"), ZONES("Zones");
+
+    public final String title;
+
+    private Section(String title) {
+      this.title = title;
+    }
+  }
+
+  /**
+   * One header per section, shared by every snapshot, and one for a section that failed to load.
+   */
+  private static final Map<Section, DummyHeader> HEADERS = Maps.newEnumMap(Section.class);
+  private static final Map<Section, DummyHeader> FAILED_HEADERS = Maps.newEnumMap(Section.class);
+  static {
+    for (Section section : Section.values()) {
+      HEADERS.put(section, new DummyHeader(section, false));
+      FAILED_HEADERS.put(section, new DummyHeader(section, true));
+    }
+  }
+
+  /**
+   * Sections whose latest download failed. Guarded by the class like the other writes.
+   */
+  private static final Set<Section> FAILED_SECTIONS = EnumSet.noneOf(Section.class);
+
+  /**
+   * The latest published snapshot. Writers are serialized on the class and publish a whole new
+   * snapshot; readers never lock.
+   */
+  private static volatile ResourceSnapshot sSnapshot = ResourceSnapshot.EMPTY;
+
+  /**
+   * Search index over the resources of the latest snapshot, updated along with it.
+   */
+  private static final ResourceSearchIndex SEARCH_INDEX = new ResourceSearchIndex();
+
+  /**
+   * Account and project id of the displayed resources.
+   */
+  private static String sProjectKey;
+
+  /**
+   * Retrieve the latest snapshot of the displayed resources. Hold on to the returned snapshot for
+   * a consistent view across several reads.
+   */
+  public static ResourceSnapshot getSnapshot() {
+    return sSnapshot;
+  }
+
+  static DummyHeader getHeader(Section section) {
+    return FAILED_SECTIONS.contains(section) ? FAILED_HEADERS.get(section) : HEADERS.get(section);
+  }
+
+  /**
+   * Retrieve the shared header of a section that loaded.
+   */
+  public static DummyHeader getLoadedHeader(Section section) {
+    return HEADERS.get(section);
+  }
+
+  /**
+   * Build the message Instances and Disks display about the activity in their Zone, or
+   * {@code null} if there is nothing to display.
+   */
+  public static String getZoneActivity(ZoneItem zoneItem) {
+    if (zoneItem == null || Strings.isNullOrEmpty(zoneItem.userMessage)) {
+      return null;
+    }
+    return "Zone activity: " + zoneItem.userMessage;
+  }
+
+  /**
+   * Select the project whose resources are displayed. Resources of any other project are cleared;
+   * resources of the same project stay on display until they are refreshed.
+   */
+  public static synchronized void setProject(String account, String projectId) {
+    String projectKey = account + "/" + projectId;
+    if (!projectKey.equals(sProjectKey)) {
+      sProjectKey = projectKey;
+      clear();
+    }
+  }
+
+  public static synchronized void clear() {
+    FAILED_SECTIONS.clear();
+    SEARCH_INDEX.clear();
+    publish(sSnapshot.cleared());
+  }
+
+  /**
+   * Replace every section with {@code sections} in a single snapshot, keeping the displayed
+   * instance of every unchanged item. Sections missing from {@code sections} are removed.
+   *
+   * @return whether the displayed content changed
+   */
+  public static synchronized boolean replaceContent(
+      Map<Section, ? extends List<? extends DummyItem>> sections) {
+    ResourceSnapshot snapshot = sSnapshot;
+    Map<Section, List<DummyItem>> mergedSections = Maps.newEnumMap(Section.class);
+    boolean changed = false;
+    for (Section section : Section.values()) {
+      List<? extends DummyItem> items = sections.get(section);
+      boolean present = snapshot.getSectionStart(section) >= 0;
+      if (items == null) {
+        SEARCH_INDEX.removeAll(snapshot.getSectionItems(section));
+        changed |= present;
+        continue;
+      }
+      SnapshotDiff diff = SnapshotDiff.compute(snapshot.getSectionItems(section), items);
+      apply(diff);
+      mergedSections.put(section, diff.merged);
+      changed |= !present || !diff.isEmpty();
+    }
+    if (changed) {
+      publish(snapshot.withSections(mergedSections));
+    }
+    return changed;
+  }
+
+  /**
+   * Append items to the end of a section, adding the section header first if the section is not
+   * present yet. Sections stay in {@code Section} order regardless of the order pages arrive in.
+   */
+  public static synchronized void addSectionContent(Section section,
+      List<? extends DummyItem> items) {
+    SEARCH_INDEX.addAll(items);
+    publish(sSnapshot.withSectionAppended(section, items));
+  }
 
   /**
-   * A map of sample (dummy) items, by ID.
+   * Replace the items of a section, adding the section header if the section is not present yet.
+   * Only inserted, removed and changed items are applied; unchanged items keep their displayed
+   * instance.
+   *
+   * @return whether the displayed content changed
    */
-  public static Map<String, DummyItem> ITEM_MAP = Maps.newConcurrentMap();
+  public static synchronized boolean replaceSectionContent(Section section,
+      List<? extends DummyItem> items) {
+    ResourceSnapshot snapshot = sSnapshot;
+    SnapshotDiff diff = SnapshotDiff.compute(snapshot.getSectionItems(section), items);
+    if (diff.isEmpty() && snapshot.getSectionStart(section) >= 0) {
+      return false;
+    }
+    apply(diff);
+    publish(snapshot.withSection(section, diff.merged));
+    return true;
+  }
+
+  /**
+   * Mark a section as failed to load, or clear the mark. The header of a failed section offers to
+   * retry the download; the section is added, empty, if it is not present so that the header is
+   * displayed. Items already displayed in the section are kept.
+   *
+   * @return whether the displayed content changed
+   */
+  public static synchronized boolean setSectionFailed(Section section, boolean failed) {
+    boolean changed = failed ? FAILED_SECTIONS.add(section) : FAILED_SECTIONS.remove(section);
+    ResourceSnapshot snapshot = sSnapshot;
+    if (!changed || (!failed && snapshot.getSectionStart(section) < 0)) {
+      return false;
+    }
+    // Rebuild the section so that the snapshot picks up its new header.
+    publish(snapshot.withSection(section, snapshot.getSectionItems(section)));
+    return true;
+  }
+
+  /**
+   * Remove an item, for example after the resource it represents was deleted.
+   */
+  public static synchronized void removeContent(DummyItem item) {
+    SEARCH_INDEX.remove(item);
+    publish(sSnapshot.without(item));
+  }
+
+  /**
+   * Find the Instances, Disks and Zones of the latest snapshot whose name, tags or description
+   * match every term of {@code query}. Terms shorter than three characters match the start of a
+   * word; longer terms match anywhere. Returns at most 500 resources, Instances first.
+   */
+  public static List<DummyItem> search(String query) {
+    ResourceSnapshot snapshot = sSnapshot;
+    List<DummyItem> results = SEARCH_INDEX.search(query);
+    // Drop results published after the snapshot was read.
+    for (Iterator<DummyItem> iterator = results.iterator(); iterator.hasNext(); ) {
+      DummyItem result = iterator.next();
+      if (snapshot.getItem(result.id) != result) {
+        iterator.remove();
+      }
+    }
+    return results;
+  }
+
+  public static boolean isEmpty() {
+    return sSnapshot.isEmpty();
+  }
 
-  public static void clear() {
-    ITEM_MAP.clear();
-    ITEMS.clear();
+  /**
+   * Bring the search index up to date with a section diff.
+   */
+  private static void apply(SnapshotDiff diff) {
+    SEARCH_INDEX.removeAll(diff.removed);
+    SEARCH_INDEX.removeAll(diff.replaced);
+    SEARCH_INDEX.addAll(diff.inserted);
+    SEARCH_INDEX.addAll(diff.changed);
   }
 
-  public static void addContent(DummyItem dummyItem) {
-    ITEMS.add(dummyItem);
-    ITEM_MAP.put(dummyItem.id, dummyItem);
+  private static void publish(ResourceSnapshot snapshot) {
+    sSnapshot = snapshot;
+    if (DEBUG) {
+      Log.v(LOG_TAG, "Published snapshot " + snapshot.getVersion() + " with " + snapshot.size()
+          + " rows");
+    }
   }
 
   /**
    * A dummy item representing a piece of content.
    */
   public static class DummyItem {
-    public String id;
-    public String content;
+    public final String id;
+    public final String content;
 
     private DummyItem(String id, String content) {
       this.id = id;
       this.content = content;
     }
 
+    /**
+     * Stable 64-bit ID derived from {@code id}, for {@code Adapter#getItemId(int)}.
+     */
+    public long getStableId() {
+      return SnapshotDiff.hashId(id);
+    }
+
     @Override
     public String toString() {
       return content;
@@ -87,17 +294,17 @@ public class DummyContent {
    * A dummy item representing a Google Compute Engine Instance.
    */
   public static class InstanceItem extends DummyItem {
-    public Instance instance = null;
-    public String userMessage = null;
+    public final InstanceRecord instance;
+    public final String userMessage;
 
-    public InstanceItem(Instance instance, ZoneItem zoneItem) {
-      super(instance.getSelfLink(), instance.getName());
+    /**
+     * @param userMessage message displayed with the Instance, usually its Zone's activity from
+     *     {@link DummyContent#getZoneActivity}, or {@code null}
+     */
+    public InstanceItem(InstanceRecord instance, String userMessage) {
+      super(instance.selfLink, instance.name);
       this.instance = instance;
-
-      // Instances should display their Zone's user message.
-      if (!Strings.isNullOrEmpty(zoneItem.userMessage)) {
-        userMessage = "Zone activity: " + zoneItem.userMessage;
-      }
+      this.userMessage = userMessage;
     }
   }
 
@@ -105,17 +312,17 @@ public class DummyContent {
    * A dummy item representing a Google Compute Engine Disk.
    */
   public static class DiskItem extends DummyItem {
-    public Disk disk = null;
-    public String userMessage = null;
+    public final DiskRecord disk;
+    public final String userMessage;
 
-    public DiskItem(Disk computeObject, ZoneItem zoneItem) {
-      super(computeObject.getSelfLink(), computeObject.getName());
+    /**
+     * @param userMessage message displayed with the Disk, usually its Zone's activity from
+     *     {@link DummyContent#getZoneActivity}, or {@code null}
+     */
+    public DiskItem(DiskRecord computeObject, String userMessage) {
+      super(computeObject.selfLink, computeObject.name);
       disk = computeObject;
-
-      // Disks should display their Zone's user message.
-      if (!Strings.isNullOrEmpty(zoneItem.userMessage)) {
-        userMessage = "Zone activity: " + zoneItem.userMessage;
-      }
+      this.userMessage = userMessage;
     }
   }
 
@@ -123,23 +330,32 @@ public class DummyContent {
    * A dummy item representing a Google Compute Engine Zone.
    */
   public static class ZoneItem extends DummyItem {
-    public Zone zone = null;
-    public String userMessage = null;
+    public final ZoneRecord zone;
+    public final String userMessage;
 
-    public ZoneItem(Zone computeObject) {
-      super(computeObject.getSelfLink(), computeObject.getName());
+    public ZoneItem(ZoneRecord computeObject) {
+      super(computeObject.selfLink, computeObject.name);
       zone = computeObject;
+      userMessage = getMaintenanceMessage(computeObject);
+    }
 
+    private static String getMaintenanceMessage(ZoneRecord zone) {
       // Process the Zone and generate a user message if a maintenance window is near.
-      List<MaintenanceWindows> maintenanceWindows = computeObject.getMaintenanceWindows();
+      List<MaintenanceWindow> maintenanceWindows = zone.maintenanceWindows;
       long millisUntilNextWindow = Long.MAX_VALUE;
       long nowInMillis = System.currentTimeMillis();
 
       // Iterate through each maintenance window to find the next one.
-      if (maintenanceWindows != null && maintenanceWindows.size() > 0) {
-        for (MaintenanceWindows maintenanceWindow : maintenanceWindows) {
-          long startTimeInMillis = AppUtils.convertDateTime(maintenanceWindow.getBeginTime()).getTime();
-          Log.v(LOG_TAG, "StartTime:" + startTimeInMillis + " now " + nowInMillis);
+      if (maintenanceWindows.size() > 0) {
+        for (MaintenanceWindow maintenanceWindow : maintenanceWindows) {
+          long startTimeInMillis = maintenanceWindow.beginTimeMillis;
+          if (startTimeInMillis == 0L) {
+            // The begin time could not be parsed.
+            continue;
+          }
+          if (DEBUG) {
+            Log.v(LOG_TAG, "StartTime:" + startTimeInMillis + " now " + nowInMillis);
+          }
           long millisUntilStartTime = startTimeInMillis - nowInMillis;
 
           if (millisUntilStartTime < millisUntilNextWindow) {
@@ -152,23 +368,49 @@ public class DummyContent {
       long daysUntilNextWindow = (millisUntilNextWindow / (1000 * 60 * 60 * 24));
 
       if (DEBUG) {
-        Log.v(LOG_TAG, "Zone " + zone.getName() + " with next maintenance window in " + daysUntilNextWindow + " day(s).");
+        Log.v(LOG_TAG, "Zone " + zone.name + " with next maintenance window in " + daysUntilNextWindow + " day(s).");
       }
 
       if (daysUntilNextWindow < 28) {
-        userMessage = daysUntilNextWindow + " day"
+        return daysUntilNextWindow + " day"
                 + ((daysUntilNextWindow == 1) ? "" : "s")
                 + " until scheduled outage window.";
       }
+      return null;
     }
   }
 
   /**
-   * A dummy item representing a header for a section of content.
+   * A dummy item standing in for a row of a page of content that is not held in memory. Every row
+   * of the page has its own placeholder, so that rows keep distinct IDs.
+   */
+  public static class DummyPlaceholder extends DummyItem {
+    public final Section section;
+    public final int pageIndex;
+
+    public DummyPlaceholder(Section section, int pageIndex, int row) {
+      super(section.name() + ":" + pageIndex + ":" + row, "Loading\u2026");
+      this.section = section;
+      this.pageIndex = pageIndex;
+    }
+  }
+
+  /**
+   * A dummy item representing a header for a section of content. The ID is derived from the
+   * section, so it stays the same across loads and whether or not the section failed to load.
    */
   public static class DummyHeader extends DummyItem {
-    public DummyHeader(String content) {
-      super((new Random()).nextLong() + "", content);
+    public final Section section;
+    /**
+     * Whether the download of the section failed; tapping the header retries it.
+     */
+    public final boolean failed;
+
+    private DummyHeader(Section section, boolean failed) {
+      super("header/" + section.name(),
+          failed ? section.title + " \u2014 failed to load, tap to retry" : section.title);
+      this.section = section;
+      this.failed = failed;
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,294 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.dummy;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.ZoneItem;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Case-insensitive search over the names, tags and descriptions of resources, maintained
+ * incrementally as resources are added and removed.
+ *
+ * Terms of at least {@link #GRAM_LENGTH} characters are answered from a trigram index: only the
+ * resources holding the rarest trigram of the term are checked for the whole term. Shorter terms
+ * match the start of any word, answered from an index of word prefixes.
+ *
+ * Thread-safe.
+ */
+final class ResourceSearchIndex {
+  static final int GRAM_LENGTH = 3;
+
+  /**
+   * Maximum number of resources returned by a search.
+   */
+  static final int MAX_RESULTS = 500;
+
+  /**
+   * Instances, then Disks, then Zones, each by name.
+   */
+  private static final Comparator<DummyItem> RESULT_ORDER = new Comparator<DummyItem>() {
+    @Override
+    public int compare(DummyItem lhs, DummyItem rhs) {
+      int typeOrder = getTypeOrder(lhs) - getTypeOrder(rhs);
+      return (typeOrder != 0) ? typeOrder : lhs.content.compareToIgnoreCase(rhs.content);
+    }
+  };
+
+  /**
+   * Lower case searchable text of every indexed resource.
+   */
+  private final Map<DummyItem, String> mTexts = Maps.newIdentityHashMap();
+  private final Map<String, Set<DummyItem>> mGrams = Maps.newHashMap();
+  /**
+   * Resources by the prefixes shorter than {@link #GRAM_LENGTH} of their words.
+   */
+  private final Map<String, Set<DummyItem>> mWordPrefixes = Maps.newHashMap();
+  /**
+   * Number of resources whose text the last search checked against the terms, for tests.
+   */
+  private int mLastCheckedCount = 0;
+
+  /**
+   * Index a resource. Items other than Instances, Disks and Zones and items already indexed are
+   * ignored.
+   */
+  synchronized void add(DummyItem item) {
+    String text = getSearchableText(item);
+    if (text == null || mTexts.containsKey(item)) {
+      return;
+    }
+    mTexts.put(item, text);
+    for (String gram : getGrams(text)) {
+      getPostings(mGrams, gram).add(item);
+    }
+    for (String prefix : getWordPrefixes(text)) {
+      getPostings(mWordPrefixes, prefix).add(item);
+    }
+  }
+
+  synchronized void addAll(Collection<? extends DummyItem> items) {
+    for (DummyItem item : items) {
+      add(item);
+    }
+  }
+
+  synchronized void removeAll(Collection<? extends DummyItem> items) {
+    for (DummyItem item : items) {
+      remove(item);
+    }
+  }
+
+  synchronized void remove(DummyItem item) {
+    String text = mTexts.remove(item);
+    if (text == null) {
+      return;
+    }
+    for (String gram : getGrams(text)) {
+      removePosting(mGrams, gram, item);
+    }
+    for (String prefix : getWordPrefixes(text)) {
+      removePosting(mWordPrefixes, prefix, item);
+    }
+  }
+
+  synchronized void clear() {
+    mTexts.clear();
+    mGrams.clear();
+    mWordPrefixes.clear();
+  }
+
+  /**
+   * Find the resources matching every whitespace separated term of {@code query}, in
+   * {@link #RESULT_ORDER}. Only the first {@link #MAX_RESULTS} matching resources in that order
+   * are returned.
+   */
+  synchronized List<DummyItem> search(String query) {
+    mLastCheckedCount = 0;
+    String[] terms = query.trim().toLowerCase(Locale.US).split("\\s+");
+    if (terms[0].length() == 0) {
+      return Collections.emptyList();
+    }
+    // Only the resources that may match the most selective term are checked.
+    Collection<DummyItem> candidates = null;
+    for (String term : terms) {
+      Collection<DummyItem> termCandidates = getCandidates(term);
+      if (candidates == null || termCandidates.size() < candidates.size()) {
+        candidates = termCandidates;
+      }
+    }
+
+    // Keep the first matches in result order; the head of the queue is the last of them.
+    PriorityQueue<DummyItem> firstMatches =
+        new PriorityQueue<DummyItem>(MAX_RESULTS, Collections.reverseOrder(RESULT_ORDER));
+    for (DummyItem candidate : candidates) {
+      if (firstMatches.size() == MAX_RESULTS
+          && RESULT_ORDER.compare(candidate, firstMatches.peek()) >= 0) {
+        continue;
+      }
+      mLastCheckedCount++;
+      if (matchesAll(mTexts.get(candidate), terms)) {
+        if (firstMatches.size() == MAX_RESULTS) {
+          firstMatches.poll();
+        }
+        firstMatches.add(candidate);
+      }
+    }
+    List<DummyItem> results = Lists.newArrayList(firstMatches);
+    Collections.sort(results, RESULT_ORDER);
+    return results;
+  }
+
+  synchronized int getLastCheckedCount() {
+    return mLastCheckedCount;
+  }
+
+  /**
+   * Resources that may match {@code term}; every resource that does match is included.
+   */
+  private Collection<DummyItem> getCandidates(String term) {
+    if (term.length() < GRAM_LENGTH) {
+      Set<DummyItem> postings = mWordPrefixes.get(term);
+      return (postings != null) ? postings : Collections.<DummyItem>emptyList();
+    }
+
+    Set<DummyItem> rarestPostings = null;
+    for (String gram : getGrams(term)) {
+      Set<DummyItem> postings = mGrams.get(gram);
+      if (postings == null) {
+        return Collections.emptyList();
+      }
+      if (rarestPostings == null || postings.size() < rarestPostings.size()) {
+        rarestPostings = postings;
+      }
+    }
+    return rarestPostings;
+  }
+
+  private static boolean matchesAll(String text, String[] terms) {
+    for (String term : terms) {
+      if (term.length() < GRAM_LENGTH ? !matchesWordStart(text, term) : !text.contains(term)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean matchesWordStart(String text, String term) {
+    int index = text.indexOf(term);
+    while (index >= 0) {
+      if (index == 0 || !Character.isLetterOrDigit(text.charAt(index - 1))) {
+        return true;
+      }
+      index = text.indexOf(term, index + 1);
+    }
+    return false;
+  }
+
+  private static Set<DummyItem> getPostings(Map<String, Set<DummyItem>> index, String key) {
+    Set<DummyItem> postings = index.get(key);
+    if (postings == null) {
+      postings = Sets.newIdentityHashSet();
+      index.put(key, postings);
+    }
+    return postings;
+  }
+
+  private static void removePosting(Map<String, Set<DummyItem>> index, String key,
+      DummyItem item) {
+    Set<DummyItem> postings = index.get(key);
+    if (postings != null && postings.remove(item) && postings.isEmpty()) {
+      index.remove(key);
+    }
+  }
+
+  private static Set<String> getGrams(String text) {
+    Set<String> grams = Sets.newHashSet();
+    for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+      grams.add(text.substring(i, i + GRAM_LENGTH));
+    }
+    return grams;
+  }
+
+  /**
+   * Prefixes of one up to {@code GRAM_LENGTH - 1} characters of the words of {@code text}.
+   */
+  private static Set<String> getWordPrefixes(String text) {
+    Set<String> prefixes = Sets.newHashSet();
+    for (int i = 0; i < text.length(); i++) {
+      if (!Character.isLetterOrDigit(text.charAt(i))
+          || (i > 0 && Character.isLetterOrDigit(text.charAt(i - 1)))) {
+        continue;
+      }
+      for (int end = i + 1; end < i + GRAM_LENGTH && end <= text.length()
+          && Character.isLetterOrDigit(text.charAt(end - 1)); end++) {
+        prefixes.add(text.substring(i, end));
+      }
+    }
+    return prefixes;
+  }
+
+  /**
+   * Name, tags and description of a resource in lower case, one per line, or {@code null} for
+   * items that are not resources.
+   */
+  private static String getSearchableText(DummyItem item) {
+    StringBuilder text = new StringBuilder();
+    if (item instanceof InstanceItem) {
+      InstanceItem instanceItem = (InstanceItem) item;
+      text.append(instanceItem.instance.name);
+      for (String tag : instanceItem.instance.tags) {
+        text.append('\n').append(tag);
+      }
+      if (instanceItem.instance.description != null) {
+        text.append('\n').append(instanceItem.instance.description);
+      }
+    } else if (item instanceof DiskItem) {
+      DiskItem diskItem = (DiskItem) item;
+      text.append(diskItem.disk.name);
+      if (diskItem.disk.description != null) {
+        text.append('\n').append(diskItem.disk.description);
+      }
+    } else if (item instanceof ZoneItem) {
+      text.append(((ZoneItem) item).zone.name);
+    } else {
+      return null;
+    }
+    return text.toString().toLowerCase(Locale.US);
+  }
+
+  private static int getTypeOrder(DummyItem item) {
+    if (item instanceof InstanceItem) {
+      return 0;
+    } else if (item instanceof DiskItem) {
+      return 1;
+    }
+    return 2;
+  }
+}
@@ -0,0 +1,243 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.dummy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyHeader;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.Section;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.ZoneItem;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, versioned view of the displayed resources. Snapshots are never modified; changes
+ * produce a new snapshot with a higher version, so a reader holding a snapshot always sees a
+ * consistent list and indexes without locking.
+ *
+ * Lookups by ID (the self link of a resource), Zone, status and section are answered from indexes
+ * built once when the snapshot is created.
+ */
+public final class ResourceSnapshot {
+  static final ResourceSnapshot EMPTY = new ResourceSnapshot(0L,
+      Collections.<Section, ImmutableList<DummyItem>>emptyMap());
+
+  private final long mVersion;
+  /**
+   * Items of every present section, without headers.
+   */
+  private final Map<Section, ImmutableList<DummyItem>> mSections;
+
+  /**
+   * Displayed rows: the sections in {@code Section} order, each preceded by its header.
+   */
+  private final ImmutableList<DummyItem> mRows;
+  /**
+   * Row position of the header of every present section.
+   */
+  private final Map<Section, Integer> mSectionStarts = Maps.newEnumMap(Section.class);
+  private final ImmutableMap<String, DummyItem> mItemsById;
+  private final ImmutableListMultimap<String, DummyItem> mItemsByZone;
+  private final ImmutableListMultimap<String, DummyItem> mItemsByStatus;
+
+  private ResourceSnapshot(long version, Map<Section, ImmutableList<DummyItem>> sections) {
+    mVersion = version;
+    mSections = sections;
+
+    ImmutableList.Builder<DummyItem> rows = ImmutableList.builder();
+    // Later items replace earlier ones with the same ID, as the previous map did.
+    Map<String, DummyItem> itemsById = Maps.newHashMap();
+    ImmutableListMultimap.Builder<String, DummyItem> itemsByZone = ImmutableListMultimap.builder();
+    ImmutableListMultimap.Builder<String, DummyItem> itemsByStatus =
+        ImmutableListMultimap.builder();
+    int rowCount = 0;
+    for (Section section : Section.values()) {
+      List<DummyItem> sectionItems = sections.get(section);
+      if (sectionItems == null) {
+        continue;
+      }
+      DummyHeader header = DummyContent.getHeader(section);
+      mSectionStarts.put(section, rowCount);
+      rowCount += 1 + sectionItems.size();
+      rows.add(header);
+      itemsById.put(header.id, header);
+      rows.addAll(sectionItems);
+      for (DummyItem item : sectionItems) {
+        itemsById.put(item.id, item);
+        String zone = getZone(item);
+        if (zone != null) {
+          itemsByZone.put(zone, item);
+        }
+        String status = getStatus(item);
+        if (status != null) {
+          itemsByStatus.put(status, item);
+        }
+      }
+    }
+    mRows = rows.build();
+    mItemsById = ImmutableMap.copyOf(itemsById);
+    mItemsByZone = itemsByZone.build();
+    mItemsByStatus = itemsByStatus.build();
+  }
+
+  /**
+   * Version of the snapshot; increases with every published change.
+   */
+  public long getVersion() {
+    return mVersion;
+  }
+
+  /**
+   * Displayed rows, including section headers.
+   */
+  public List<DummyItem> getRows() {
+    return mRows;
+  }
+
+  public int size() {
+    return mRows.size();
+  }
+
+  public boolean isEmpty() {
+    return mRows.isEmpty();
+  }
+
+  public DummyItem get(int position) {
+    return mRows.get(position);
+  }
+
+  /**
+   * Look up an item, or a header, by its ID; {@code null} if absent.
+   */
+  public DummyItem getItem(String id) {
+    return mItemsById.get(id);
+  }
+
+  /**
+   * Items of a section, without its header.
+   */
+  public List<DummyItem> getSectionItems(Section section) {
+    List<DummyItem> sectionItems = mSections.get(section);
+    return (sectionItems == null) ? ImmutableList.<DummyItem>of() : sectionItems;
+  }
+
+  /**
+   * Row position of the header of a section, or -1 if the section is not present. The items of
+   * the section follow the header.
+   */
+  public int getSectionStart(Section section) {
+    Integer sectionStart = mSectionStarts.get(section);
+    return (sectionStart == null) ? -1 : sectionStart;
+  }
+
+  /**
+   * Instances and Disks in a Zone, along with the Zone itself.
+   */
+  public List<DummyItem> getItemsInZone(String zoneName) {
+    return mItemsByZone.get(zoneName);
+  }
+
+  public List<DummyItem> getItemsWithStatus(String status) {
+    return mItemsByStatus.get(status);
+  }
+
+  /**
+   * Snapshot with the items of a section replaced, adding the section if it is not present.
+   */
+  ResourceSnapshot withSection(Section section, List<? extends DummyItem> items) {
+    Map<Section, ImmutableList<DummyItem>> sections = Maps.newEnumMap(Section.class);
+    sections.putAll(mSections);
+    sections.put(section, ImmutableList.<DummyItem>copyOf(items));
+    return new ResourceSnapshot(mVersion + 1, sections);
+  }
+
+  /**
+   * Snapshot holding exactly {@code sections}.
+   */
+  ResourceSnapshot withSections(Map<Section, ? extends List<? extends DummyItem>> sections) {
+    Map<Section, ImmutableList<DummyItem>> newSections = Maps.newEnumMap(Section.class);
+    for (Map.Entry<Section, ? extends List<? extends DummyItem>> section : sections.entrySet()) {
+      newSections.put(section.getKey(), ImmutableList.<DummyItem>copyOf(section.getValue()));
+    }
+    return new ResourceSnapshot(mVersion + 1, newSections);
+  }
+
+  /**
+   * Snapshot with items appended to a section, adding the section if it is not present.
+   */
+  ResourceSnapshot withSectionAppended(Section section, List<? extends DummyItem> items) {
+    ImmutableList<DummyItem> sectionItems = ImmutableList.<DummyItem>builder()
+        .addAll(getSectionItems(section))
+        .addAll(items)
+        .build();
+    return withSection(section, sectionItems);
+  }
+
+  /**
+   * Snapshot without an item; returns this snapshot if the item is not present.
+   */
+  ResourceSnapshot without(DummyItem item) {
+    for (Map.Entry<Section, ImmutableList<DummyItem>> section : mSections.entrySet()) {
+      int position = section.getValue().indexOf(item);
+      if (position < 0) {
+        continue;
+      }
+      ImmutableList<DummyItem> sectionItems = ImmutableList.<DummyItem>builder()
+          .addAll(section.getValue().subList(0, position))
+          .addAll(section.getValue().subList(position + 1, section.getValue().size()))
+          .build();
+      return withSection(section.getKey(), sectionItems);
+    }
+    return this;
+  }
+
+  /**
+   * Empty snapshot that still succeeds this one.
+   */
+  ResourceSnapshot cleared() {
+    return new ResourceSnapshot(mVersion + 1,
+        Collections.<Section, ImmutableList<DummyItem>>emptyMap());
+  }
+
+  private static String getZone(DummyItem item) {
+    if (item instanceof InstanceItem) {
+      return ((InstanceItem) item).instance.zone;
+    } else if (item instanceof DiskItem) {
+      return ((DiskItem) item).disk.zone;
+    } else if (item instanceof ZoneItem) {
+      return ((ZoneItem) item).zone.name;
+    }
+    return null;
+  }
+
+  private static String getStatus(DummyItem item) {
+    if (item instanceof InstanceItem) {
+      return ((InstanceItem) item).instance.status;
+    } else if (item instanceof DiskItem) {
+      return ((DiskItem) item).disk.status;
+    } else if (item instanceof ZoneItem) {
+      return ((ZoneItem) item).zone.status;
+    }
+    return null;
+  }
+}
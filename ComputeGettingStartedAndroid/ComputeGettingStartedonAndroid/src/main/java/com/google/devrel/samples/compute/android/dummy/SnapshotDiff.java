@@ -0,0 +1,178 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.dummy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.ZoneItem;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord.MaintenanceWindow;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Differences between the previous and the new items of a section. Items are matched by ID (the
+ * self link of a resource) and compared by a fingerprint of their displayed content.
+ *
+ * The merged list holds the new items in their new order, but keeps the previous instance of
+ * every unchanged item, so that anything cached per item, such as search postings and rendered
+ * rows, stays valid across a refresh.
+ */
+public final class SnapshotDiff {
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  public final List<DummyItem> inserted;
+  public final List<DummyItem> removed;
+  /**
+   * New instances of items whose content changed.
+   */
+  public final List<DummyItem> changed;
+  /**
+   * Previous instances of the changed items.
+   */
+  final List<DummyItem> replaced;
+  final ImmutableList<DummyItem> merged;
+  private final boolean mReordered;
+
+  private SnapshotDiff(List<DummyItem> inserted, List<DummyItem> removed,
+      List<DummyItem> changed, List<DummyItem> replaced, ImmutableList<DummyItem> merged,
+      boolean reordered) {
+    this.inserted = inserted;
+    this.removed = removed;
+    this.changed = changed;
+    this.replaced = replaced;
+    this.merged = merged;
+    mReordered = reordered;
+  }
+
+  /**
+   * Whether the new items display exactly like the previous ones.
+   */
+  public boolean isEmpty() {
+    return inserted.isEmpty() && removed.isEmpty() && changed.isEmpty() && !mReordered;
+  }
+
+  static SnapshotDiff compute(List<? extends DummyItem> previousItems,
+      List<? extends DummyItem> items) {
+    Map<String, DummyItem> previousById = Maps.newHashMapWithExpectedSize(previousItems.size());
+    for (DummyItem previousItem : previousItems) {
+      previousById.put(previousItem.id, previousItem);
+    }
+
+    List<DummyItem> inserted = Lists.newArrayList();
+    List<DummyItem> changed = Lists.newArrayList();
+    List<DummyItem> replaced = Lists.newArrayList();
+    ImmutableList.Builder<DummyItem> merged = ImmutableList.builder();
+    boolean reordered = previousItems.size() != items.size();
+    for (int i = 0; i < items.size(); i++) {
+      DummyItem item = items.get(i);
+      DummyItem previousItem = previousById.remove(item.id);
+      if (previousItem == null) {
+        inserted.add(item);
+        merged.add(item);
+        continue;
+      }
+      if (previousItem == item || getFingerprint(previousItem) == getFingerprint(item)) {
+        merged.add(previousItem);
+      } else {
+        changed.add(item);
+        replaced.add(previousItem);
+        merged.add(item);
+      }
+      if (!reordered && previousItems.get(i) != previousItem) {
+        reordered = true;
+      }
+    }
+    // Whatever was not matched is gone.
+    List<DummyItem> removed = Lists.newArrayList(previousById.values());
+    return new SnapshotDiff(inserted, removed, changed, replaced, merged.build(),
+        reordered);
+  }
+
+  /**
+   * 64-bit FNV-1a hash over the type and displayed content of an item.
+   */
+  static long getFingerprint(DummyItem item) {
+    long hash = hash(FNV_OFFSET_BASIS, item.getClass().getName());
+    hash = hash(hash, item.content);
+    if (item instanceof InstanceItem) {
+      InstanceItem instanceItem = (InstanceItem) item;
+      InstanceRecord instance = instanceItem.instance;
+      hash = hash(hash, instanceItem.userMessage);
+      hash = hash(hash, instance.zone);
+      hash = hash(hash, instance.status);
+      hash = hash(hash, instance.description);
+      hash = hash(hash, instance.machineType);
+      hash = hash(hash, instance.creationTimeMillis);
+      for (String tag : instance.tags) {
+        hash = hash(hash, tag);
+      }
+    } else if (item instanceof DiskItem) {
+      DiskItem diskItem = (DiskItem) item;
+      DiskRecord disk = diskItem.disk;
+      hash = hash(hash, diskItem.userMessage);
+      hash = hash(hash, disk.zone);
+      hash = hash(hash, disk.status);
+      hash = hash(hash, disk.description);
+      hash = hash(hash, disk.sizeGb);
+      hash = hash(hash, disk.creationTimeMillis);
+    } else if (item instanceof ZoneItem) {
+      ZoneItem zoneItem = (ZoneItem) item;
+      ZoneRecord zone = zoneItem.zone;
+      hash = hash(hash, zoneItem.userMessage);
+      hash = hash(hash, zone.status);
+      for (MaintenanceWindow window : zone.maintenanceWindows) {
+        hash = hash(hash, window.beginTimeMillis);
+        hash = hash(hash, window.endTimeMillis);
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * 64-bit FNV-1a hash of an item ID.
+   */
+  static long hashId(String id) {
+    return hash(FNV_OFFSET_BASIS, id);
+  }
+
+  private static long hash(long hash, String value) {
+    if (value == null) {
+      return hash(hash, -1L);
+    }
+    for (int i = 0; i < value.length(); i++) {
+      hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+    }
+    // Separate consecutive fields.
+    return (hash ^ 0xffff) * FNV_PRIME;
+  }
+
+  private static long hash(long hash, long value) {
+    for (int i = 0; i < 8; i++) {
+      hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+      value >>>= 8;
+    }
+    return hash;
+  }
+}
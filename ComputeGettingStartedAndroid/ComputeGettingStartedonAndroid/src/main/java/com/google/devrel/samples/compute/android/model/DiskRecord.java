@@ -0,0 +1,61 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.model;
+
+import com.google.api.services.compute.model.Disk;
+import com.google.devrel.samples.compute.android.Rfc3339;
+
+/**
+ * The fields of a Google Compute Engine Disk displayed by the application, as decoded by
+ * {@link ResourceListDecoder} or projected from a full Disk. Records decoded from a list only hold
+ * the fields the list screen needs; the size and creation time are left unset.
+ */
+public final class DiskRecord {
+  public final String selfLink;
+  public final String name;
+  /**
+   * Name of the Zone of the Disk.
+   */
+  public final String zone;
+  public final String status;
+  public final String description;
+  public final long sizeGb;
+  /**
+   * Creation time in milliseconds since the epoch, or 0 if unknown.
+   */
+  public final long creationTimeMillis;
+
+  public DiskRecord(String selfLink, String name, String zone, String status, String description,
+      long sizeGb, long creationTimeMillis) {
+    this.selfLink = selfLink;
+    this.name = name;
+    this.zone = StringPool.intern(zone);
+    this.status = StringPool.intern(status);
+    this.description = description;
+    this.sizeGb = sizeGb;
+    this.creationTimeMillis = creationTimeMillis;
+  }
+
+  /**
+   * Project the displayed fields of an API model object.
+   */
+  public static DiskRecord fromDisk(Disk disk) {
+    return new DiskRecord(disk.getSelfLink(), disk.getName(),
+        (disk.getZone() == null) ? null : SelfLinks.getName(disk.getZone()),
+        disk.getStatus(), disk.getDescription(), (disk.getSizeGb() == null) ? 0L : disk.getSizeGb(),
+        Rfc3339.parse(disk.getCreationTimestamp(), 0L));
+  }
+}
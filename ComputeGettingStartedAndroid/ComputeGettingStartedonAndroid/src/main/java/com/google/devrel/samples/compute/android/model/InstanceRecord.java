@@ -0,0 +1,75 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.model;
+
+import com.google.api.services.compute.model.Instance;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.samples.compute.android.Rfc3339;
+
+import java.util.List;
+
+/**
+ * The fields of a Google Compute Engine Instance displayed by the application, as decoded by
+ * {@link ResourceListDecoder} or projected from a full Instance. Records decoded from a list only
+ * hold the fields the list screen needs; the machine type and creation time are left unset.
+ * Unlike the API model object it keeps no generic JSON map, and the Zone, machine type and status
+ * are shared through the {@link StringPool}.
+ */
+public final class InstanceRecord {
+  public final String selfLink;
+  public final String name;
+  /**
+   * Name of the Zone of the Instance.
+   */
+  public final String zone;
+  public final String status;
+  public final String description;
+  /**
+   * Name of the machine type of the Instance.
+   */
+  public final String machineType;
+  /**
+   * Creation time in milliseconds since the epoch, or 0 if unknown.
+   */
+  public final long creationTimeMillis;
+  public final List<String> tags;
+
+  public InstanceRecord(String selfLink, String name, String zone, String status,
+      String description, String machineType, long creationTimeMillis, List<String> tags) {
+    this.selfLink = selfLink;
+    this.name = name;
+    this.zone = StringPool.intern(zone);
+    this.status = StringPool.intern(status);
+    this.description = description;
+    this.machineType = StringPool.intern(machineType);
+    this.creationTimeMillis = creationTimeMillis;
+    this.tags = (tags == null) ? ImmutableList.<String>of() : ImmutableList.copyOf(tags);
+  }
+
+  /**
+   * Project the displayed fields of an API model object.
+   */
+  public static InstanceRecord fromInstance(Instance instance) {
+    return new InstanceRecord(instance.getSelfLink(), instance.getName(),
+        getName(instance.getZone()), instance.getStatus(), instance.getDescription(),
+        getName(instance.getMachineType()), Rfc3339.parse(instance.getCreationTimestamp(), 0L),
+        (instance.getTags() == null) ? null : instance.getTags().getItems());
+  }
+
+  private static String getName(String selfLink) {
+    return (selfLink == null) ? null : SelfLinks.getName(selfLink);
+  }
+}
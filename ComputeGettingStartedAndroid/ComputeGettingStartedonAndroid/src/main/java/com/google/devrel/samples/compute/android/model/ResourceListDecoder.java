@@ -0,0 +1,288 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.model;
+
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+import com.google.common.collect.Lists;
+import com.google.devrel.samples.compute.android.AppUtils;
+import com.google.devrel.samples.compute.android.ComputeTransports;
+import com.google.devrel.samples.compute.android.Rfc3339;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Decodes Instance and Disk list responses straight into records while they stream in. Both the
+ * {@code aggregatedList} shape, where {@code items} maps every scope to a scoped list, and the
+ * {@code list} shape, where {@code items} is an array, are understood. Only the fields kept by
+ * the records are read; every other value, such as network interfaces, metadata, service accounts
+ * and scope warnings, is skipped without being materialized.
+ *
+ * @param <T> the record type decoded from each item
+ */
+public abstract class ResourceListDecoder<T> {
+  public static final ResourceListDecoder<InstanceRecord> INSTANCES =
+      new ResourceListDecoder<InstanceRecord>("instances",
+          "selfLink,name,zone,status,description,tags/items") {
+        @Override
+        protected InstanceRecord readItem(JsonParser parser) throws IOException {
+          String selfLink = null;
+          String name = null;
+          String zone = null;
+          String status = null;
+          String description = null;
+          String machineType = null;
+          long creationTimeMillis = 0L;
+          List<String> tags = null;
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("selfLink".equals(field)) {
+              selfLink = readString(parser);
+            } else if ("name".equals(field)) {
+              name = readString(parser);
+            } else if ("zone".equals(field)) {
+              zone = readName(parser);
+            } else if ("status".equals(field)) {
+              status = readString(parser);
+            } else if ("description".equals(field)) {
+              description = readString(parser);
+            } else if ("machineType".equals(field)) {
+              machineType = readName(parser);
+            } else if ("creationTimestamp".equals(field)) {
+              creationTimeMillis = readTimeMillis(parser);
+            } else if ("tags".equals(field)) {
+              tags = readTags(parser);
+            } else {
+              parser.skipChildren();
+            }
+          }
+          return new InstanceRecord(selfLink, name, zone, status, description, machineType,
+              creationTimeMillis, tags);
+        }
+      };
+
+  public static final ResourceListDecoder<DiskRecord> DISKS =
+      new ResourceListDecoder<DiskRecord>("disks",
+          "selfLink,name,zone,status,description") {
+        @Override
+        protected DiskRecord readItem(JsonParser parser) throws IOException {
+          String selfLink = null;
+          String name = null;
+          String zone = null;
+          String status = null;
+          String description = null;
+          long sizeGb = 0L;
+          long creationTimeMillis = 0L;
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("selfLink".equals(field)) {
+              selfLink = readString(parser);
+            } else if ("name".equals(field)) {
+              name = readString(parser);
+            } else if ("zone".equals(field)) {
+              zone = readName(parser);
+            } else if ("status".equals(field)) {
+              status = readString(parser);
+            } else if ("description".equals(field)) {
+              description = readString(parser);
+            } else if ("sizeGb".equals(field)) {
+              sizeGb = readLong(parser);
+            } else if ("creationTimestamp".equals(field)) {
+              creationTimeMillis = readTimeMillis(parser);
+            } else {
+              parser.skipChildren();
+            }
+          }
+          return new DiskRecord(selfLink, name, zone, status, description, sizeGb,
+              creationTimeMillis);
+        }
+      };
+
+  /**
+   * The records of one response page along with the token of the next page, if any.
+   */
+  public static class Page<T> {
+    public final List<T> items;
+    public final String nextPageToken;
+
+    public Page(List<T> items, String nextPageToken) {
+      this.items = items;
+      this.nextPageToken = nextPageToken;
+    }
+  }
+
+  /**
+   * Key of the resource array inside a scoped list of an aggregated response.
+   */
+  private final String mScopedListKey;
+  /**
+   * Fields of a resource displayed or searched by the list screen, in partial response syntax.
+   * The remaining fields read by {@link #readItem(JsonParser)} are only present in full resources.
+   */
+  private final String mItemFields;
+
+  private ResourceListDecoder(String scopedListKey, String itemFields) {
+    mScopedListKey = scopedListKey;
+    mItemFields = itemFields;
+  }
+
+  /**
+   * The partial response field mask of a list request holding what the list screen needs, so the
+   * server leaves out everything else (http://goo.gl/SEOu5). The detail screen fetches the full
+   * resource.
+   *
+   * @param aggregated whether the mask is for an {@code aggregatedList} rather than a
+   *     {@code list} request
+   */
+  public String getFieldMask(boolean aggregated) {
+    return (aggregated ? "items/*/" + mScopedListKey : "items") + "(" + mItemFields
+        + "),nextPageToken";
+  }
+
+  /**
+   * Decode an unparsed list response and release its connection.
+   */
+  public Page<T> decode(HttpResponse response) throws IOException {
+    try {
+      JsonFactory jsonFactory = AppUtils.getJsonFactory();
+      return decode(jsonFactory.createJsonParser(ComputeTransports.getContent(response),
+          response.getContentCharset()));
+    } finally {
+      response.disconnect();
+    }
+  }
+
+  /**
+   * Decode a list response in a single pass and close the parser.
+   */
+  public Page<T> decode(JsonParser parser) throws IOException {
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Resource list response is not a JSON object");
+      }
+
+      List<T> items = Lists.newArrayList();
+      String nextPageToken = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("items".equals(field) && value == JsonToken.START_ARRAY) {
+          readItems(parser, items);
+        } else if ("items".equals(field) && value == JsonToken.START_OBJECT) {
+          readScopedLists(parser, items);
+        } else if ("nextPageToken".equals(field)) {
+          nextPageToken = readString(parser);
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return new Page<T>(items, nextPageToken);
+    } finally {
+      parser.close();
+    }
+  }
+
+  /**
+   * Read a single resource object; the parser is positioned on its {@code START_OBJECT} and must be
+   * left on its {@code END_OBJECT}.
+   */
+  protected abstract T readItem(JsonParser parser) throws IOException;
+
+  private void readItems(JsonParser parser, List<T> items) throws IOException {
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      items.add(readItem(parser));
+    }
+  }
+
+  private void readScopedLists(JsonParser parser, List<T> items) throws IOException {
+    // Each field is a scope, such as "zones/us-central1-a", holding a scoped list.
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+        continue;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (mScopedListKey.equals(field) && value == JsonToken.START_ARRAY) {
+          readItems(parser, items);
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+  }
+
+  private static String readString(JsonParser parser) throws IOException {
+    return (parser.getCurrentToken() == JsonToken.VALUE_NULL) ? null : parser.getText();
+  }
+
+  /**
+   * Read an RFC 3339 timestamp as milliseconds since the epoch, or 0 if it is missing or invalid.
+   */
+  private static long readTimeMillis(JsonParser parser) throws IOException {
+    return Rfc3339.parse(readString(parser), 0L);
+  }
+
+  /**
+   * Read a self link and keep only the resource name at its end.
+   */
+  private static String readName(JsonParser parser) throws IOException {
+    String selfLink = readString(parser);
+    return (selfLink == null) ? null : SelfLinks.getName(selfLink);
+  }
+
+  /**
+   * Read a 64 bit integer, which the API encodes as a JSON string.
+   */
+  private static long readLong(JsonParser parser) throws IOException {
+    String value = readString(parser);
+    if (value == null) {
+      return 0L;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid integer " + value);
+    }
+  }
+
+  private static List<String> readTags(JsonParser parser) throws IOException {
+    List<String> tags = null;
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if ("items".equals(field) && value == JsonToken.START_ARRAY) {
+        tags = Lists.newArrayList();
+        while (parser.nextToken() == JsonToken.VALUE_STRING) {
+          tags.add(parser.getText());
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return tags;
+  }
+}
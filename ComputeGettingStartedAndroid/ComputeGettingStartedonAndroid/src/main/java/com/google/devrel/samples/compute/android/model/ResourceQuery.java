@@ -0,0 +1,211 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.model;
+
+import com.google.common.base.Objects;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Restricts the Instances and Disks listed: by status, by a regular expression matching the whole
+ * name, and by Zone. Unset predicates match everything.
+ *
+ * The query is compiled for the list requests as far as the API can express it. The Zone selects
+ * the per-zone {@code list} request of that Zone. The API accepts a single {@code filter}
+ * expression, so the name predicate is sent as the filter when set and the status predicate
+ * otherwise; whatever is not sent is checked on the device by {@link #matchesInstance} and
+ * {@link #matchesDisk}.
+ *
+ * Immutable.
+ */
+public final class ResourceQuery {
+  /**
+   * The query matching every resource.
+   */
+  public static final ResourceQuery ALL = new ResourceQuery(null, null, null);
+
+  private static final String STATUS_QUALIFIER = "status:";
+  private static final String NAME_QUALIFIER = "name:";
+  private static final String ZONE_QUALIFIER = "zone:";
+
+  /**
+   * Status values are upper case words such as {@code RUNNING}.
+   */
+  private static final Pattern STATUS_FORMAT = Pattern.compile("[A-Z_]+");
+
+  /**
+   * Upper case status, or {@code null}.
+   */
+  public final String status;
+  /**
+   * Regular expression the whole name must match, or {@code null}.
+   */
+  public final String namePattern;
+  /**
+   * Zone name, or {@code null}.
+   */
+  public final String zone;
+
+  private final Pattern mNameRegex;
+  /**
+   * Whether the name predicate, rather than the status predicate, is sent as the filter.
+   */
+  private final boolean mFiltersByName;
+  private final String mFilter;
+
+  private ResourceQuery(String status, String namePattern, String zone) {
+    this.status = status;
+    this.namePattern = namePattern;
+    this.zone = zone;
+    mNameRegex = (namePattern == null) ? null : Pattern.compile(namePattern);
+    // A filter expression has the form "<field> eq <regular expression>", where the regular
+    // expression must match the whole field value; white space cannot be sent.
+    mFiltersByName = namePattern != null && !namePattern.matches(".*\\s.*");
+    if (mFiltersByName) {
+      mFilter = "name eq " + namePattern;
+    } else if (status != null) {
+      mFilter = "status eq " + status;
+    } else {
+      mFilter = null;
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException if {@code status} is not a status value
+   */
+  public ResourceQuery withStatus(String status) {
+    if (status != null) {
+      status = status.toUpperCase(Locale.US);
+      if (!STATUS_FORMAT.matcher(status).matches()) {
+        throw new IllegalArgumentException("Invalid status " + status);
+      }
+    }
+    return new ResourceQuery(status, namePattern, zone);
+  }
+
+  /**
+   * @throws PatternSyntaxException if {@code namePattern} is not a valid regular expression
+   */
+  public ResourceQuery withNamePattern(String namePattern) {
+    return new ResourceQuery(status, namePattern, zone);
+  }
+
+  public ResourceQuery withZone(String zone) {
+    return new ResourceQuery(status, namePattern, zone);
+  }
+
+  /**
+   * Build a query from the {@code status:}, {@code name:} and {@code zone:} terms of a filter
+   * typed by the user, such as {@code "status:running name:web-.* frontend"}. Other terms are
+   * ignored; see {@link #stripQualifiers(String)}.
+   *
+   * @throws IllegalArgumentException if a status or name term is not valid
+   */
+  public static ResourceQuery parse(String text) {
+    ResourceQuery query = ALL;
+    for (String term : text.trim().split("\\s+")) {
+      if (term.startsWith(STATUS_QUALIFIER) && term.length() > STATUS_QUALIFIER.length()) {
+        query = query.withStatus(term.substring(STATUS_QUALIFIER.length()));
+      } else if (term.startsWith(NAME_QUALIFIER) && term.length() > NAME_QUALIFIER.length()) {
+        query = query.withNamePattern(term.substring(NAME_QUALIFIER.length()));
+      } else if (term.startsWith(ZONE_QUALIFIER) && term.length() > ZONE_QUALIFIER.length()) {
+        query = query.withZone(term.substring(ZONE_QUALIFIER.length()));
+      }
+    }
+    return query;
+  }
+
+  /**
+   * The terms of a filter typed by the user that are not understood by {@link #parse(String)}.
+   */
+  public static String stripQualifiers(String text) {
+    StringBuilder freeText = new StringBuilder();
+    for (String term : text.trim().split("\\s+")) {
+      if (!term.startsWith(STATUS_QUALIFIER) && !term.startsWith(NAME_QUALIFIER)
+          && !term.startsWith(ZONE_QUALIFIER)) {
+        if (freeText.length() > 0) {
+          freeText.append(' ');
+        }
+        freeText.append(term);
+      }
+    }
+    return freeText.toString();
+  }
+
+  /**
+   * Whether the query matches every resource.
+   */
+  public boolean isEmpty() {
+    return status == null && namePattern == null && zone == null;
+  }
+
+  /**
+   * The {@code filter} expression of the list requests, or {@code null} for none.
+   */
+  public String getFilter() {
+    return mFilter;
+  }
+
+  /**
+   * Whether an Instance returned by the list requests also matches the predicates that were not
+   * sent with them.
+   */
+  public boolean matchesInstance(InstanceRecord instance) {
+    return matchesOnDevice(instance.name, instance.status, instance.zone);
+  }
+
+  /**
+   * Whether a Disk returned by the list requests also matches the predicates that were not sent
+   * with them.
+   */
+  public boolean matchesDisk(DiskRecord disk) {
+    return matchesOnDevice(disk.name, disk.status, disk.zone);
+  }
+
+  private boolean matchesOnDevice(String name, String status, String zone) {
+    if (this.zone != null && !this.zone.equals(zone)) {
+      // Only happens for aggregated listings, which are not used while a Zone is set.
+      return false;
+    }
+    if (mFiltersByName) {
+      return this.status == null || this.status.equals(status);
+    }
+    // The status, if any, was sent as the filter.
+    return mNameRegex == null || (name != null && mNameRegex.matcher(name).matches());
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (!(object instanceof ResourceQuery)) {
+      return false;
+    }
+    ResourceQuery other = (ResourceQuery) object;
+    return Objects.equal(status, other.status) && Objects.equal(namePattern, other.namePattern)
+        && Objects.equal(zone, other.zone);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(status, namePattern, zone);
+  }
+
+  @Override
+  public String toString() {
+    return "status=" + status + ", name=" + namePattern + ", zone=" + zone;
+  }
+}
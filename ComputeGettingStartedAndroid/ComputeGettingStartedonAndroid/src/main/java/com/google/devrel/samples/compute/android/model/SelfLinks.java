@@ -0,0 +1,35 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.model;
+
+/**
+ * Reads the parts of Google Compute Engine self links, such as
+ * {@code https://www.googleapis.com/compute/v1/projects/p/zones/us-central1-a}. Kept free of
+ * framework classes so that the decoders using it also run off the device.
+ */
+public final class SelfLinks {
+  private SelfLinks() {
+  }
+
+  /**
+   * Retrieve the last segment of a self link, or {@code null} if the link ends with a slash.
+   */
+  public static String getName(String selfLink) {
+    // Called for every decoded resource, so avoid compiling a regular expression each time.
+    int nameStart = selfLink.lastIndexOf('/') + 1;
+    return (nameStart < selfLink.length()) ? selfLink.substring(nameStart) : null;
+  }
+}
@@ -0,0 +1,38 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.model;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Shares the strings that repeat across many resources, such as Zone names, machine types and
+ * statuses, so each distinct value is held in memory once. Values are weakly referenced and are
+ * released once no resource uses them.
+ */
+public final class StringPool {
+  private static final Interner<String> INTERNER = Interners.newWeakInterner();
+
+  private StringPool() {
+  }
+
+  /**
+   * Return the shared instance of {@code value}; {@code null} is returned as is.
+   */
+  public static String intern(String value) {
+    return (value == null) ? null : INTERNER.intern(value);
+  }
+}
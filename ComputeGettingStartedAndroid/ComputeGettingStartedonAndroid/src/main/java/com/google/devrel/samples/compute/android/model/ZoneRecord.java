@@ -0,0 +1,69 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.model;
+
+import com.google.api.services.compute.model.Zone;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.samples.compute.android.Rfc3339;
+
+import java.util.List;
+
+/**
+ * The fields of a Google Compute Engine Zone displayed by the application.
+ */
+public final class ZoneRecord {
+  public final String selfLink;
+  public final String name;
+  public final String status;
+  public final List<MaintenanceWindow> maintenanceWindows;
+
+  /**
+   * A scheduled maintenance window of a Zone; times are milliseconds since the epoch.
+   */
+  public static final class MaintenanceWindow {
+    public final long beginTimeMillis;
+    public final long endTimeMillis;
+
+    public MaintenanceWindow(long beginTimeMillis, long endTimeMillis) {
+      this.beginTimeMillis = beginTimeMillis;
+      this.endTimeMillis = endTimeMillis;
+    }
+  }
+
+  public ZoneRecord(String selfLink, String name, String status,
+      List<MaintenanceWindow> maintenanceWindows) {
+    this.selfLink = selfLink;
+    this.name = StringPool.intern(name);
+    this.status = StringPool.intern(status);
+    this.maintenanceWindows = (maintenanceWindows == null)
+        ? ImmutableList.<MaintenanceWindow>of() : ImmutableList.copyOf(maintenanceWindows);
+  }
+
+  /**
+   * Project the displayed fields of an API model object.
+   */
+  public static ZoneRecord fromZone(Zone zone) {
+    ImmutableList.Builder<MaintenanceWindow> maintenanceWindows = ImmutableList.builder();
+    if (zone.getMaintenanceWindows() != null) {
+      for (Zone.MaintenanceWindows window : zone.getMaintenanceWindows()) {
+        maintenanceWindows.add(new MaintenanceWindow(Rfc3339.parse(window.getBeginTime(), 0L),
+            Rfc3339.parse(window.getEndTime(), 0L)));
+      }
+    }
+    return new ZoneRecord(zone.getSelfLink(), zone.getName(), zone.getStatus(),
+        maintenanceWindows.build());
+  }
+}
@@ -0,0 +1,278 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.tasks;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.ComputeRequest;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.Lists;
+import com.google.devrel.samples.compute.android.AppUtils;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Deletes many Instances and Disks at once. Delete requests are submitted in the
+ * {@link TaskLane#OPERATIONS} lane with at most {@code concurrency} HTTP requests in flight; when
+ * batching is enabled each of those requests is an HTTP batch of up to {@code batchSize} deletes.
+ * Requests wait for their turn in the pipeline rather than in the lane, so a concurrency below
+ * the thread limit of the lane leaves threads for deletes started from the detail screen.
+ * Submitted operations are followed by the {@link OperationTracker} and their outcomes are
+ * aggregated into a single {@link Progress}.
+ */
+public class BulkOperationPipeline {
+  private static final String LOG_TAG = "BulkOperationPipeline";
+
+  /**
+   * Default number of HTTP requests in flight at once; one below the thread limit of
+   * {@link TaskLane#OPERATIONS}.
+   */
+  public static final int DEFAULT_CONCURRENCY = 3;
+  /**
+   * Default number of deletes combined into one HTTP batch request.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 20;
+
+  /**
+   * Aggregated state of a bulk operation.
+   */
+  public static class Progress {
+    public final int total;
+    /**
+     * Operations accepted by the server.
+     */
+    public final int submitted;
+    public final int succeeded;
+    /**
+     * Resources that could not be submitted or whose operation failed.
+     */
+    public final int failed;
+
+    Progress(int total, int submitted, int succeeded, int failed) {
+      this.total = total;
+      this.submitted = submitted;
+      this.succeeded = succeeded;
+      this.failed = failed;
+    }
+
+    public boolean isFinished() {
+      return succeeded + failed >= total;
+    }
+  }
+
+  /**
+   * Receives aggregated progress on the main thread.
+   */
+  public interface Listener {
+    public void onProgress(Progress progress);
+
+    /**
+     * Called once for every resource whose delete operation completed successfully.
+     */
+    public void onResourceDeleted(DummyItem item);
+  }
+
+  private final Compute mCompute;
+  private final String mProjectId;
+  private final int mBatchSize;
+  private final Listener mListener;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  /**
+   * One permit per HTTP request allowed in flight.
+   */
+  private final Semaphore mRequestPermits;
+  /**
+   * Chunks of deletes waiting for a permit, guarded by {@code this}.
+   */
+  private final LinkedList<List<DummyItem>> mPendingChunks = Lists.newLinkedList();
+
+  /**
+   * Counters guarded by {@code this}.
+   */
+  private int mTotal;
+  private int mSubmitted;
+  private int mSucceeded;
+  private int mFailed;
+
+  /**
+   * @param concurrency maximum number of HTTP requests in flight
+   * @param batchSize deletes per HTTP batch request; 1 sends every delete on its own
+   */
+  public BulkOperationPipeline(Compute compute, String projectId, int concurrency, int batchSize,
+      Listener listener) {
+    if (concurrency < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("Concurrency and batch size must be positive");
+    }
+    mCompute = compute;
+    mProjectId = projectId;
+    mRequestPermits = new Semaphore(concurrency);
+    mBatchSize = batchSize;
+    mListener = listener;
+  }
+
+  /**
+   * Delete every Instance and Disk in {@code items}; other items are ignored. Returns immediately.
+   */
+  public void deleteAll(List<? extends DummyItem> items) {
+    List<DummyItem> deletableItems = Lists.newArrayList();
+    for (DummyItem item : items) {
+      if (item instanceof InstanceItem || item instanceof DiskItem) {
+        deletableItems.add(item);
+      }
+    }
+
+    synchronized (this) {
+      mTotal += deletableItems.size();
+      mPendingChunks.addAll(Lists.partition(deletableItems, mBatchSize));
+    }
+    publishProgress();
+    submitPendingChunks();
+  }
+
+  /**
+   * Hand pending chunks to the lane while permits are left. A chunk returns its permit once it is
+   * submitted, which lets the next chunk go.
+   */
+  private void submitPendingChunks() {
+    while (true) {
+      final List<DummyItem> chunk;
+      synchronized (this) {
+        if (mPendingChunks.isEmpty() || !mRequestPermits.tryAcquire()) {
+          return;
+        }
+        chunk = mPendingChunks.removeFirst();
+      }
+      TaskLane.OPERATIONS.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (chunk.size() == 1) {
+              submit(chunk.get(0));
+            } else {
+              submitBatch(chunk);
+            }
+          } finally {
+            mRequestPermits.release();
+            submitPendingChunks();
+          }
+        }
+      });
+    }
+  }
+
+  private void submit(DummyItem item) {
+    try {
+      Operation operation = buildDeleteRequest(item).execute();
+      onSubmitted(item, operation);
+    } catch (IOException e) {
+      onFailed(item, e);
+    }
+  }
+
+  private void submitBatch(List<DummyItem> items) {
+    BatchRequest batch = mCompute.batch();
+    try {
+      for (final DummyItem item : items) {
+        buildDeleteRequest(item).queue(batch, new JsonBatchCallback<Operation>() {
+          @Override
+          public void onSuccess(Operation operation, HttpHeaders responseHeaders) {
+            onSubmitted(item, operation);
+          }
+
+          @Override
+          public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+            onFailed(item, new IOException(error.getMessage()));
+          }
+        });
+      }
+      batch.execute();
+    } catch (IOException e) {
+      for (DummyItem item : items) {
+        onFailed(item, e);
+      }
+    }
+  }
+
+  private ComputeRequest<Operation> buildDeleteRequest(DummyItem item) throws IOException {
+    if (item instanceof InstanceItem) {
+      InstanceItem instanceItem = (InstanceItem) item;
+      return mCompute.instances().delete(mProjectId, instanceItem.instance.zone,
+          instanceItem.instance.name);
+    } else {
+      DiskItem diskItem = (DiskItem) item;
+      return mCompute.disks().delete(mProjectId, diskItem.disk.zone, diskItem.disk.name);
+    }
+  }
+
+  private void onSubmitted(final DummyItem item, Operation operation) {
+    synchronized (this) {
+      mSubmitted++;
+    }
+    publishProgress();
+
+    OperationTracker.getInstance().track(mCompute, mProjectId,
+        AppUtils.getNameFromSelfLink(operation.getZone()), operation.getName(),
+        new OperationTracker.Listener() {
+          @Override
+          public void onOperationCompleted(Operation operation) {
+            synchronized (BulkOperationPipeline.this) {
+              mSucceeded++;
+            }
+            mListener.onResourceDeleted(item);
+            publishProgress();
+          }
+
+          @Override
+          public void onOperationFailed(Operation operation, Exception error) {
+            onFailed(item, error);
+          }
+        });
+  }
+
+  private void onFailed(DummyItem item, Exception error) {
+    Log.w(LOG_TAG, "Delete of " + item.id + " failed", error);
+    synchronized (this) {
+      mFailed++;
+    }
+    publishProgress();
+  }
+
+  private void publishProgress() {
+    final Progress progress;
+    synchronized (this) {
+      progress = new Progress(mTotal, mSubmitted, mSucceeded, mFailed);
+    }
+    mMainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        mListener.onProgress(progress);
+      }
+    });
+  }
+}
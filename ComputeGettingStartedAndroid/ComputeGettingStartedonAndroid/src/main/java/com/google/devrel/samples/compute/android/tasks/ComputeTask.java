@@ -1,12 +1,170 @@
 package com.google.devrel.samples.compute.android.tasks;
 
+import android.app.Activity;
 import android.os.AsyncTask;
 
+import com.google.common.collect.Lists;
+import com.google.devrel.samples.compute.android.AppMetrics;
+import com.google.devrel.samples.compute.android.CancellationScope;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
 /**
- * Base class for {@code AsyncTask}s that work with the Google Compute Engine API.
+ * Base class for {@code AsyncTask}s that work with the Google Compute Engine API. Tasks run in
+ * the {@link TaskLane} of their kind of work; start them with {@link #executeInLane} rather than
+ * {@code execute}, which queues every task of the process on a single thread.
+ *
+ * A task may be bound to the Activity it reports to. The Activity is only held weakly and is
+ * handed out by {@link #getOwner()} until it is destroyed; owners call
+ * {@link #onOwnerDestroyed(Activity)} from {@code onDestroy}, which also aborts their tasks unless
+ * {@link #isCancelledWithOwner()} says otherwise. Cancel tasks with {@link #abort()}, which also
+ * aborts the HTTP requests of the task, see {@link CancellationScope}.
  *
  * @author paulrashidi@google.com (Paul Rashidi)
  */
 public abstract class ComputeTask<Params, Progress, Result> extends
     AsyncTask<Params, Progress, Result>  {
+
+  /**
+   * Tasks aborted because their owner was destroyed.
+   */
+  public static final String METRIC_ABORTED_WITH_OWNER = "tasksAbortedWithOwner";
+  /**
+   * Tasks whose callbacks found their owner destroyed and skipped it, counted once per task. Each
+   * of them used to touch, and keep reachable, an Activity that was already gone.
+   */
+  public static final String METRIC_LEAKED_OWNERS_AVOIDED = "leakedOwnersAvoided";
+
+  /**
+   * Bound tasks by owner. Main thread only.
+   */
+  private static final Map<Activity, List<ComputeTask<?, ?, ?>>> TASKS_BY_OWNER =
+      new WeakHashMap<Activity, List<ComputeTask<?, ?, ?>>>();
+
+  private final CancellationScope mScope = new CancellationScope();
+  private final WeakReference<Activity> mOwner;
+  private volatile boolean mOwnerDestroyed = false;
+  /**
+   * Whether {@link #METRIC_LEAKED_OWNERS_AVOIDED} already counts this task.
+   */
+  private volatile boolean mLeakedOwnerCounted = false;
+
+  /**
+   * A task bound to no Activity.
+   */
+  protected ComputeTask() {
+    mOwner = null;
+  }
+
+  /**
+   * A task reporting to {@code owner}. Must be created on the main thread.
+   */
+  protected ComputeTask(Activity owner) {
+    mOwner = new WeakReference<Activity>(owner);
+    List<ComputeTask<?, ?, ?>> tasks = TASKS_BY_OWNER.get(owner);
+    if (tasks == null) {
+      tasks = Lists.newArrayList();
+      TASKS_BY_OWNER.put(owner, tasks);
+    }
+    // Drop the tasks that finished since the owner last bound one.
+    for (Iterator<ComputeTask<?, ?, ?>> iterator = tasks.iterator(); iterator.hasNext(); ) {
+      if (iterator.next().getStatus() == Status.FINISHED) {
+        iterator.remove();
+      }
+    }
+    tasks.add(this);
+  }
+
+  /**
+   * Detach every task bound to {@code owner}, and abort those that are cancelled with their
+   * owner. Call from the {@code onDestroy} of the owner.
+   */
+  public static void onOwnerDestroyed(Activity owner) {
+    List<ComputeTask<?, ?, ?>> tasks = TASKS_BY_OWNER.remove(owner);
+    if (tasks == null) {
+      return;
+    }
+    for (ComputeTask<?, ?, ?> task : tasks) {
+      task.mOwnerDestroyed = true;
+      if (task.getStatus() != Status.FINISHED && task.isCancelledWithOwner()) {
+        task.abort();
+        AppMetrics.increment(METRIC_ABORTED_WITH_OWNER, 1L);
+      }
+    }
+  }
+
+  /**
+   * The lane the task runs in.
+   */
+  protected abstract TaskLane getLane();
+
+  /**
+   * Whether the task is aborted when its owner is destroyed. Tasks whose work must complete
+   * regardless, such as submitting an operation, return {@code false} and report without their
+   * owner.
+   */
+  protected boolean isCancelledWithOwner() {
+    return true;
+  }
+
+  /**
+   * The Activity the task reports to, or {@code null} if it is not bound to one or the Activity
+   * was destroyed.
+   */
+  protected Activity getOwner() {
+    if (mOwner == null) {
+      return null;
+    }
+    Activity owner = mOwner.get();
+    if (owner == null || mOwnerDestroyed) {
+      if (!mLeakedOwnerCounted) {
+        mLeakedOwnerCounted = true;
+        AppMetrics.increment(METRIC_LEAKED_OWNERS_AVOIDED, 1L);
+      }
+      return null;
+    }
+    return owner;
+  }
+
+  /**
+   * The cancellation scope of the HTTP requests of the task. {@code doInBackground} works for it;
+   * threads working on behalf of the task enter it.
+   */
+  protected CancellationScope getCancellationScope() {
+    return mScope;
+  }
+
+  /**
+   * Cancel the task, interrupting its thread and aborting its HTTP requests.
+   *
+   * @return {@code false} if the task could not be cancelled, typically because it has already
+   *     completed
+   */
+  public final boolean abort() {
+    mScope.cancel();
+    return cancel(true);
+  }
+
+  /**
+   * Execute the task on the executor of its lane.
+   */
+  // The parameter array is only handed on to executeOnExecutor, which takes the same Params...
+  // array, and is never stored or written to, so it cannot pollute the heap. @SafeVarargs would
+  // say so, but needs Java 7.
+  @SuppressWarnings("unchecked")
+  public final ComputeTask<Params, Progress, Result> executeInLane(Params... params) {
+    final TaskLane lane = getLane();
+    executeOnExecutor(new Executor() {
+      @Override
+      public void execute(Runnable runnable) {
+        lane.execute(mScope.wrap(runnable));
+      }
+    }, params);
+    return this;
+  }
 }
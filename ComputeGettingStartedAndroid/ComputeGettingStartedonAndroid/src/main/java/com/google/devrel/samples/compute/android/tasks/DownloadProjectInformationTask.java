@@ -1,229 +1,431 @@
 package com.google.devrel.samples.compute.android.tasks;
 
-import android.app.Activity;
+import android.content.Context;
+import android.database.DataSetObservable;
+import android.os.SystemClock;
 import android.util.Log;
-import android.widget.ArrayAdapter;
 import android.widget.Toast;
 
 import com.google.api.services.compute.Compute;
-import com.google.api.services.compute.Compute.Disks;
-import com.google.api.services.compute.Compute.Instances.AggregatedList;
-import com.google.api.services.compute.Compute.Zones;
-import com.google.api.services.compute.model.Disk;
-import com.google.api.services.compute.model.DiskAggregatedList;
-import com.google.api.services.compute.model.DisksScopedList;
-import com.google.api.services.compute.model.Instance;
-import com.google.api.services.compute.model.InstanceAggregatedList;
-import com.google.api.services.compute.model.InstancesScopedList;
-import com.google.api.services.compute.model.Zone;
-import com.google.api.services.compute.model.ZoneList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.devrel.samples.compute.android.AppMetrics;
 import com.google.devrel.samples.compute.android.AppUtils;
 import com.google.devrel.samples.compute.android.BuildConfig;
+import com.google.devrel.samples.compute.android.R;
+import com.google.devrel.samples.compute.android.data.ResourceStore;
 import com.google.devrel.samples.compute.android.dummy.DummyContent;
 import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
-import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyHeader;
 import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
 import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.Section;
 import com.google.devrel.samples.compute.android.dummy.DummyContent.ZoneItem;
+import com.google.devrel.samples.compute.android.dummy.ResourceSnapshot;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+import com.google.devrel.samples.compute.android.model.ResourceQuery;
+import com.google.devrel.samples.compute.android.model.ZoneRecord;
+import com.google.devrel.samples.compute.android.tasks.ProjectFetchEngine.PageCursor;
+import com.google.devrel.samples.compute.android.tasks.ProjectFetchEngine.Stream;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Download Zone and Instance lists for a Google Compute Engine project id in a background task.
- * Post data to the static {@code DummyContent} data store once downloaded.
+ * Download Zone, Instance and Disk lists for a Google Compute Engine project id in a background
+ * task using a {@link ProjectFetchEngine}. Post data to the static {@code DummyContent} data store
+ * page by page as it is downloaded, or all at once when incremental delivery is disabled. Only the
+ * first pages of every Instance and Disk listing are downloaded; they are handed to a
+ * {@link ResourcePager}, which downloads the remaining pages as the list is scrolled.
  *
- * TODO(developer): Replace {@code DummyContent} with a {@code ContentProvider} implementation.
+ * The task holds no reference to an Activity or adapter, so it may outlive the screen that started
+ * it; see {@link ProjectLoader}. Changes to the displayed content are announced through a
+ * {@code DataSetObservable}.
+ *
+ * Downloaded resources are also written to the {@code ResourceProvider}. Resources already on
+ * display, typically read from the provider, stay visible until the first fresh page of their
+ * section arrives.
+ *
+ * A resource type that fails to download does not fail the others: the pages already downloaded
+ * are displayed and the header of its section is marked as failed. The failed types are available
+ * from {@link #getFailedStreams()} so that a later task can download only those, see
+ * {@link #setStreams(Set)}. A partial download is not persisted.
  *
  * @author paulrashidi@google.com (Paul Rashidi)
  */
-public class DownloadProjectInformationTask extends ComputeTask<Object, Integer, List<DummyItem>> {
+public class DownloadProjectInformationTask extends
+    ComputeTask<Object, DownloadProjectInformationTask.ResourcePage, List<DummyItem>> {
   private static String LOG_TAG = "ProjectInfoTask";
 
-  private final Activity mParentActivity;
+  private final Context mContext;
   private final String mEmailAccount;
   private final String mProjectId;
-  private final ArrayAdapter<DummyItem> mResourcesAdapter;
+  private final DataSetObservable mContentObservable;
+  private final ResourcePager mPager;
+  private final boolean mIncrementalDelivery;
+  private ResourceQuery mQuery = ResourceQuery.ALL;
+  private Set<Stream> mStreams = EnumSet.allOf(Stream.class);
+
+  /**
+   * Streams that failed; written by the background thread, read once the task completed.
+   */
+  private final Set<Stream> mFailedStreams = EnumSet.noneOf(Stream.class);
+
+  /**
+   * Time the download started; used to measure the time to the first displayed resource row.
+   */
+  private long mStartMillis;
+  private boolean mFirstRowDelivered = false;
+
+  /**
+   * Downloaded pages, published at once when not delivering incrementally.
+   */
+  private final List<ResourcePage> mDownloadedPages = Lists.newArrayList();
+
+  /**
+   * A page of downloaded resources published to the UI thread when delivering incrementally.
+   */
+  public static class ResourcePage {
+    public final Section section;
+    public final List<DummyItem> items;
+    /**
+     * Cursor the page was requested with; {@code null} for Zones.
+     */
+    public final PageCursor cursor;
+    /**
+     * Cursor of the next page if the listing was stopped after this page, or {@code null}.
+     */
+    public final PageCursor continuation;
+    /**
+     * Whether the page marks the failure of its section rather than holding resources.
+     */
+    public final boolean failed;
+
+    public ResourcePage(Section section, List<DummyItem> items, PageCursor cursor,
+        PageCursor continuation) {
+      this(section, items, cursor, continuation, false);
+    }
+
+    private ResourcePage(Section section, List<DummyItem> items, PageCursor cursor,
+        PageCursor continuation, boolean failed) {
+      this.section = section;
+      this.items = items;
+      this.cursor = cursor;
+      this.continuation = continuation;
+      this.failed = failed;
+    }
+
+    /**
+     * A page marking the failure of a section.
+     */
+    public static ResourcePage failed(Section section) {
+      return new ResourcePage(section, Collections.<DummyItem>emptyList(), null, null, true);
+    }
+  }
+
+  public DownloadProjectInformationTask(Context context, String emailAccount, String projectId,
+      DataSetObservable contentObservable, ResourcePager pager) {
+    this(context, emailAccount, projectId, contentObservable, pager,
+        AppUtils.INCREMENTAL_RESOURCE_DELIVERY);
+  }
 
-  public DownloadProjectInformationTask(Activity parentActivity, String emailAccount,
-      String projectId, ArrayAdapter<DummyItem> resourcesAdapter) {
-    mParentActivity = parentActivity;
+  /**
+   * @param contentObservable notified whenever the displayed content changed
+   * @param incrementalDelivery whether to display each page as soon as it is downloaded rather
+   *     than all resources at once after the download completes
+   */
+  public DownloadProjectInformationTask(Context context, String emailAccount, String projectId,
+      DataSetObservable contentObservable, ResourcePager pager, boolean incrementalDelivery) {
+    mContext = context.getApplicationContext();
     mEmailAccount = emailAccount;
     mProjectId = projectId;
-    mResourcesAdapter = resourcesAdapter;
+    mContentObservable = contentObservable;
+    mPager = pager;
+    mIncrementalDelivery = incrementalDelivery;
   }
 
-  protected List<DummyItem> doInBackground(Object... unused) {
-    Log.i(LOG_TAG, "Background task started.");
+  /**
+   * Download only the Instances and Disks matching {@code query}. Defaults to
+   * {@link ResourceQuery#ALL}. Set the same query on the pager.
+   */
+  public void setQuery(ResourceQuery query) {
+    mQuery = query;
+  }
 
-    // Maintain a hard cap on the number of resources we will report on.
-    long resourceMaxLimit = AppUtils.RESOURCE_LISTING_TOTAL_LIMIT;
-    // Maintain a limit on the number of resources returned per API call.
-    long perPageResourceLimit = AppUtils.RESOURCE_LISTING_ITERATION_LIMIT;
-    // Maintain a list of resources currently in memory.
-    long resourceCount = 0L;
+  /**
+   * Download only some of the resource types, for example those that failed last time, adding
+   * their pages to those the pager already holds. Zones are always downloaded. Defaults to every
+   * type.
+   */
+  public void setStreams(Set<Stream> streams) {
+    mStreams = EnumSet.copyOf(streams);
+    mStreams.add(Stream.ZONES);
+  }
 
-    // Local storage of information we are downloading.
-    List<DummyItem> downloadedData = Lists.newArrayList();
-    Compute compute = AppUtils.getComputeServiceObject(mParentActivity, mEmailAccount);
+  /**
+   * Resource types that failed to download. Valid once the task has completed.
+   */
+  public Set<Stream> getFailedStreams() {
+    return Collections.unmodifiableSet(mFailedStreams);
+  }
 
-    // Collect a list of Zones available for this Project.
-    HashMap<String, ZoneItem> zoneMap = Maps.newHashMap();
-    try {
-      // Create Zone List Operation.
-      Zones.List zoneListCommand = compute.zones().list(mProjectId);
+  /**
+   * The section of the resource list displaying a stream.
+   */
+  public static Section getSection(Stream stream) {
+    switch (stream) {
+      case INSTANCES:
+        return Section.INSTANCES;
+      case DISKS:
+        return Section.DISKS;
+      default:
+        return Section.ZONES;
+    }
+  }
 
-      // Limit response to only the fields needed to save bandwidth (http://goo.gl/SEOu5).
-      zoneListCommand.setFields("items(name,id,maintenanceWindows,selfLink,status)");
+  @Override
+  protected TaskLane getLane() {
+    return TaskLane.LIST;
+  }
 
-      // Execute the operation.
-      ZoneList zoneList = zoneListCommand.execute();
+  protected List<DummyItem> doInBackground(Object... unused) {
+    Log.i(LOG_TAG, "Background task started.");
 
-      // Load Zones into the map.
-      for (Zone zone : zoneList.getItems()) {
-        zoneMap.put(zone.getName(), new ZoneItem(zone));
-        if (BuildConfig.DEBUG) {
-          Log.v(LOG_TAG, zone.toPrettyString());
-        }
-      }
+    Compute compute = AppUtils.getComputeServiceObject(mContext, mEmailAccount);
 
-      Log.i(LOG_TAG, "Background task completed collecting Zone information.");
-
-      InstanceAggregatedList aggInstanceList;
-
-      // Create aggregated instance list operation.
-      AggregatedList aggInstanceListOperation = compute.instances().aggregatedList(mProjectId);
-      aggInstanceListOperation.setProject(mProjectId);
-
-      // Limit the response to a reasonable number of instances.
-      aggInstanceListOperation.setMaxResults(perPageResourceLimit);
-
-      // Add section header for this content.
-      downloadedData.add(new DummyHeader("Instances"));
-
-      do {
-        // Execute list operation.
-        aggInstanceList = aggInstanceListOperation.execute();
-        for (InstancesScopedList zonedScopedInstanceList : aggInstanceList.getItems().values()) {
-          if (zonedScopedInstanceList.getInstances() != null) {
-            for (Instance instance : zonedScopedInstanceList.getInstances()) {
-              if (BuildConfig.DEBUG) {
-                Log.v(LOG_TAG, instance.toPrettyString());
-              }
-              String zoneName = AppUtils.getNameFromSelfLink(instance.getZone());
-              ZoneItem zoneItem = zoneMap.get(zoneName);
-              downloadedData.add(new InstanceItem(instance, zoneItem));
-              resourceCount++;
-            }
-          }
-        }
+    // Joins downloaded pages to their Zones as they arrive.
+    ResourcePageCollector collector = new ResourcePageCollector();
 
-        // Get ready to process a second page of results if they exist.
-        if (aggInstanceList.getNextPageToken() != null) {
-          aggInstanceListOperation.setPageToken(aggInstanceList.getNextPageToken());
-        }
-      } while (aggInstanceList.getNextPageToken() != null && resourceCount < resourceMaxLimit);
+    // Download Zones, Instances and Disks concurrently. The engine works for the cancellation
+    // scope of the task, so aborting the task stops every stream.
+    ProjectFetchEngine fetchEngine = new ProjectFetchEngine(compute, mProjectId);
+    // Size the project from its last listing so large projects are listed zone by zone.
+    fetchEngine.setLargeProject(
+        AppUtils.isStoredProjectLarge(mContext, mEmailAccount, mProjectId));
+    fetchEngine.setQuery(mQuery);
+    fetchEngine.setStreams(mStreams);
+    try {
+      fetchEngine.fetch(collector);
+    } catch (InterruptedException e) {
+      Log.i(LOG_TAG, "Project information download cancelled");
+      return null;
+    }
 
-      Log.i(LOG_TAG, "Background task completed loading instance information");
+    Log.i(LOG_TAG, "Background task completed loading project information, failed streams: "
+        + mFailedStreams);
 
-      // Create aggregated instance list operation.
-      DiskAggregatedList aggDiskList;
-      Disks.AggregatedList aggDiskListOperation = compute.disks().aggregatedList(mProjectId);
-      // Limit the response to a reasonable number of instances.
-      aggDiskListOperation.setMaxResults(perPageResourceLimit);
-      aggDiskListOperation.setProject(mProjectId);
+    // Local storage of information we downloaded, in section order.
+    List<DummyItem> downloadedData = Lists.newArrayList();
+    for (Section section : Section.values()) {
+      downloadedData.add(DummyContent.getLoadedHeader(section));
+      downloadedData.addAll(collector.mSectionItems.get(section));
+    }
 
-      downloadedData.add(new DummyHeader("Disks"));
+    // Persist the resources so the next start can display them immediately. A filtered, partial or
+    // failed download only holds part of the project. Writing runs in its own lane so the list
+    // lane is free for the next download.
+    if (mQuery.isEmpty() && mStreams.size() == Stream.values().length
+        && mFailedStreams.isEmpty()) {
+      AppUtils.setStoredProjectLarge(mContext, mEmailAccount, mProjectId,
+          fetchEngine.isLargeProject());
+      final List<DummyItem> resources = downloadedData;
+      TaskLane.SYNC.execute(new Runnable() {
+        @Override
+        public void run() {
+          ResourceStore.replaceProjectResources(mContext.getContentResolver(), mEmailAccount,
+              mProjectId, resources);
+        }
+      });
+    }
 
-      do {
+    return downloadedData;
+  }
 
-        // Execute list operation.
-        aggDiskList = aggDiskListOperation.execute();
+  /**
+   * Wraps downloaded resources in {@code DummyItem}s and, when delivering incrementally, publishes
+   * every page to the UI thread.
+   */
+  private class ResourcePageCollector implements ProjectFetchEngine.PageListener {
+    private final Map<String, ZoneItem> mZoneMap = Maps.newHashMap();
+    private final Map<Section, List<DummyItem>> mSectionItems = Maps.newEnumMap(Section.class);
+
+    ResourcePageCollector() {
+      for (Section section : Section.values()) {
+        mSectionItems.put(section, Lists.<DummyItem>newArrayList());
+      }
+    }
 
+    @Override
+    public void onZones(List<ZoneRecord> zones) {
+      List<DummyItem> zoneItems = Lists.newArrayList();
+      for (ZoneRecord zone : zones) {
         if (BuildConfig.DEBUG) {
-          // Iterate through lists printing out information on a per Zone basis.
-          String scopeId = aggDiskList.getId();
-          String scopeKind = aggDiskList.getKind();
-          if (BuildConfig.DEBUG) {
-            Log.v(LOG_TAG, "Scope id: " + scopeId + " and kind: " + scopeKind);
-          }
-          for (DisksScopedList instanceScopedDiskList :
-                  aggDiskList.getItems().values()) {
-            if (instanceScopedDiskList.getDisks() != null) {
-              for (Disk disk : instanceScopedDiskList.getDisks()) {
-                if (BuildConfig.DEBUG) {
-                  Log.v(LOG_TAG, disk.toPrettyString());
-                }
-                ZoneItem zoneItem = zoneMap.get(AppUtils.getNameFromSelfLink(
-                    disk.getZone()));
-                downloadedData.add(new DiskItem(disk, zoneItem));
-                resourceCount++;
-              }
-            }
-          }
+          Log.v(LOG_TAG, zone.selfLink);
         }
+        ZoneItem zoneItem = new ZoneItem(zone);
+        mZoneMap.put(zone.name, zoneItem);
+        zoneItems.add(zoneItem);
+      }
+      collect(new ResourcePage(Section.ZONES, zoneItems, null, null));
+    }
 
-        // Get ready to process a second page of results if they exist.
-        if (aggDiskList.getNextPageToken() != null) {
-          aggDiskListOperation.setPageToken(aggDiskList.getNextPageToken());
+    @Override
+    public void onInstancePage(PageCursor cursor, List<InstanceRecord> instances,
+        PageCursor continuation) {
+      List<DummyItem> instanceItems = Lists.newArrayList();
+      for (InstanceRecord instance : instances) {
+        if (BuildConfig.DEBUG) {
+          Log.v(LOG_TAG, instance.selfLink);
         }
-      } while (aggDiskList.getNextPageToken() != null && resourceCount < resourceMaxLimit);
-    } catch (IOException e) {
-      Log.e(LOG_TAG, "Exception downloading project information", e);
-      return null;
+        ZoneItem zoneItem = mZoneMap.get(instance.zone);
+        instanceItems.add(new InstanceItem(instance, DummyContent.getZoneActivity(zoneItem)));
+      }
+      collect(new ResourcePage(Section.INSTANCES, instanceItems, cursor, continuation));
     }
 
-    Log.i(LOG_TAG, "Background task completed loading instance information");
+    @Override
+    public void onDiskPage(PageCursor cursor, List<DiskRecord> disks,
+        PageCursor continuation) {
+      List<DummyItem> diskItems = Lists.newArrayList();
+      for (DiskRecord disk : disks) {
+        if (BuildConfig.DEBUG) {
+          Log.v(LOG_TAG, disk.selfLink);
+        }
+        ZoneItem zoneItem = mZoneMap.get(disk.zone);
+        diskItems.add(new DiskItem(disk, DummyContent.getZoneActivity(zoneItem)));
+      }
+      collect(new ResourcePage(Section.DISKS, diskItems, cursor, continuation));
+    }
 
-    // Add Zones to the dummy data list.
-    // Placeholder for a section header.
-    downloadedData.add(new DummyHeader("Zones"));
-    downloadedData.addAll(zoneMap.values());
+    @Override
+    public void onStreamFailed(Stream stream, IOException e) {
+      mFailedStreams.add(stream);
+      collect(ResourcePage.failed(getSection(stream)));
+    }
 
-    return downloadedData;
+    private void collect(ResourcePage page) {
+      mSectionItems.get(page.section).addAll(page.items);
+      if (mIncrementalDelivery) {
+        publishProgress(page);
+      } else {
+        mDownloadedPages.add(page);
+      }
+    }
   }
 
   @Override
   protected void onPreExecute() {
-    // Clear data that will be loaded by this task.
-    DummyContent.clear();
+    mStartMillis = SystemClock.elapsedRealtime();
   }
 
   @Override
-  protected void onProgressUpdate(Integer... userMessagesResourceIds) {
-    super.onProgressUpdate(userMessagesResourceIds);
-
-    // Alternatively, we could have loaded DummyContent here instead of in onPostExecute() for a
-    // more responsive UI.
+  protected void onProgressUpdate(ResourcePage... resourcePages) {
+    super.onProgressUpdate(resourcePages);
 
-    if (userMessagesResourceIds==null || userMessagesResourceIds.length<1) {
+    if (resourcePages == null || resourcePages.length < 1 || isCancelled()) {
+      // Pages of a cancelled task were replaced by those of a newer load.
       return;
     }
 
-    // Select the latest message.
-    Integer userMessage = userMessagesResourceIds[userMessagesResourceIds.length-1];
+    // Display each page as soon as it has been downloaded for a more responsive UI.
+    // The first fresh page of a section replaces any stale items; only the differences to the
+    // displayed items are applied.
+    boolean changed = false;
+    for (ResourcePage resourcePage : resourcePages) {
+      if (resourcePage.failed) {
+        // Keep what the section displays and offer to retry it.
+        changed |= DummyContent.setSectionFailed(resourcePage.section, true);
+        continue;
+      }
+      if (resourcePage.section == Section.ZONES) {
+        mPager.setZones(resourcePage.items);
+        changed |= DummyContent.replaceSectionContent(Section.ZONES, resourcePage.items);
+      } else {
+        mPager.addPage(resourcePage.section, resourcePage.cursor, resourcePage.items,
+            resourcePage.continuation);
+        changed |= mPager.publish(resourcePage.section);
+      }
+      if (!mFirstRowDelivered && !resourcePage.items.isEmpty()) {
+        mFirstRowDelivered = true;
+        AppMetrics.record(AppMetrics.TIME_TO_FIRST_ROW_MILLIS,
+            SystemClock.elapsedRealtime() - mStartMillis);
+      }
+    }
 
-    // Toast.
-    Toast.makeText(mParentActivity, userMessage, Toast.LENGTH_SHORT).show();
+    // Notify the attached adapter, if any, so that {@code ListView} will update itself.
+    if (changed) {
+      mContentObservable.notifyChanged();
+    }
   }
 
   @Override
   protected void onPostExecute(List<DummyItem> result) {
     // Load data downloaded from this task.
-    if (result==null || result.size() < 1) {
+    if (result == null) {
       Log.d(LOG_TAG, "Downloaded Data result was empty");
+      Toast.makeText(mContext, R.string.toast_exception_download_project_info,
+          Toast.LENGTH_SHORT).show();
       return;
     }
 
     Log.d(LOG_TAG, "Downloaded Data result size: " + result.size());
 
-    for (DummyItem item : result) {
-      DummyContent.addContent(item);
+    // Pages were already displayed as they arrived when delivering incrementally.
+    boolean changed = !mIncrementalDelivery && publishDownloadedPages();
+
+    // Mark the sections that failed, and clear the mark of those downloaded again.
+    for (Stream stream : mStreams) {
+      changed |= DummyContent.setSectionFailed(getSection(stream),
+          mFailedStreams.contains(stream));
+    }
+    if (!mFailedStreams.isEmpty()) {
+      Toast.makeText(mContext, R.string.toast_partial_download, Toast.LENGTH_SHORT).show();
+    }
+
+    // Notify the attached adapter, if any, so that {@code ListView} will update itself.
+    if (changed) {
+      mContentObservable.notifyChanged();
+    }
+  }
+
+  /**
+   * Replace data displayed before the download in a single snapshot. Sections that failed without
+   * any downloaded page keep their displayed items.
+   *
+   * @return whether the displayed content changed
+   */
+  private boolean publishDownloadedPages() {
+    List<DummyItem> zoneItems = null;
+    for (ResourcePage resourcePage : mDownloadedPages) {
+      if (resourcePage.failed) {
+        continue;
+      }
+      if (resourcePage.section == Section.ZONES) {
+        zoneItems = resourcePage.items;
+        mPager.setZones(zoneItems);
+      } else {
+        mPager.addPage(resourcePage.section, resourcePage.cursor, resourcePage.items,
+            resourcePage.continuation);
+      }
+    }
+    Map<Section, List<DummyItem>> sections = mPager.getSections();
+    if (zoneItems != null) {
+      sections.put(Section.ZONES, zoneItems);
+    }
+    ResourceSnapshot snapshot = DummyContent.getSnapshot();
+    for (Stream stream : mFailedStreams) {
+      Section section = getSection(stream);
+      if (!sections.containsKey(section)) {
+        sections.put(section, snapshot.getSectionItems(section));
+      }
     }
-    // Notify adapter of change so that {@code ListView} will update itself.
-    mResourcesAdapter.notifyDataSetChanged();
+    boolean changed = DummyContent.replaceContent(sections);
+    AppMetrics.record(AppMetrics.TIME_TO_FIRST_ROW_MILLIS,
+        SystemClock.elapsedRealtime() - mStartMillis);
+    return changed;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,406 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.tasks;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.devrel.samples.compute.android.AppMetrics;
+import com.google.devrel.samples.compute.android.RetryPolicy;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks any number of Google Compute Engine zone operations until they complete. Operations are
+ * registered by name and zone and polled from a single scheduler thread with exponential back-off
+ * and jitter. Status checks that are due at the same time are combined into HTTP batch requests.
+ * Between polls no thread is held; the scheduler thread itself exits when no operations are being
+ * tracked. Failed polls are not retried by the {@link RetryPolicy} of the client, which would put
+ * the scheduler thread to sleep, but polled again at their next back-off.
+ *
+ * Listener callbacks are made on the main thread.
+ */
+public class OperationTracker {
+  private static final String LOG_TAG = "OperationTracker";
+
+  private static final Set<String> OPERATION_STATUS_IN_PROGRESS_STRINGS =
+      Sets.newHashSet("RUNNING", "PENDING");
+  private static final String OPERATION_STATUS_DONE = "DONE";
+
+  /**
+   * Delay before the first poll of an operation.
+   */
+  static final long INITIAL_POLL_DELAY_MILLIS = 1000L;
+  /**
+   * Upper bound of the back-off delay between two polls of an operation.
+   */
+  static final long MAX_POLL_DELAY_MILLIS = 30000L;
+  /**
+   * Fraction of the back-off delay randomized so that operations started together do not poll in
+   * lock step.
+   */
+  static final double JITTER_FACTOR = 0.5;
+  /**
+   * Consecutive poll errors after which an operation is reported as failed.
+   */
+  static final int MAX_CONSECUTIVE_POLL_ERRORS = 5;
+  /**
+   * Default number of status checks combined into one HTTP batch request.
+   */
+  public static final int DEFAULT_POLL_BATCH_SIZE = 50;
+
+  /**
+   * Number of operation polls made as part of a batch request.
+   */
+  public static final String METRIC_BATCHED_POLLS = "operationPollsBatched";
+
+  private static OperationTracker sInstance;
+
+  /**
+   * Receives the outcome of a tracked operation on the main thread.
+   */
+  public interface Listener {
+    public void onOperationCompleted(Operation operation);
+
+    /**
+     * @param operation last known state of the operation, or null if it could not be polled
+     * @param error exception that stopped the tracking, or null if the operation reported errors
+     */
+    public void onOperationFailed(Operation operation, Exception error);
+  }
+
+  /**
+   * An operation being tracked.
+   */
+  private static class TrackedOperation {
+    final Compute compute;
+    final String projectId;
+    final String zone;
+    final String name;
+    final Listener listener;
+
+    int pollCount = 0;
+    int consecutiveErrors = 0;
+    long nextPollAtMillis;
+
+    TrackedOperation(Compute compute, String projectId, String zone, String name,
+        Listener listener) {
+      this.compute = compute;
+      this.projectId = projectId;
+      this.zone = zone;
+      this.name = name;
+      this.listener = listener;
+    }
+
+    String key() {
+      return projectId + '/' + zone + '/' + name;
+    }
+  }
+
+  private final ScheduledThreadPoolExecutor mScheduler;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private final Random mRandom = new Random();
+
+  /**
+   * Tracked operations by project, zone and name. Guarded by {@code this}.
+   */
+  private final Map<String, TrackedOperation> mOperations = Maps.newHashMap();
+  private volatile int mPollBatchSize = DEFAULT_POLL_BATCH_SIZE;
+  private ScheduledFuture<?> mNextTick;
+  private long mNextTickAtMillis = Long.MAX_VALUE;
+
+  public static synchronized OperationTracker getInstance() {
+    if (sInstance == null) {
+      sInstance = new OperationTracker();
+    }
+    return sInstance;
+  }
+
+  private OperationTracker() {
+    this(new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "OperationTracker");
+      }
+    }));
+    // Let the thread exit when nothing is scheduled.
+    mScheduler.setKeepAliveTime(10L, TimeUnit.SECONDS);
+    mScheduler.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * @param scheduler executor running the polls, replaced by tests to control when polls run
+   */
+  OperationTracker(ScheduledThreadPoolExecutor scheduler) {
+    mScheduler = scheduler;
+  }
+
+  /**
+   * Start tracking an operation. Registering an operation that is already tracked has no effect.
+   *
+   * @param compute client used to poll the operation
+   * @param zone name or self link of the operation's zone
+   * @param operationName name of the operation returned by the server
+   */
+  public synchronized void track(Compute compute, String projectId, String zone,
+      String operationName, Listener listener) {
+    TrackedOperation operation = new TrackedOperation(compute, projectId, zone, operationName,
+        listener);
+    if (mOperations.containsKey(operation.key())) {
+      return;
+    }
+    operation.nextPollAtMillis = now() + backOffMillis(0);
+    mOperations.put(operation.key(), operation);
+    Log.v(LOG_TAG, "Tracking operation " + operation.key() + "; " + mOperations.size()
+        + " operation(s) in flight");
+    scheduleTick();
+  }
+
+  /**
+   * Set how many due status checks are combined into one HTTP batch request. A size of 1 disables
+   * batching.
+   */
+  public void setPollBatchSize(int pollBatchSize) {
+    if (pollBatchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be positive: " + pollBatchSize);
+    }
+    mPollBatchSize = pollBatchSize;
+  }
+
+  /**
+   * Number of operations currently being tracked.
+   */
+  public synchronized int getTrackedCount() {
+    return mOperations.size();
+  }
+
+  /**
+   * Schedule the next tick for the earliest due operation. Must be called with the lock held.
+   */
+  private void scheduleTick() {
+    long earliestPollAtMillis = Long.MAX_VALUE;
+    for (TrackedOperation operation : mOperations.values()) {
+      earliestPollAtMillis = Math.min(earliestPollAtMillis, operation.nextPollAtMillis);
+    }
+    if (earliestPollAtMillis == Long.MAX_VALUE || earliestPollAtMillis >= mNextTickAtMillis) {
+      // Nothing to poll or an earlier tick is already scheduled.
+      return;
+    }
+
+    if (mNextTick != null) {
+      mNextTick.cancel(false);
+    }
+    mNextTickAtMillis = earliestPollAtMillis;
+    mNextTick = mScheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        tick();
+      }
+    }, Math.max(0L, earliestPollAtMillis - now()), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Poll every operation that is due, then schedule the next tick.
+   */
+  private void tick() {
+    List<TrackedOperation> dueOperations = Lists.newArrayList();
+    synchronized (this) {
+      mNextTick = null;
+      mNextTickAtMillis = Long.MAX_VALUE;
+      long nowMillis = now();
+      for (TrackedOperation operation : mOperations.values()) {
+        if (operation.nextPollAtMillis <= nowMillis) {
+          dueOperations.add(operation);
+        }
+      }
+    }
+
+    // Operations can only share a batch when they are polled with the same client.
+    Map<Compute, List<TrackedOperation>> operationsByClient = Maps.newIdentityHashMap();
+    for (TrackedOperation operation : dueOperations) {
+      List<TrackedOperation> clientOperations = operationsByClient.get(operation.compute);
+      if (clientOperations == null) {
+        clientOperations = Lists.newArrayList();
+        operationsByClient.put(operation.compute, clientOperations);
+      }
+      clientOperations.add(operation);
+    }
+
+    int batchSize = mPollBatchSize;
+    // Failed polls are rescheduled by onPollError() rather than retried while the thread sleeps.
+    boolean retriesEnabled = RetryPolicy.setRetriesEnabledOnThread(false);
+    try {
+      for (Map.Entry<Compute, List<TrackedOperation>> entry : operationsByClient.entrySet()) {
+        for (List<TrackedOperation> batch : Lists.partition(entry.getValue(), batchSize)) {
+          if (batch.size() == 1) {
+            poll(batch.get(0));
+          } else {
+            pollBatch(entry.getKey(), batch);
+          }
+        }
+      }
+    } finally {
+      RetryPolicy.setRetriesEnabledOnThread(retriesEnabled);
+    }
+
+    synchronized (this) {
+      scheduleTick();
+    }
+  }
+
+  private void poll(TrackedOperation operation) {
+    Log.v(LOG_TAG, "Querying on operation named: " + operation.name);
+    try {
+      Operation status = operation.compute.zoneOperations()
+          .get(operation.projectId, operation.zone, operation.name)
+          .execute();
+      onPollResult(operation, status);
+    } catch (GoogleJsonResponseException e) {
+      onPollError(operation, e, e.getStatusCode());
+    } catch (IOException e) {
+      onPollError(operation, e, 0);
+    }
+  }
+
+  /**
+   * Poll several operations with a single HTTP batch request. Each response of the batch is mapped
+   * back to its operation; if the batch as a whole fails every operation in it records an error.
+   */
+  private void pollBatch(Compute compute, List<TrackedOperation> operations) {
+    Log.v(LOG_TAG, "Querying on " + operations.size() + " operations in a batch");
+    BatchRequest batch = compute.batch();
+    try {
+      for (final TrackedOperation operation : operations) {
+        compute.zoneOperations()
+            .get(operation.projectId, operation.zone, operation.name)
+            .queue(batch, new JsonBatchCallback<Operation>() {
+              @Override
+              public void onSuccess(Operation status, HttpHeaders responseHeaders) {
+                onPollResult(operation, status);
+              }
+
+              @Override
+              public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                onPollError(operation, new IOException(error.getMessage()), error.getCode());
+              }
+            });
+      }
+      batch.execute();
+      AppMetrics.increment(METRIC_BATCHED_POLLS, operations.size());
+    } catch (IOException e) {
+      for (TrackedOperation operation : operations) {
+        onPollError(operation, e, 0);
+      }
+    }
+  }
+
+  /**
+   * Handle a successful poll of an operation.
+   */
+  private void onPollResult(TrackedOperation operation, Operation status) {
+    operation.consecutiveErrors = 0;
+    String operationStatus = status.getStatus();
+    Log.v(LOG_TAG, "Operation " + operation.name + " status: " + operationStatus);
+
+    if (OPERATION_STATUS_IN_PROGRESS_STRINGS.contains(operationStatus)) {
+      reschedule(operation);
+    } else if (OPERATION_STATUS_DONE.equals(operationStatus) && status.getError() == null) {
+      complete(operation, status, null, true);
+    } else {
+      if (!OPERATION_STATUS_DONE.equals(operationStatus)) {
+        Log.e(LOG_TAG, "Unknown status was returned: " + operationStatus);
+      }
+      complete(operation, status, null, false);
+    }
+  }
+
+  /**
+   * Handle a failed poll of an operation. Transient errors are retried with back-off.
+   *
+   * @param statusCode HTTP status code of the failed poll, or 0 if no response was received
+   */
+  private void onPollError(TrackedOperation operation, IOException error, int statusCode) {
+    Log.w(LOG_TAG, "Exception polling operation " + operation.name, error);
+    operation.consecutiveErrors++;
+    boolean notFound = statusCode == HttpStatusCodes.STATUS_CODE_NOT_FOUND;
+    if (notFound || operation.consecutiveErrors >= MAX_CONSECUTIVE_POLL_ERRORS) {
+      complete(operation, null, error, false);
+    } else {
+      reschedule(operation);
+    }
+  }
+
+  private synchronized void reschedule(TrackedOperation operation) {
+    operation.pollCount++;
+    operation.nextPollAtMillis = now() + backOffMillis(operation.pollCount);
+  }
+
+  private void complete(final TrackedOperation operation, final Operation status,
+      final Exception error, final boolean succeeded) {
+    synchronized (this) {
+      mOperations.remove(operation.key());
+    }
+    mMainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (succeeded) {
+          operation.listener.onOperationCompleted(status);
+        } else {
+          operation.listener.onOperationFailed(status, error);
+        }
+      }
+    });
+  }
+
+  /**
+   * Exponential back-off: the delay doubles with every poll up to {@link #MAX_POLL_DELAY_MILLIS},
+   * and a random part of it is subtracted to spread out polls.
+   */
+  private long backOffMillis(int pollCount) {
+    long delayMillis = INITIAL_POLL_DELAY_MILLIS << Math.min(pollCount, 16);
+    delayMillis = Math.min(delayMillis, MAX_POLL_DELAY_MILLIS);
+    double jitter;
+    synchronized (mRandom) {
+      jitter = mRandom.nextDouble() * JITTER_FACTOR;
+    }
+    return (long) (delayMillis * (1.0 - jitter));
+  }
+
+  private static long now() {
+    return SystemClock.elapsedRealtime();
+  }
+}
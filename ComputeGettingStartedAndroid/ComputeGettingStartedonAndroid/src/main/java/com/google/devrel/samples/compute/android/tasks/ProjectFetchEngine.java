@@ -0,0 +1,903 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.tasks;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.api.client.http.HttpResponse;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.ComputeRequest;
+import com.google.api.services.compute.Compute.Disks;
+import com.google.api.services.compute.Compute.Instances;
+import com.google.api.services.compute.Compute.Zones;
+import com.google.api.services.compute.model.Zone;
+import com.google.api.services.compute.model.ZoneList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.devrel.samples.compute.android.AppMetrics;
+import com.google.devrel.samples.compute.android.AppUtils;
+import com.google.devrel.samples.compute.android.BuildConfig;
+import com.google.devrel.samples.compute.android.CancellationScope;
+import com.google.devrel.samples.compute.android.RetryPolicy;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+import com.google.devrel.samples.compute.android.model.ResourceListDecoder;
+import com.google.devrel.samples.compute.android.model.ResourceQuery;
+import com.google.devrel.samples.compute.android.model.ZoneRecord;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches the Zone, Instance and Disk lists of a Google Compute Engine project concurrently. Each
+ * resource type is downloaded as an independent stream on a small bounded executor so the time to
+ * a full listing is the slowest stream rather than the sum of every round trip.
+ *
+ * Streams hand each downloaded page to the calling thread, which joins Instance and Disk pages to
+ * their Zones once the Zones have arrived, so the streams themselves never wait on each other.
+ * Requests are retried on transient errors by {@link RetryPolicy}, and a page whose response fails
+ * while it is being read is requested again. A stream that still fails ends on its own: the pages
+ * it delivered before are kept, the other streams complete, and the failure is reported in the
+ * {@link Result} so that only the failed streams need to be fetched again with
+ * {@link #setStreams(Set)}. Cancellation stops every stream.
+ *
+ * The engine works for the {@link CancellationScope} of the thread that created it, typically the
+ * scope of a {@code ComputeTask}, or for a scope of its own; cancelling either the scope or the
+ * engine aborts the requests in flight on every stream and stops further pages.
+ *
+ * Paginating tasks request the next page as soon as the page token of the current one is known,
+ * while the fetching thread processes the current page. Each task may run at most
+ * {@link #PAGE_LOOKAHEAD} unprocessed pages ahead of the fetching thread.
+ *
+ * Instances and Disks are listed either with one {@code aggregatedList} pagination per resource
+ * type or, for large projects, with one {@code list} pagination per resource type and Zone so
+ * that a single large Zone does not hold up the others. See {@link ListingMode}.
+ *
+ * A {@link ResourceQuery} set with {@link #setQuery(ResourceQuery)} narrows the Instance and Disk
+ * listings on the server as far as the API can express it; the remaining predicates are checked
+ * on every decoded page. List requests only ask for the fields the decoders read.
+ *
+ * Each pagination stops after {@link AppUtils#RESOURCE_LISTING_INITIAL_PAGES} pages; the
+ * {@link PageCursor} of the next page is handed to the {@link PageListener} so the listing can be
+ * continued on demand with {@link #fetchPage(PageCursor, ResourceListDecoder)}.
+ */
+public class ProjectFetchEngine {
+  private static final String LOG_TAG = "ProjectFetchEngine";
+
+  /**
+   * Maximum number of resource streams downloaded at the same time across the application.
+   */
+  public static final int STREAM_THREAD_LIMIT = 3;
+
+  /**
+   * Number of downloaded pages a paginating task may hand over before the fetching thread has
+   * processed them. Bounds the memory held by pages in flight while keeping the network busy.
+   */
+  public static final int PAGE_LOOKAHEAD = 2;
+
+  /**
+   * Milliseconds paginating tasks spent waiting for the fetching thread to catch up.
+   */
+  public static final String METRIC_LOOKAHEAD_STALL_MILLIS = "pageLookaheadStallMillis";
+
+  /**
+   * Microseconds spent requesting and decoding Instance and Disk pages, summed over all tasks.
+   */
+  public static final String METRIC_REQUEST_AND_DECODE_MICROS = "pageRequestAndDecodeMicros";
+
+  /**
+   * Instances and Disks returned by the server but dropped by the predicates of the query that
+   * the filter expression could not carry.
+   */
+  public static final String METRIC_FILTERED_ON_DEVICE = "resourcesFilteredOnDevice";
+
+  /**
+   * Streams that failed after their requests were retried.
+   */
+  public static final String METRIC_STREAMS_FAILED = "streamsFailed";
+
+  /**
+   * Pages requested again because their response failed while it was being read.
+   */
+  public static final String METRIC_PAGES_RETRIED = "pagesRetried";
+
+  /**
+   * The independent resource streams downloaded by the engine.
+   */
+  public enum Stream {
+    ZONES, INSTANCES, DISKS
+  }
+
+  /**
+   * Strategies for listing Instances and Disks.
+   */
+  public enum ListingMode {
+    /**
+     * One {@code aggregatedList} pagination per resource type covering every Zone. Starts without
+     * waiting for the Zones, but pages through all Zones serially.
+     */
+    AGGREGATED,
+    /**
+     * One {@code list} pagination per resource type and Zone, started in parallel once the Zones
+     * have been listed.
+     */
+    PER_ZONE,
+    /**
+     * {@link #PER_ZONE} when the project is expected to be large, see
+     * {@link ProjectFetchEngine#setLargeProject(boolean)}, {@link #AGGREGATED} otherwise.
+     */
+    AUTO
+  }
+
+  /**
+   * Bounded executor shared by all engines. Threads are allowed to time out so that an idle
+   * application holds no download threads.
+   */
+  private static final ExecutorService STREAM_EXECUTOR;
+  static {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(STREAM_THREAD_LIMIT, STREAM_THREAD_LIMIT,
+        30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          private final AtomicInteger mCount = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "ProjectFetch #" + mCount.incrementAndGet());
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    STREAM_EXECUTOR = executor;
+  }
+
+  private final Compute mCompute;
+  private final String mProjectId;
+  private final long mPerPageResourceLimit;
+  private final int mPagesPerListing = AppUtils.RESOURCE_LISTING_INITIAL_PAGES;
+  private ListingMode mListingMode;
+  private boolean mLargeProject = false;
+  private ResourceQuery mQuery = ResourceQuery.ALL;
+  private Set<Stream> mStreams = EnumSet.allOf(Stream.class);
+
+  /**
+   * Resources downloaded so far by all streams.
+   */
+  private final AtomicLong mResourceCount = new AtomicLong();
+  /**
+   * Instances and Disks downloaded so far by {@link #fetch}, by stream.
+   */
+  private final Map<Stream, AtomicLong> mStreamResourceCounts = Maps.newEnumMap(Stream.class);
+  /**
+   * Streams with a listing that {@link #fetch} stopped before its end.
+   */
+  private final Set<Stream> mUnfinishedStreams =
+      Collections.synchronizedSet(EnumSet.noneOf(Stream.class));
+
+  private final Map<Stream, Long> mStreamMillis = Maps.newConcurrentMap();
+  private final List<Future<?>> mFutures = Collections.synchronizedList(
+      Lists.<Future<?>>newArrayList());
+  private final BlockingQueue<Page> mPages = new LinkedBlockingQueue<Page>();
+  /**
+   * Submitted stream tasks whose end has not been handled by the fetching thread yet.
+   */
+  private final AtomicInteger mOpenTasks = new AtomicInteger();
+  private volatile boolean mCancelled = false;
+  private final CancellationScope mScope;
+  private long mWallClockMillis = 0L;
+
+  public ProjectFetchEngine(Compute compute, String projectId) {
+    this(compute, projectId, AppUtils.RESOURCE_LISTING_MODE);
+  }
+
+  /**
+   * @param listingMode initial listing mode, passed by tests so that they do not load
+   *     {@code AppUtils}
+   */
+  ProjectFetchEngine(Compute compute, String projectId, ListingMode listingMode) {
+    mCompute = compute;
+    mProjectId = projectId;
+    mListingMode = listingMode;
+    mPerPageResourceLimit = AppUtils.RESOURCE_LISTING_ITERATION_LIMIT;
+    mStreamResourceCounts.put(Stream.INSTANCES, new AtomicLong());
+    mStreamResourceCounts.put(Stream.DISKS, new AtomicLong());
+    CancellationScope scope = CancellationScope.current();
+    mScope = (scope != null) ? scope : new CancellationScope();
+  }
+
+  /**
+   * Select how Instances and Disks are listed. Defaults to {@link AppUtils#RESOURCE_LISTING_MODE}.
+   */
+  public void setListingMode(ListingMode listingMode) {
+    mListingMode = listingMode;
+  }
+
+  /**
+   * Restrict the Instances and Disks listed. Defaults to {@link ResourceQuery#ALL}. Set it before
+   * fetching; it also applies to pages requested with {@link #fetchPage}.
+   */
+  public void setQuery(ResourceQuery query) {
+    mQuery = query;
+  }
+
+  /**
+   * Restrict the streams fetched, for example to those that failed last time. Zones are always
+   * listed since Instances and Disks are joined to them. Defaults to every stream.
+   */
+  public void setStreams(Set<Stream> streams) {
+    mStreams = EnumSet.copyOf(streams);
+    mStreams.add(Stream.ZONES);
+  }
+
+  /**
+   * Hint that the project is large, for example because {@link #isLargeProject()} said so after
+   * its last listing. Used by {@link ListingMode#AUTO}.
+   */
+  public void setLargeProject(boolean largeProject) {
+    mLargeProject = largeProject;
+  }
+
+  /**
+   * Whether the Instances or Disks listed by {@link #fetch} do not fit in the pages an aggregated
+   * listing downloads up front: a listing was stopped before its end, or a per-zone listing
+   * delivered more of them. An aggregated listing of such a project pages through its Zones
+   * serially. Only meaningful after an unfiltered fetch of every stream.
+   */
+  public boolean isLargeProject() {
+    if (!mUnfinishedStreams.isEmpty()) {
+      return true;
+    }
+    long upFrontCapacity = mPerPageResourceLimit * Math.max(mPagesPerListing, 1);
+    for (AtomicLong streamResourceCount : mStreamResourceCounts.values()) {
+      if (streamResourceCount.get() > upFrontCapacity) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The listing mode used by {@link #fetch()}, with {@link ListingMode#AUTO} resolved.
+   */
+  public ListingMode getResolvedListingMode() {
+    if (mListingMode != ListingMode.AUTO) {
+      return mListingMode;
+    }
+    return mLargeProject ? ListingMode.PER_ZONE : ListingMode.AGGREGATED;
+  }
+
+  /**
+   * Raw resources downloaded by the engine.
+   */
+  public static class Result {
+    /**
+     * The Zones, or an empty list if they could not be listed.
+     */
+    public final List<ZoneRecord> zones;
+    public final List<InstanceRecord> instances;
+    public final List<DiskRecord> disks;
+    /**
+     * The first failure of every stream that failed; the resources above hold what those streams
+     * delivered before failing.
+     */
+    public final Map<Stream, IOException> failures;
+
+    private Result(List<ZoneRecord> zones, List<InstanceRecord> instances,
+        List<DiskRecord> disks, Map<Stream, IOException> failures) {
+      this.zones = zones;
+      this.instances = instances;
+      this.disks = disks;
+      this.failures = failures;
+    }
+  }
+
+  /**
+   * Identifies a page of an Instance or Disk listing: the stream, the Zone for per-zone listings
+   * and the page token the page is requested with. Cursors stay valid after the page has been
+   * processed, so a page can be requested again later.
+   */
+  public static final class PageCursor {
+    public final Stream stream;
+    /**
+     * Zone name of a per-zone listing; {@code null} for an aggregated listing.
+     */
+    public final String zone;
+    /**
+     * Page token of the page; {@code null} for the first page.
+     */
+    public final String pageToken;
+
+    public PageCursor(Stream stream, String zone, String pageToken) {
+      this.stream = stream;
+      this.zone = zone;
+      this.pageToken = pageToken;
+    }
+
+    /**
+     * Cursor of the page following this one in the same listing.
+     */
+    public PageCursor next(String nextPageToken) {
+      return new PageCursor(stream, zone, nextPageToken);
+    }
+
+    @Override
+    public String toString() {
+      return stream + "/" + zone + "/" + pageToken;
+    }
+  }
+
+  /**
+   * Receives resource pages as soon as they have been downloaded. Callbacks are made on the thread
+   * that called {@link ProjectFetchEngine#fetch(PageListener)}, and Zones are always delivered
+   * before any Instance or Disk page so that pages can be joined to their Zones immediately.
+   *
+   * Instance and Disk pages come with the cursor they were requested with and, when the engine
+   * stopped the listing before its end, the cursor of the next page; the continuation is
+   * {@code null} otherwise.
+   *
+   * A stream that failed is reported once, at its first failure. If the Zones failed,
+   * {@link #onZones} is not called and Instance and Disk pages are delivered without Zones.
+   */
+  public interface PageListener {
+    public void onZones(List<ZoneRecord> zones);
+
+    public void onInstancePage(PageCursor cursor, List<InstanceRecord> instances,
+        PageCursor continuation);
+
+    public void onDiskPage(PageCursor cursor, List<DiskRecord> disks, PageCursor continuation);
+
+    public void onStreamFailed(Stream stream, IOException e);
+  }
+
+  /**
+   * A page of resources downloaded by a stream. A page without items marks the end of one of the
+   * stream's tasks.
+   */
+  private static class Page {
+    final Stream stream;
+    final List<?> items;
+    final Future<?> task;
+    /**
+     * Lookahead permits of the task that downloaded the page, if it paginates.
+     */
+    final Semaphore lookahead;
+    final PageCursor cursor;
+    final PageCursor continuation;
+
+    Page(Stream stream, List<?> items, Future<?> task, Semaphore lookahead) {
+      this(stream, items, task, lookahead, null, null);
+    }
+
+    Page(Stream stream, List<?> items, Future<?> task, Semaphore lookahead, PageCursor cursor,
+        PageCursor continuation) {
+      this.stream = stream;
+      this.items = items;
+      this.task = task;
+      this.lookahead = lookahead;
+      this.cursor = cursor;
+      this.continuation = continuation;
+    }
+
+    /**
+     * Let the downloading task run one more page ahead.
+     */
+    void processed() {
+      if (lookahead != null) {
+        lookahead.release();
+      }
+    }
+  }
+
+  /**
+   * Download all streams in parallel and block until every one of them has completed or failed.
+   *
+   * @throws InterruptedException if the calling thread was interrupted or the engine cancelled
+   */
+  public Result fetch() throws InterruptedException {
+    return fetch(null);
+  }
+
+  /**
+   * Download all streams in parallel, handing every page to {@code pageListener} as it arrives,
+   * and block until every stream has completed or failed.
+   *
+   * @param pageListener optional listener for incremental delivery of pages
+   * @throws InterruptedException if the calling thread was interrupted or the engine cancelled
+   */
+  public Result fetch(PageListener pageListener) throws InterruptedException {
+    long startMillis = SystemClock.elapsedRealtime();
+
+    final ListingMode listingMode = getResolvedListingMode();
+    Log.i(LOG_TAG, "Listing " + mProjectId + " in " + listingMode + " mode");
+
+    submit(Stream.ZONES, new Callable<Void>() {
+      @Override
+      public Void call() throws IOException, InterruptedException {
+        List<ZoneRecord> zones;
+        try {
+          zones = fetchZones();
+        } catch (IOException e) {
+          // Instances and Disks can still be listed without the Zones.
+          if (mQuery.zone != null) {
+            submitZoneListings(mQuery.zone);
+          } else if (listingMode == ListingMode.PER_ZONE) {
+            submitAggregatedListings();
+          }
+          throw e;
+        }
+        if (mQuery.zone != null) {
+          submitQueriedZoneListings(zones);
+        } else if (listingMode == ListingMode.PER_ZONE) {
+          submitZoneListings(zones);
+        }
+        return null;
+      }
+    });
+    if (listingMode == ListingMode.AGGREGATED && mQuery.zone == null) {
+      submitAggregatedListings();
+    }
+
+    try {
+      List<ZoneRecord> zones = null;
+      List<InstanceRecord> instances = Lists.newArrayList();
+      List<DiskRecord> disks = Lists.newArrayList();
+      Map<Stream, IOException> failures = Maps.newEnumMap(Stream.class);
+
+      // Instance and Disk pages that arrived before the Zones.
+      List<Page> pendingPages = Lists.newArrayList();
+
+      // Tasks only ever submit further tasks before they end, so the count cannot drop to zero
+      // while work remains.
+      while (mOpenTasks.get() > 0) {
+        Page page = mPages.take();
+        if (isCancelled()) {
+          throw new InterruptedException("Engine cancelled");
+        }
+
+        if (page.items == null) {
+          // The task has ended; surface its failure, if any, right away.
+          mOpenTasks.decrementAndGet();
+          try {
+            await(page.task);
+          } catch (IOException e) {
+            Log.e(LOG_TAG, "Stream " + page.stream + " failed", e);
+            // Per-zone listings may fail several tasks of the same stream.
+            if (!failures.containsKey(page.stream)) {
+              failures.put(page.stream, e);
+              if (pageListener != null) {
+                pageListener.onStreamFailed(page.stream, e);
+              }
+            }
+            if (page.stream == Stream.ZONES && zones == null) {
+              // Stop holding back the pages waiting for the Zones.
+              zones = Collections.emptyList();
+              for (Page pendingPage : pendingPages) {
+                dispatch(pendingPage, instances, disks, pageListener);
+                pendingPage.processed();
+              }
+              pendingPages.clear();
+            }
+          }
+        } else if (page.stream == Stream.ZONES) {
+          zones = castItems(page);
+          if (pageListener != null) {
+            pageListener.onZones(zones);
+          }
+          for (Page pendingPage : pendingPages) {
+            dispatch(pendingPage, instances, disks, pageListener);
+            pendingPage.processed();
+          }
+          pendingPages.clear();
+        } else if (zones == null) {
+          pendingPages.add(page);
+        } else {
+          dispatch(page, instances, disks, pageListener);
+          page.processed();
+        }
+      }
+
+      mWallClockMillis = SystemClock.elapsedRealtime() - startMillis;
+      logTimings();
+      if (!failures.isEmpty()) {
+        AppMetrics.increment(METRIC_STREAMS_FAILED, failures.size());
+      }
+      return new Result((zones == null) ? Collections.<ZoneRecord>emptyList() : zones, instances,
+          disks, failures);
+    } catch (InterruptedException e) {
+      cancel();
+      throw e;
+    } catch (RuntimeException e) {
+      cancel();
+      throw e;
+    }
+  }
+
+  private static void dispatch(Page page, List<InstanceRecord> instances, List<DiskRecord> disks,
+      PageListener pageListener) {
+    if (page.stream == Stream.INSTANCES) {
+      List<InstanceRecord> instancePage = castItems(page);
+      instances.addAll(instancePage);
+      if (pageListener != null) {
+        pageListener.onInstancePage(page.cursor, instancePage, page.continuation);
+      }
+    } else if (page.stream == Stream.DISKS) {
+      List<DiskRecord> diskPage = castItems(page);
+      disks.addAll(diskPage);
+      if (pageListener != null) {
+        pageListener.onDiskPage(page.cursor, diskPage, page.continuation);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> List<T> castItems(Page page) {
+    return (List<T>) page.items;
+  }
+
+  /**
+   * Cancel every stream of this engine. Streams that are mid-request are interrupted, their
+   * responses aborted, and will not request further pages.
+   */
+  public void cancel() {
+    mCancelled = true;
+    mScope.cancel();
+    // Wake up the thread waiting for pages.
+    mPages.offer(new Page(Stream.ZONES, null, null, null));
+    synchronized (mFutures) {
+      for (Future<?> future : mFutures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  public boolean isCancelled() {
+    return mCancelled || mScope.isCancelled();
+  }
+
+  /**
+   * Time in milliseconds each stream took to download, keyed by stream. For per-zone listings
+   * this is the sum of the time spent on every Zone.
+   */
+  public Map<Stream, Long> getStreamMillis() {
+    return Collections.unmodifiableMap(mStreamMillis);
+  }
+
+  /**
+   * Elapsed time in milliseconds of the last completed {@link #fetch()}.
+   */
+  public long getWallClockMillis() {
+    return mWallClockMillis;
+  }
+
+  private void submit(final Stream stream, final Callable<Void> callable) {
+    mOpenTasks.incrementAndGet();
+    FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        long taskStartMillis = SystemClock.elapsedRealtime();
+        CancellationScope previousScope = mScope.enter();
+        try {
+          return callable.call();
+        } finally {
+          mScope.exit(previousScope);
+          addStreamMillis(stream, SystemClock.elapsedRealtime() - taskStartMillis);
+        }
+      }
+    }) {
+      @Override
+      protected void done() {
+        // Mark the end of the task, whether it completed, failed or was cancelled.
+        mPages.offer(new Page(stream, null, this, null));
+      }
+    };
+    mFutures.add(task);
+    STREAM_EXECUTOR.execute(task);
+  }
+
+  private void addStreamMillis(Stream stream, long millis) {
+    synchronized (mStreamMillis) {
+      Long streamMillis = mStreamMillis.get(stream);
+      mStreamMillis.put(stream, (streamMillis == null) ? millis : streamMillis + millis);
+    }
+  }
+
+  /**
+   * Submit the Instance and Disk listings of the streams selected with {@link #setStreams(Set)}.
+   */
+  private void submitAggregatedListings() {
+    submitListing(new PageCursor(Stream.INSTANCES, null, null), ResourceListDecoder.INSTANCES);
+    submitListing(new PageCursor(Stream.DISKS, null, null), ResourceListDecoder.DISKS);
+  }
+
+  /**
+   * Submit one Instance and one Disk listing per Zone. Projects with a single Zone gain nothing
+   * from it and are listed with the aggregated listings instead.
+   */
+  private void submitZoneListings(List<ZoneRecord> zones) {
+    if (zones.size() < 2) {
+      submitAggregatedListings();
+      return;
+    }
+    for (ZoneRecord zone : zones) {
+      submitZoneListings(zone.name);
+    }
+  }
+
+  /**
+   * Submit the Instance and Disk listings of the Zone selected by the query, if the project has
+   * that Zone; a query for an unknown Zone matches nothing.
+   */
+  private void submitQueriedZoneListings(List<ZoneRecord> zones) {
+    for (ZoneRecord zone : zones) {
+      if (zone.name.equals(mQuery.zone)) {
+        submitZoneListings(zone.name);
+        return;
+      }
+    }
+  }
+
+  private void submitZoneListings(String zoneName) {
+    submitListing(new PageCursor(Stream.INSTANCES, zoneName, null), ResourceListDecoder.INSTANCES);
+    submitListing(new PageCursor(Stream.DISKS, zoneName, null), ResourceListDecoder.DISKS);
+  }
+
+  private <T> void submitListing(final PageCursor firstPage, final ResourceListDecoder<T> decoder) {
+    if (!mStreams.contains(firstPage.stream)) {
+      return;
+    }
+    submit(firstPage.stream, new Callable<Void>() {
+      @Override
+      public Void call() throws IOException, InterruptedException {
+        if (shouldContinue()) {
+          fetchPages(firstPage, decoder);
+        }
+        return null;
+      }
+    });
+  }
+
+  private static <T> T await(Future<T> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (CancellationException e) {
+      throw new InterruptedException("Stream cancelled");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof InterruptedException) {
+        throw (InterruptedException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Whether a stream may request another page.
+   */
+  private boolean shouldContinue() {
+    return !isCancelled() && !Thread.currentThread().isInterrupted();
+  }
+
+  private void deliver(Stream stream, List<?> items) throws InterruptedException {
+    mPages.put(new Page(stream, items, null, null));
+  }
+
+  /**
+   * Hand a page to the fetching thread, first waiting while {@link #PAGE_LOOKAHEAD} earlier pages
+   * of the same task are still unprocessed.
+   */
+  private void deliver(PageCursor cursor, List<?> items, PageCursor continuation,
+      Semaphore lookahead) throws InterruptedException {
+    if (!lookahead.tryAcquire()) {
+      long stallStartMillis = SystemClock.elapsedRealtime();
+      lookahead.acquire();
+      AppMetrics.increment(METRIC_LOOKAHEAD_STALL_MILLIS,
+          SystemClock.elapsedRealtime() - stallStartMillis);
+    }
+    mPages.put(new Page(cursor.stream, items, null, lookahead, cursor, continuation));
+  }
+
+  private List<ZoneRecord> fetchZones() throws IOException, InterruptedException {
+    // Create Zone List Operation.
+    Zones.List zoneListCommand = mCompute.zones().list(mProjectId);
+
+    // Limit response to only the fields needed to save bandwidth (http://goo.gl/SEOu5).
+    zoneListCommand.setFields("items(name,id,maintenanceWindows,selfLink,status)");
+
+    ZoneList zoneList = zoneListCommand.execute();
+    List<ZoneRecord> zones = Lists.newArrayList();
+    if (zoneList.getItems() != null) {
+      for (Zone zone : zoneList.getItems()) {
+        zones.add(ZoneRecord.fromZone(zone));
+      }
+    }
+    deliver(Stream.ZONES, zones);
+    return zones;
+  }
+
+  /**
+   * Create the list request of a page: an {@code aggregatedList} request for aggregated listings
+   * and a {@code list} request for per-zone listings, with the filter of the query and the field
+   * mask of the decoder.
+   */
+  private ComputeRequest<?> newListRequest(PageCursor cursor, ResourceListDecoder<?> decoder)
+      throws IOException {
+    ComputeRequest<?> listOperation;
+    if (cursor.stream == Stream.INSTANCES) {
+      if (cursor.zone == null) {
+        Instances.AggregatedList aggInstanceListOperation =
+            mCompute.instances().aggregatedList(mProjectId);
+        // Limit the response to a reasonable number of instances.
+        aggInstanceListOperation.setMaxResults(mPerPageResourceLimit);
+        listOperation = aggInstanceListOperation;
+      } else {
+        Instances.List instanceListOperation = mCompute.instances().list(mProjectId, cursor.zone);
+        instanceListOperation.setMaxResults(mPerPageResourceLimit);
+        listOperation = instanceListOperation;
+      }
+    } else if (cursor.stream == Stream.DISKS) {
+      if (cursor.zone == null) {
+        Disks.AggregatedList aggDiskListOperation = mCompute.disks().aggregatedList(mProjectId);
+        // Limit the response to a reasonable number of disks.
+        aggDiskListOperation.setMaxResults(mPerPageResourceLimit);
+        listOperation = aggDiskListOperation;
+      } else {
+        Disks.List diskListOperation = mCompute.disks().list(mProjectId, cursor.zone);
+        diskListOperation.setMaxResults(mPerPageResourceLimit);
+        listOperation = diskListOperation;
+      }
+    } else {
+      throw new IllegalArgumentException("Stream " + cursor.stream + " is not paginated");
+    }
+    if (cursor.pageToken != null) {
+      listOperation.set("pageToken", cursor.pageToken);
+    }
+    if (mQuery.getFilter() != null) {
+      listOperation.set("filter", mQuery.getFilter());
+    }
+    // Limit the response to the fields the decoder reads to save bandwidth.
+    listOperation.setFields(decoder.getFieldMask(cursor.zone == null));
+    return listOperation;
+  }
+
+  /**
+   * Download and decode a single page of a listing, for example to continue a listing the engine
+   * stopped, or to download a page again. Blocks the calling thread; does not use the executor.
+   * {@link #cancel()} aborts the download.
+   */
+  public <T> ResourceListDecoder.Page<T> fetchPage(PageCursor cursor,
+      ResourceListDecoder<T> decoder) throws IOException {
+    CancellationScope previousScope = mScope.enter();
+    try {
+      return decodePage(newListRequest(cursor, decoder), decoder);
+    } finally {
+      mScope.exit(previousScope);
+    }
+  }
+
+  /**
+   * Request and decode a page. Failed requests were already retried by the {@link RetryPolicy} of
+   * the request; a response that fails while it is being read is requested again here, with the
+   * same back-off.
+   */
+  private <T> ResourceListDecoder.Page<T> decodePage(ComputeRequest<?> listOperation,
+      ResourceListDecoder<T> decoder) throws IOException {
+    long decodeStartNanos = System.nanoTime();
+    ResourceListDecoder.Page<T> page;
+    for (int retry = 0; ; retry++) {
+      HttpResponse response = listOperation.executeUnparsed();
+      try {
+        page = decoder.decode(response);
+        break;
+      } catch (IOException e) {
+        if (!RetryPolicy.backOff(retry)) {
+          throw e;
+        }
+        Log.w(LOG_TAG, "Requesting page again after a failed response", e);
+        AppMetrics.increment(METRIC_PAGES_RETRIED, 1L);
+      }
+    }
+    AppMetrics.increment(METRIC_REQUEST_AND_DECODE_MICROS,
+        (System.nanoTime() - decodeStartNanos) / 1000L);
+    if (mQuery.isEmpty()) {
+      return page;
+    }
+    // Check the predicates the filter expression could not carry.
+    List<T> matches = Lists.newArrayListWithCapacity(page.items.size());
+    for (T item : page.items) {
+      if (item instanceof InstanceRecord ? mQuery.matchesInstance((InstanceRecord) item)
+          : mQuery.matchesDisk((DiskRecord) item)) {
+        matches.add(item);
+      }
+    }
+    AppMetrics.increment(METRIC_FILTERED_ON_DEVICE, page.items.size() - matches.size());
+    return new ResourceListDecoder.Page<T>(matches, page.nextPageToken);
+  }
+
+  /**
+   * Page through a list request, decoding every response into records as it streams in rather than
+   * materializing the full API model. Stops after {@code mPagesPerListing} pages, handing the
+   * cursor of the next page over with the last page.
+   */
+  private <T> void fetchPages(PageCursor cursor, ResourceListDecoder<T> decoder)
+      throws IOException, InterruptedException {
+    ComputeRequest<?> listOperation = newListRequest(cursor, decoder);
+    Semaphore lookahead = new Semaphore(PAGE_LOOKAHEAD);
+    int pageCount = 0;
+    boolean hasNextPage;
+    do {
+      ResourceListDecoder.Page<T> page = decodePage(listOperation, decoder);
+      pageCount++;
+
+      // Get ready to request the next page of results, if it exists, as soon as this page has
+      // been handed over.
+      String nextPageToken = page.nextPageToken;
+      listOperation.set("pageToken", nextPageToken);
+      hasNextPage = nextPageToken != null;
+      boolean pageLimitReached = mPagesPerListing > 0 && pageCount >= mPagesPerListing;
+
+      mResourceCount.addAndGet(page.items.size());
+      mStreamResourceCounts.get(cursor.stream).addAndGet(page.items.size());
+      deliver(cursor, page.items,
+          (hasNextPage && pageLimitReached) ? cursor.next(nextPageToken) : null, lookahead);
+      if (pageLimitReached) {
+        if (hasNextPage) {
+          mUnfinishedStreams.add(cursor.stream);
+        }
+        break;
+      }
+      cursor = cursor.next(nextPageToken);
+    } while (hasNextPage && shouldContinue());
+  }
+
+  /**
+   * Report the time of each stream next to the wall clock time. The sum of the stream times is the
+   * time the previous serial implementation would have needed.
+   */
+  private void logTimings() {
+    long serialMillis = 0L;
+    for (Map.Entry<Stream, Long> streamMillis : mStreamMillis.entrySet()) {
+      serialMillis += streamMillis.getValue();
+      AppMetrics.record(AppMetrics.STREAM_MILLIS_PREFIX + streamMillis.getKey(),
+          streamMillis.getValue());
+    }
+    AppMetrics.record(AppMetrics.PROJECT_FETCH_WALL_CLOCK_MILLIS, mWallClockMillis);
+    Log.i(LOG_TAG, "Stream timings (ms): " + mStreamMillis + ", wall clock: " + mWallClockMillis
+        + ", serial equivalent: " + serialMillis);
+    if (BuildConfig.DEBUG) {
+      Log.v(LOG_TAG, "Downloaded " + mResourceCount.get() + " resources");
+    }
+  }
+}
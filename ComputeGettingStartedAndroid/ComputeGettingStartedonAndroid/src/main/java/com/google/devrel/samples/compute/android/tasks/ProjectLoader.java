@@ -0,0 +1,266 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.tasks;
+
+import android.content.Context;
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.common.collect.Maps;
+import com.google.devrel.samples.compute.android.AppMetrics;
+import com.google.devrel.samples.compute.android.AppUtils;
+import com.google.devrel.samples.compute.android.dummy.DummyContent;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.model.ResourceQuery;
+import com.google.devrel.samples.compute.android.tasks.ProjectFetchEngine.Stream;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the resources of a project into {@code DummyContent} independently of the fragments
+ * displaying them. There is a single loader per account and project, which outlives fragments
+ * recreated on a configuration change: a fragment asking for a load that is already in progress
+ * joins it instead of starting a duplicate download, and resources loaded less than
+ * {@link AppUtils#PROJECT_RELOAD_INTERVAL_MILLIS} ago are not downloaded again.
+ *
+ * Resource types that failed to download are remembered; {@link #retryFailed()} downloads only
+ * those again, keeping the pages of the others.
+ *
+ * Fragments register a {@code DataSetObserver} to be told when the displayed content changes, and
+ * unregister it when they are destroyed. The loader keeps no reference to any Activity.
+ *
+ * Must be used from the main thread.
+ */
+public class ProjectLoader {
+  private static final String LOG_TAG = "ProjectLoader";
+
+  public static final String METRIC_LOADS_STARTED = "projectLoadsStarted";
+  /**
+   * Loads requested while the same load was in progress.
+   */
+  public static final String METRIC_LOADS_JOINED = "projectLoadsJoined";
+  /**
+   * Loads downloading only the resource types that failed before.
+   */
+  public static final String METRIC_RETRIES_STARTED = "projectRetriesStarted";
+
+  /**
+   * Loaders by account and project. Only the selected project has a loader.
+   */
+  private static final Map<String, ProjectLoader> LOADERS = Maps.newHashMap();
+
+  private final Context mContext;
+  private final String mEmailAccount;
+  private final String mProjectId;
+  private final DataSetObservable mContentObservable = new DataSetObservable();
+  private ResourceQuery mQuery = ResourceQuery.ALL;
+  private DownloadProjectInformationTask mTask;
+  private ResourcePager mPager;
+  /**
+   * Streams that failed in the latest load of {@link #mQuery}.
+   */
+  private Set<Stream> mFailedStreams = EnumSet.noneOf(Stream.class);
+  /**
+   * Time the last load of {@link #mQuery} completed, or -1.
+   */
+  private long mLoadedMillis = -1L;
+
+  private ProjectLoader(Context context, String emailAccount, String projectId) {
+    mContext = context.getApplicationContext();
+    mEmailAccount = emailAccount;
+    mProjectId = projectId;
+  }
+
+  /**
+   * Retrieve the loader of a project, creating it on first use. The loaders of any other project
+   * are closed.
+   */
+  public static ProjectLoader get(Context context, String emailAccount, String projectId) {
+    String key = getKey(emailAccount, projectId);
+    ProjectLoader loader = LOADERS.get(key);
+    if (loader == null) {
+      for (ProjectLoader otherLoader : LOADERS.values()) {
+        otherLoader.stop();
+      }
+      LOADERS.clear();
+      loader = new ProjectLoader(context, emailAccount, projectId);
+      LOADERS.put(key, loader);
+    }
+    return loader;
+  }
+
+  private static String getKey(String emailAccount, String projectId) {
+    return emailAccount + "/" + projectId;
+  }
+
+  public void registerObserver(DataSetObserver observer) {
+    mContentObservable.registerObserver(observer);
+  }
+
+  public void unregisterObserver(DataSetObserver observer) {
+    mContentObservable.unregisterObserver(observer);
+  }
+
+  /**
+   * The query of the latest load.
+   */
+  public ResourceQuery getQuery() {
+    return mQuery;
+  }
+
+  /**
+   * The pager continuing the Instance and Disk listings of the latest load, or {@code null} before
+   * the first load.
+   */
+  public ResourcePager getPager() {
+    return mPager;
+  }
+
+  /**
+   * Whether some resource types of the latest load failed to download.
+   */
+  public boolean hasFailures() {
+    return !mFailedStreams.isEmpty();
+  }
+
+  /**
+   * Load the resources matching {@code query}, unless the same load is in progress or completed
+   * recently. A load for a different query replaces the one in progress. If the latest load of
+   * the same query partly failed, only the failed resource types are downloaded again.
+   */
+  public void load(ResourceQuery query) {
+    if (query.equals(mQuery)) {
+      if (mTask != null) {
+        AppMetrics.increment(METRIC_LOADS_JOINED, 1L);
+        return;
+      }
+      if (hasFailures()) {
+        retryFailed();
+        return;
+      }
+      long loadedAgoMillis = SystemClock.elapsedRealtime() - mLoadedMillis;
+      if (mLoadedMillis >= 0 && loadedAgoMillis < AppUtils.PROJECT_RELOAD_INTERVAL_MILLIS) {
+        return;
+      }
+    }
+    start(query);
+  }
+
+  /**
+   * Download the resource types that failed in the latest load again, along with the Zones they
+   * are joined to. Does nothing while a load is in progress or if nothing failed.
+   */
+  public void retryFailed() {
+    if (mTask != null || mPager == null || !hasFailures()) {
+      return;
+    }
+    Log.i(LOG_TAG, "Retrying " + mFailedStreams + " of " + mProjectId);
+    AppMetrics.increment(METRIC_RETRIES_STARTED, 1L);
+    for (Stream stream : mFailedStreams) {
+      mPager.resetSection(DownloadProjectInformationTask.getSection(stream));
+    }
+    startTask(mFailedStreams);
+  }
+
+  /**
+   * Remove the item of a deleted resource from the displayed content and the pages of the latest
+   * load, and tell the observers.
+   */
+  public void removeResource(DummyItem item) {
+    if (mPager != null) {
+      mPager.remove(item);
+    }
+    DummyContent.removeContent(item);
+    ResourceDetailCache.invalidate(item.id);
+    mContentObservable.notifyChanged();
+  }
+
+  /**
+   * Stop loading and drop the loader, for example once the resource list is closed for good.
+   */
+  public void close() {
+    stop();
+    LOADERS.remove(getKey(mEmailAccount, mProjectId));
+  }
+
+  private void start(ResourceQuery query) {
+    stop();
+    Log.i(LOG_TAG, "Loading " + mProjectId + " resources matching " + query);
+    AppMetrics.increment(METRIC_LOADS_STARTED, 1L);
+    mQuery = query;
+    mLoadedMillis = -1L;
+    mFailedStreams = EnumSet.noneOf(Stream.class);
+
+    // Pages of a new load start a new pager.
+    mPager = new ResourcePager(AppUtils.getComputeServiceObject(mContext, mEmailAccount),
+        mProjectId, mContentObservable);
+    mPager.setQuery(query);
+    startTask(EnumSet.allOf(Stream.class));
+  }
+
+  /**
+   * Download {@code streams} of {@link #mQuery}, adding their pages to {@link #mPager}.
+   */
+  private void startTask(Set<Stream> streams) {
+    mTask = new DownloadProjectInformationTask(mContext, mEmailAccount, mProjectId,
+        mContentObservable, mPager) {
+      @Override
+      protected void onPostExecute(List<DummyItem> result) {
+        super.onPostExecute(result);
+        onTaskFinished(this, result != null);
+      }
+
+      @Override
+      protected void onCancelled() {
+        super.onCancelled();
+        onTaskFinished(this, false);
+      }
+    };
+    mTask.setQuery(mQuery);
+    mTask.setStreams(streams);
+    mTask.executeInLane((Object) null);
+  }
+
+  private void stop() {
+    if (mTask != null) {
+      mTask.abort();
+      mTask = null;
+    }
+    if (mPager != null) {
+      mPager.close();
+    }
+  }
+
+  private void onTaskFinished(DownloadProjectInformationTask task, boolean success) {
+    if (task != mTask) {
+      // A newer load replaced the task.
+      return;
+    }
+    mTask = null;
+    if (success) {
+      mFailedStreams = EnumSet.noneOf(Stream.class);
+      mFailedStreams.addAll(task.getFailedStreams());
+      if (mFailedStreams.isEmpty()) {
+        mLoadedMillis = SystemClock.elapsedRealtime();
+      }
+    }
+  }
+}
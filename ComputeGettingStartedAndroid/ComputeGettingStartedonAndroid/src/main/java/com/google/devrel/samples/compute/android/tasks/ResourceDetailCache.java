@@ -0,0 +1,253 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.tasks;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.api.services.compute.Compute;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.devrel.samples.compute.android.AppMetrics;
+import com.google.devrel.samples.compute.android.AppUtils;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Full Instances and Disks for the detail screen. Resource lists only download the fields the list
+ * displays; the detail screen hydrates an item with {@code instances().get} or {@code disks().get}
+ * through this cache.
+ *
+ * At most {@link AppUtils#DETAIL_CACHE_SIZE} resources are kept, least recently used first out,
+ * and each for at most {@link AppUtils#DETAIL_CACHE_TTL_MILLIS}. Concurrent requests for the same
+ * resource share a single download. Items near the selection are prefetched with
+ * {@link #prefetch} so the detail screen usually opens from the cache. Downloads run in the
+ * {@link TaskLane#INTERACTIVE} lane.
+ *
+ * Listeners are called on the main thread.
+ */
+public final class ResourceDetailCache {
+  private static final String LOG_TAG = "ResourceDetailCache";
+
+  public static final String METRIC_CACHE_HITS = "detailCacheHits";
+  public static final String METRIC_CACHE_MISSES = "detailCacheMisses";
+  /**
+   * Resources downloaded ahead of being displayed.
+   */
+  public static final String METRIC_PREFETCHES = "detailPrefetches";
+  /**
+   * Milliseconds the most recent detail download took.
+   */
+  public static final String METRIC_FETCH_MILLIS = "detailFetchMillis";
+
+  /**
+   * Receives a hydrated item.
+   */
+  public interface Listener {
+    /**
+     * @param detail the item with every displayed field, or {@code null} if the download failed
+     */
+    public void onDetailLoaded(DummyItem detail);
+  }
+
+  private static class Entry {
+    final DummyItem detail;
+    final long loadedMillis;
+
+    Entry(DummyItem detail, long loadedMillis) {
+      this.detail = detail;
+      this.loadedMillis = loadedMillis;
+    }
+  }
+
+  /**
+   * Hydrated items by ID, in access order.
+   */
+  private static final LinkedHashMap<String, Entry> ENTRIES =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > AppUtils.DETAIL_CACHE_SIZE;
+        }
+      };
+
+  /**
+   * Listeners of the downloads in progress by item ID.
+   */
+  private static final Map<String, List<Listener>> IN_FLIGHT = Maps.newHashMap();
+
+  private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+  private ResourceDetailCache() {
+  }
+
+  /**
+   * Whether the detail screen needs a full download of the item; Zones are listed in full.
+   */
+  public static boolean isHydratable(DummyItem item) {
+    return item instanceof InstanceItem || item instanceof DiskItem;
+  }
+
+  /**
+   * Retrieve the cached full item for {@code item}, or {@code null} if it is not cached or has
+   * expired.
+   */
+  public static synchronized DummyItem getDetail(DummyItem item) {
+    Entry entry = ENTRIES.get(item.id);
+    if (entry == null) {
+      return null;
+    }
+    if (SystemClock.elapsedRealtime() - entry.loadedMillis > AppUtils.DETAIL_CACHE_TTL_MILLIS) {
+      ENTRIES.remove(item.id);
+      return null;
+    }
+    return entry.detail;
+  }
+
+  /**
+   * Hand the full item for {@code item} to {@code listener}, downloading it unless it is cached.
+   * A cached item is handed over before this method returns.
+   */
+  public static void load(Context context, String emailAccount, String projectId, DummyItem item,
+      Listener listener) {
+    DummyItem detail = getDetail(item);
+    if (detail != null) {
+      AppMetrics.increment(METRIC_CACHE_HITS, 1L);
+      listener.onDetailLoaded(detail);
+      return;
+    }
+    AppMetrics.increment(METRIC_CACHE_MISSES, 1L);
+    fetch(context, emailAccount, projectId, item, listener);
+  }
+
+  /**
+   * Download the full items of those of {@code items} that are neither cached nor downloading.
+   */
+  public static void prefetch(Context context, String emailAccount, String projectId,
+      List<? extends DummyItem> items) {
+    for (DummyItem item : items) {
+      if (isHydratable(item) && getDetail(item) == null) {
+        if (fetch(context, emailAccount, projectId, item, null)) {
+          AppMetrics.increment(METRIC_PREFETCHES, 1L);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drop the cached full item of a resource, for example after it was deleted.
+   */
+  public static synchronized void invalidate(String id) {
+    ENTRIES.remove(id);
+  }
+
+  public static synchronized void clear() {
+    ENTRIES.clear();
+  }
+
+  /**
+   * Join or start the download of an item.
+   *
+   * @param listener optional listener of the download
+   * @return whether a new download was started
+   */
+  private static boolean fetch(Context context, String emailAccount, final String projectId,
+      final DummyItem item, Listener listener) {
+    synchronized (ResourceDetailCache.class) {
+      List<Listener> listeners = IN_FLIGHT.get(item.id);
+      if (listeners != null) {
+        if (listener != null) {
+          listeners.add(listener);
+        }
+        return false;
+      }
+      listeners = Lists.newArrayList();
+      if (listener != null) {
+        listeners.add(listener);
+      }
+      IN_FLIGHT.put(item.id, listeners);
+    }
+
+    final Compute compute = AppUtils.getComputeServiceObject(context, emailAccount);
+    TaskLane.INTERACTIVE.execute(new Runnable() {
+      @Override
+      public void run() {
+        DummyItem detail = null;
+        long startMillis = SystemClock.elapsedRealtime();
+        try {
+          detail = download(compute, projectId, item);
+          AppMetrics.record(METRIC_FETCH_MILLIS, SystemClock.elapsedRealtime() - startMillis);
+        } catch (IOException e) {
+          Log.e(LOG_TAG, "Exception downloading " + item.id, e);
+        }
+        deliver(item.id, detail);
+      }
+    });
+    return true;
+  }
+
+  private static DummyItem download(Compute compute, String projectId, DummyItem item)
+      throws IOException {
+    if (item instanceof InstanceItem) {
+      InstanceItem instanceItem = (InstanceItem) item;
+      InstanceRecord instance = instanceItem.instance;
+      return new InstanceItem(InstanceRecord.fromInstance(
+          compute.instances().get(projectId, instance.zone, instance.name).execute()),
+          instanceItem.userMessage);
+    } else if (item instanceof DiskItem) {
+      DiskItem diskItem = (DiskItem) item;
+      DiskRecord disk = diskItem.disk;
+      return new DiskItem(DiskRecord.fromDisk(
+          compute.disks().get(projectId, disk.zone, disk.name).execute()), diskItem.userMessage);
+    }
+    throw new IllegalArgumentException("No detail for " + item.id);
+  }
+
+  /**
+   * Cache a downloaded item and hand it to the listeners waiting for it on the main thread.
+   */
+  private static void deliver(String id, final DummyItem detail) {
+    final List<Listener> listeners;
+    synchronized (ResourceDetailCache.class) {
+      if (detail != null) {
+        ENTRIES.put(id, new Entry(detail, SystemClock.elapsedRealtime()));
+      }
+      listeners = IN_FLIGHT.remove(id);
+    }
+    if (listeners == null || listeners.isEmpty()) {
+      return;
+    }
+    MAIN_HANDLER.post(new Runnable() {
+      @Override
+      public void run() {
+        for (Listener listener : listeners) {
+          listener.onDetailLoaded(detail);
+        }
+      }
+    });
+  }
+}
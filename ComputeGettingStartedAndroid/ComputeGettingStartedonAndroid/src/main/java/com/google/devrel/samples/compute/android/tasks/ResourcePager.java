@@ -0,0 +1,422 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.tasks;
+
+import android.database.DataSetObservable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.api.services.compute.Compute;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.devrel.samples.compute.android.AppMetrics;
+import com.google.devrel.samples.compute.android.AppUtils;
+import com.google.devrel.samples.compute.android.dummy.DummyContent;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyPlaceholder;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.Section;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.ZoneItem;
+import com.google.devrel.samples.compute.android.dummy.ResourceSnapshot;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+import com.google.devrel.samples.compute.android.model.ResourceListDecoder;
+import com.google.devrel.samples.compute.android.model.ResourceQuery;
+import com.google.devrel.samples.compute.android.tasks.ProjectFetchEngine.PageCursor;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pages the Instance and Disk sections of the resource list on demand. The first pages of every
+ * listing are handed over by the {@link DownloadProjectInformationTask}; further pages of a
+ * section are downloaded as the list is scrolled near the end of the section, continuing the
+ * listings the {@link ProjectFetchEngine} stopped.
+ *
+ * At most {@link AppUtils#RESOURCE_LISTING_WINDOW_PAGES} pages of a section are held in memory.
+ * Pages outside the window are replaced by {@code DummyPlaceholder} rows so row positions do not
+ * change; their cursors are retained and the page is downloaded again once one of its rows
+ * scrolls back into view.
+ *
+ * Pages are downloaded in the {@link TaskLane#LIST} lane. Must be used from the main thread.
+ */
+public class ResourcePager {
+  private static final String LOG_TAG = "ResourcePager";
+
+  /**
+   * Rows before the end of a section from which its next page is downloaded.
+   */
+  public static final int LOAD_MORE_DISTANCE = 10;
+
+  /**
+   * Evicted pages downloaded again because they scrolled back into view.
+   */
+  public static final String METRIC_PAGES_REFETCHED = "pagerPagesRefetched";
+
+  private static final Section[] PAGED_SECTIONS = {Section.INSTANCES, Section.DISKS};
+
+  /**
+   * A page of a section. The items of an evicted page are {@code null} and its rows are held by
+   * placeholders.
+   */
+  private static class PageSlot {
+    final Section section;
+    final int index;
+    final PageCursor cursor;
+    List<DummyItem> items;
+    List<DummyItem> placeholders;
+
+    PageSlot(Section section, int index, PageCursor cursor, List<DummyItem> items) {
+      this.section = section;
+      this.index = index;
+      this.cursor = cursor;
+      this.items = items;
+    }
+
+    /**
+     * Drop the items of the page, replacing each of them by a placeholder.
+     */
+    void evict() {
+      placeholders = Lists.newArrayListWithCapacity(items.size());
+      for (int row = 0; row < items.size(); row++) {
+        placeholders.add(new DummyPlaceholder(section, index, row));
+      }
+      items = null;
+    }
+
+    /**
+     * Take the downloaded items of an evicted page back.
+     */
+    void restore(List<DummyItem> items) {
+      this.items = items;
+      placeholders = null;
+    }
+
+    List<DummyItem> getRows() {
+      return (items != null) ? items : placeholders;
+    }
+  }
+
+  private static class SectionPages {
+    final List<PageSlot> slots = Lists.newArrayList();
+    /**
+     * Cursors of the next page of every listing that was stopped before its end.
+     */
+    final LinkedList<PageCursor> continuations = Lists.newLinkedList();
+    /**
+     * Whether a page of the section is being downloaded.
+     */
+    boolean loading = false;
+  }
+
+  private final ProjectFetchEngine mEngine;
+  private final DataSetObservable mContentObservable;
+  private final int mWindowPages;
+  private final Map<Section, SectionPages> mSections = Maps.newEnumMap(Section.class);
+  private final Map<String, ZoneItem> mZoneMap = Maps.newHashMap();
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private volatile boolean mClosed = false;
+
+  /**
+   * @param contentObservable notified whenever a downloaded page changed the displayed content
+   */
+  public ResourcePager(Compute compute, String projectId, DataSetObservable contentObservable) {
+    this(new ProjectFetchEngine(compute, projectId), contentObservable);
+  }
+
+  /**
+   * @param engine engine continuing the listings, built by tests without a {@code Compute} client
+   */
+  ResourcePager(ProjectFetchEngine engine, DataSetObservable contentObservable) {
+    mEngine = engine;
+    mContentObservable = contentObservable;
+    mWindowPages = AppUtils.RESOURCE_LISTING_WINDOW_PAGES;
+    for (Section section : PAGED_SECTIONS) {
+      mSections.put(section, new SectionPages());
+    }
+  }
+
+  /**
+   * Restrict further pages to the resources matching {@code query}; must be the query the first
+   * pages were downloaded with.
+   */
+  public void setQuery(ResourceQuery query) {
+    mEngine.setQuery(query);
+  }
+
+  /**
+   * Set the Zones that Instances and Disks downloaded by the pager are joined to.
+   */
+  public void setZones(List<? extends DummyItem> zoneItems) {
+    mZoneMap.clear();
+    for (DummyItem item : zoneItems) {
+      if (item instanceof ZoneItem) {
+        ZoneItem zoneItem = (ZoneItem) item;
+        mZoneMap.put(zoneItem.zone.name, zoneItem);
+      }
+    }
+  }
+
+  /**
+   * Append a page downloaded elsewhere to the end of its section. The section is not published;
+   * see {@link #publish(Section)}.
+   *
+   * @param continuation cursor of the next page if the listing was stopped, or {@code null}
+   */
+  public void addPage(Section section, PageCursor cursor, List<DummyItem> items,
+      PageCursor continuation) {
+    SectionPages pages = mSections.get(section);
+    pages.slots.add(new PageSlot(section, pages.slots.size(), cursor, items));
+    if (continuation != null) {
+      pages.continuations.addLast(continuation);
+    }
+    evict(pages, pages.slots.size() - 1);
+  }
+
+  /**
+   * Drop the pages of a section before its listings are downloaded again, for example after they
+   * failed. A page of the section still downloading is dropped when it arrives. The section is not
+   * published.
+   */
+  public void resetSection(Section section) {
+    if (mSections.containsKey(section)) {
+      mSections.put(section, new SectionPages());
+    }
+  }
+
+  /**
+   * Rows of every paged section holding at least one page, with placeholders for evicted pages.
+   */
+  public Map<Section, List<DummyItem>> getSections() {
+    Map<Section, List<DummyItem>> sections = Maps.newEnumMap(Section.class);
+    for (Map.Entry<Section, SectionPages> section : mSections.entrySet()) {
+      if (!section.getValue().slots.isEmpty()) {
+        sections.put(section.getKey(), getRows(section.getValue()));
+      }
+    }
+    return sections;
+  }
+
+  /**
+   * Replace the displayed items of a section with its current pages.
+   *
+   * @return whether the displayed content changed
+   */
+  public boolean publish(Section section) {
+    return DummyContent.replaceSectionContent(section, getRows(mSections.get(section)));
+  }
+
+  /**
+   * Remove an item from the page holding it, for example after its resource was deleted. Items
+   * are matched by ID since the displayed instance may differ from the downloaded one. The
+   * section is not published.
+   */
+  public void remove(DummyItem item) {
+    for (SectionPages pages : mSections.values()) {
+      for (PageSlot slot : pages.slots) {
+        if (slot.items == null) {
+          continue;
+        }
+        for (Iterator<DummyItem> iterator = slot.items.iterator(); iterator.hasNext(); ) {
+          if (iterator.next().id.equals(item.id)) {
+            iterator.remove();
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Download the pages needed around the rows {@code firstRow} to {@code lastRow} of
+   * {@code snapshot}: evicted pages in view, and the next page of a section whose end is near.
+   */
+  public void onRowsVisible(ResourceSnapshot snapshot, int firstRow, int lastRow) {
+    if (mClosed) {
+      return;
+    }
+    for (Section section : PAGED_SECTIONS) {
+      SectionPages pages = mSections.get(section);
+      int sectionStart = snapshot.getSectionStart(section);
+      if (pages.loading || sectionStart < 0) {
+        continue;
+      }
+      int sectionEnd = sectionStart + snapshot.getSectionItems(section).size();
+      if (firstRow > sectionEnd || lastRow < sectionStart) {
+        continue;
+      }
+
+      // Restore evicted pages in view first.
+      int lastVisibleRow = Math.min(lastRow, sectionEnd);
+      for (int row = Math.max(firstRow, sectionStart + 1); row <= lastVisibleRow; row++) {
+        DummyItem item = snapshot.get(row);
+        if (item instanceof DummyPlaceholder && isOwnPlaceholder(pages, (DummyPlaceholder) item)) {
+          AppMetrics.increment(METRIC_PAGES_REFETCHED, 1L);
+          load(section, ((DummyPlaceholder) item).pageIndex);
+          break;
+        }
+      }
+
+      if (!pages.loading && !pages.continuations.isEmpty()
+          && lastRow + LOAD_MORE_DISTANCE >= sectionEnd) {
+        load(section, -1);
+      }
+    }
+  }
+
+  /**
+   * Whether a placeholder stands for an evicted page of this pager rather than, for example, a
+   * page of a previous pager still on display. Placeholders are matched by page index since a
+   * refresh may keep the displayed instance of an unchanged placeholder.
+   */
+  private static boolean isOwnPlaceholder(SectionPages pages, DummyPlaceholder placeholder) {
+    return placeholder.pageIndex < pages.slots.size()
+        && pages.slots.get(placeholder.pageIndex).items == null;
+  }
+
+  /**
+   * Stop downloading pages. Downloads in progress are aborted and their pages dropped.
+   */
+  public void close() {
+    mClosed = true;
+    mEngine.cancel();
+  }
+
+  /**
+   * Download a page of a section in the background.
+   *
+   * @param slotIndex index of the evicted page to download again, or -1 to download the next page
+   */
+  private void load(final Section section, final int slotIndex) {
+    final SectionPages pages = mSections.get(section);
+    final PageCursor cursor = (slotIndex < 0)
+        ? pages.continuations.removeFirst() : pages.slots.get(slotIndex).cursor;
+    final ResourceListDecoder<?> decoder = (section == Section.INSTANCES)
+        ? ResourceListDecoder.INSTANCES : ResourceListDecoder.DISKS;
+    pages.loading = true;
+    TaskLane.LIST.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (mClosed) {
+          // Closed while the download was queued.
+          return;
+        }
+        try {
+          final ResourceListDecoder.Page<?> page = mEngine.fetchPage(cursor, decoder);
+          mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+              onPageLoaded(section, pages, slotIndex, cursor, page);
+            }
+          });
+        } catch (IOException e) {
+          Log.e(LOG_TAG, "Exception downloading page " + cursor, e);
+          mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+              pages.loading = false;
+              if (slotIndex < 0) {
+                // Try the page again the next time the end of the section is in view.
+                pages.continuations.addFirst(cursor);
+              }
+            }
+          });
+        }
+      }
+    });
+  }
+
+  private void onPageLoaded(Section section, SectionPages pages, int slotIndex, PageCursor cursor,
+      ResourceListDecoder.Page<?> page) {
+    if (mClosed || pages != mSections.get(section)) {
+      // The pager was closed or the section reset.
+      return;
+    }
+    pages.loading = false;
+
+    List<DummyItem> items = toItems(page.items);
+    int loadedIndex;
+    if (slotIndex < 0) {
+      loadedIndex = pages.slots.size();
+      pages.slots.add(new PageSlot(section, loadedIndex, cursor, items));
+      if (page.nextPageToken != null) {
+        // Keep paging through the same listing before moving on to the next one.
+        pages.continuations.addFirst(cursor.next(page.nextPageToken));
+      }
+    } else {
+      loadedIndex = slotIndex;
+      pages.slots.get(slotIndex).restore(items);
+    }
+    evict(pages, loadedIndex);
+
+    if (publish(section)) {
+      mContentObservable.notifyChanged();
+    }
+  }
+
+  /**
+   * Evict the pages farthest from {@code keepIndex} until the section fits in the window.
+   */
+  private void evict(SectionPages pages, int keepIndex) {
+    int loadedCount = 0;
+    for (PageSlot slot : pages.slots) {
+      if (slot.items != null) {
+        loadedCount++;
+      }
+    }
+    while (loadedCount > mWindowPages) {
+      PageSlot farthestSlot = null;
+      int farthestDistance = -1;
+      for (int i = 0; i < pages.slots.size(); i++) {
+        PageSlot slot = pages.slots.get(i);
+        if (slot.items != null && Math.abs(i - keepIndex) > farthestDistance) {
+          farthestSlot = slot;
+          farthestDistance = Math.abs(i - keepIndex);
+        }
+      }
+      farthestSlot.evict();
+      loadedCount--;
+    }
+  }
+
+  private static List<DummyItem> getRows(SectionPages pages) {
+    List<DummyItem> rows = Lists.newArrayList();
+    for (PageSlot slot : pages.slots) {
+      rows.addAll(slot.getRows());
+    }
+    return rows;
+  }
+
+  private List<DummyItem> toItems(List<?> records) {
+    List<DummyItem> items = Lists.newArrayListWithCapacity(records.size());
+    for (Object record : records) {
+      if (record instanceof InstanceRecord) {
+        InstanceRecord instance = (InstanceRecord) record;
+        items.add(new InstanceItem(instance,
+            DummyContent.getZoneActivity(mZoneMap.get(instance.zone))));
+      } else if (record instanceof DiskRecord) {
+        DiskRecord disk = (DiskRecord) record;
+        items.add(new DiskItem(disk, DummyContent.getZoneActivity(mZoneMap.get(disk.zone))));
+      }
+    }
+    return items;
+  }
+}
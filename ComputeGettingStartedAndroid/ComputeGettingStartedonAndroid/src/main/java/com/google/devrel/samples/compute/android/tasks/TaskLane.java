@@ -0,0 +1,168 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.tasks;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.google.devrel.samples.compute.android.AppMetrics;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lanes that background work of the application runs in, replacing the process-wide serial
+ * executor of {@code AsyncTask#execute}. Every lane has its own threads, concurrency limit and
+ * queue, so work in one lane never waits behind work in another: a long project download or a
+ * bulk delete cannot delay an authorization check or a detail screen. Threads of lanes the user
+ * waits on run at a higher priority. Operations are polled by the {@link OperationTracker} on a
+ * thread of its own.
+ *
+ * Every lane reports, prefixed with {@code lane.<LANE>.}, the number of tasks submitted, the
+ * deepest its queue has been and the milliseconds tasks spent queued.
+ */
+public enum TaskLane {
+  /**
+   * Work the user is waiting on right now, such as detail downloads and authorization checks.
+   */
+  INTERACTIVE(3, Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE),
+  /**
+   * Resource list downloads.
+   */
+  LIST(2, Process.THREAD_PRIORITY_BACKGROUND),
+  /**
+   * Requests changing resources that the user started, such as deletes, whose outcome is followed
+   * by the {@link OperationTracker} afterwards. Kept apart from the lanes that only read, so that a
+   * delete neither waits behind list downloads nor holds up a detail screen.
+   */
+  OPERATIONS(4, Process.THREAD_PRIORITY_BACKGROUND),
+  /**
+   * Writing downloaded resources to local storage.
+   */
+  SYNC(1, Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE);
+
+  public static final String METRIC_PREFIX = "lane.";
+  public static final String METRIC_TASKS = ".tasks";
+  public static final String METRIC_MAX_QUEUE_DEPTH = ".maxQueueDepth";
+  public static final String METRIC_QUEUE_WAIT_MILLIS = ".queueWaitMillis";
+
+  private final int mThreadLimit;
+  private final LaneExecutor mExecutor;
+
+  private TaskLane(int threadLimit, int threadPriority) {
+    mThreadLimit = threadLimit;
+    mExecutor = new LaneExecutor(name(), threadLimit, threadPriority);
+  }
+
+  /**
+   * Maximum number of tasks of the lane running at the same time.
+   */
+  public int getThreadLimit() {
+    return mThreadLimit;
+  }
+
+  /**
+   * Executor running the tasks of the lane, for work that is not a {@code ComputeTask}.
+   */
+  public Executor getExecutor() {
+    return mExecutor;
+  }
+
+  public void execute(Runnable runnable) {
+    mExecutor.execute(runnable);
+  }
+
+  /**
+   * Number of tasks waiting for a thread of the lane.
+   */
+  public int getQueueDepth() {
+    return mExecutor.getQueue().size();
+  }
+
+  /**
+   * A task with the time it was queued.
+   */
+  private static class QueuedTask implements Runnable {
+    final Runnable task;
+    final long queuedMillis = SystemClock.elapsedRealtime();
+
+    QueuedTask(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      task.run();
+    }
+  }
+
+  /**
+   * Bounded executor of a lane. Threads are allowed to time out so that an idle lane holds no
+   * threads.
+   */
+  private static class LaneExecutor extends ThreadPoolExecutor {
+    private final String mMetricPrefix;
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+    LaneExecutor(final String name, int threadLimit, final int threadPriority) {
+      super(threadLimit, threadLimit, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+              return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                  Process.setThreadPriority(threadPriority);
+                  runnable.run();
+                }
+              }, name + " #" + mCount.incrementAndGet());
+            }
+          });
+      allowCoreThreadTimeOut(true);
+      mMetricPrefix = METRIC_PREFIX + name;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      super.execute(new QueuedTask(command));
+      AppMetrics.increment(mMetricPrefix + METRIC_TASKS, 1L);
+      int queueDepth = getQueue().size();
+      int maxQueueDepth = mMaxQueueDepth.get();
+      while (queueDepth > maxQueueDepth) {
+        if (mMaxQueueDepth.compareAndSet(maxQueueDepth, queueDepth)) {
+          AppMetrics.record(mMetricPrefix + METRIC_MAX_QUEUE_DEPTH, queueDepth);
+          break;
+        }
+        maxQueueDepth = mMaxQueueDepth.get();
+      }
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+      super.beforeExecute(thread, runnable);
+      if (runnable instanceof QueuedTask) {
+        AppMetrics.increment(mMetricPrefix + METRIC_QUEUE_WAIT_MILLIS,
+            SystemClock.elapsedRealtime() - ((QueuedTask) runnable).queuedMillis);
+      }
+    }
+  }
+}
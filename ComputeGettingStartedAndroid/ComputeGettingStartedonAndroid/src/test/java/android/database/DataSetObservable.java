@@ -0,0 +1,38 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+/**
+ * JVM stand-in for the framework data set observable, used by unit tests running without
+ * android.jar.
+ */
+public class DataSetObservable extends Observable<DataSetObserver> {
+  public void notifyChanged() {
+    synchronized (mObservers) {
+      for (int i = mObservers.size() - 1; i >= 0; i--) {
+        mObservers.get(i).onChanged();
+      }
+    }
+  }
+
+  public void notifyInvalidated() {
+    synchronized (mObservers) {
+      for (int i = mObservers.size() - 1; i >= 0; i--) {
+        mObservers.get(i).onInvalidated();
+      }
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Tests {@link CancellationScope}.
+ */
+public class CancellationScopeTest {
+  private static final long TIMEOUT_MILLIS = 5000L;
+
+  @Test
+  public void cancelDisconnectsTheResponsesBeingRead() throws Exception {
+    CancellationScope scope = new CancellationScope();
+    MockLowLevelHttpResponse lowLevelResponse = new MockLowLevelHttpResponse();
+    HttpResponse response = newResponse(lowLevelResponse);
+
+    CancellationScope previous = scope.enter();
+    try {
+      CancellationScope.register(response);
+      assertSame(scope, CancellationScope.current());
+      scope.cancel();
+      assertTrue(CancellationScope.isCurrentCancelled());
+    } finally {
+      scope.exit(previous);
+    }
+
+    long deadlineMillis = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (!lowLevelResponse.isDisconnected() && System.currentTimeMillis() < deadlineMillis) {
+      Thread.sleep(10L);
+    }
+    assertTrue(lowLevelResponse.isDisconnected());
+    assertNull(CancellationScope.current());
+  }
+
+  @Test
+  public void responsesArrivingAfterCancellationAreDropped() throws Exception {
+    CancellationScope scope = new CancellationScope();
+    scope.cancel();
+    MockLowLevelHttpResponse lowLevelResponse = new MockLowLevelHttpResponse();
+
+    CancellationScope previous = scope.enter();
+    try {
+      CancellationScope.register(newResponse(lowLevelResponse));
+      fail();
+    } catch (InterruptedIOException e) {
+      assertTrue(lowLevelResponse.isDisconnected());
+    } finally {
+      scope.exit(previous);
+    }
+  }
+
+  @Test
+  public void responsesOutsideAScopeAreLeftAlone() throws Exception {
+    CancellationScope scope = new CancellationScope();
+    MockLowLevelHttpResponse lowLevelResponse = new MockLowLevelHttpResponse();
+
+    CancellationScope.register(newResponse(lowLevelResponse));
+    scope.cancel();
+
+    assertFalse(CancellationScope.isCurrentCancelled());
+    assertFalse(lowLevelResponse.isDisconnected());
+  }
+
+  @Test
+  public void wrappedRunnablesWorkForTheScope() {
+    final CancellationScope scope = new CancellationScope();
+    final CancellationScope[] current = new CancellationScope[1];
+
+    scope.wrap(new Runnable() {
+      @Override
+      public void run() {
+        current[0] = CancellationScope.current();
+      }
+    }).run();
+
+    assertSame(scope, current[0]);
+    assertNull(CancellationScope.current());
+  }
+
+  private static HttpResponse newResponse(final MockLowLevelHttpResponse lowLevelResponse)
+      throws Exception {
+    MockHttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest(url).setResponse(lowLevelResponse);
+      }
+    };
+    return transport.createRequestFactory()
+        .buildGetRequest(new GenericUrl("https://www.googleapis.com/compute/v1/projects/p"))
+        .execute();
+  }
+}
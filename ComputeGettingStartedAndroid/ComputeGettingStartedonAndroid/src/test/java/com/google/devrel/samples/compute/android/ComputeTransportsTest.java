@@ -0,0 +1,142 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonObjectParser;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests the request configuration of the {@link ComputeTransports} profiles and the measurement of
+ * the requests made through them.
+ */
+public class ComputeTransportsTest {
+  private static final GenericUrl URL =
+      new GenericUrl("https://www.googleapis.com/compute/v1/projects/test-project/zones");
+
+  private byte[] mPage;
+  private byte[] mCompressedPage;
+
+  @Before
+  public void setUp() throws Exception {
+    mPage = ("{\"kind\":\"compute#zoneList\",\"items\":[{\"name\":\"us-central1-a\"},"
+        + "{\"name\":\"europe-west1-b\"}]}").getBytes(Charsets.UTF_8);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+    gzip.write(mPage);
+    gzip.close();
+    mCompressedPage = compressed.toByteArray();
+  }
+
+  @Test
+  public void pooledProfileSetsTimeouts() throws Exception {
+    HttpRequest request = newMockRequest();
+    ComputeTransports.POOLED.initialize(request);
+
+    assertEquals(ComputeTransports.CONNECT_TIMEOUT_MILLIS, request.getConnectTimeout());
+    assertEquals(ComputeTransports.READ_TIMEOUT_MILLIS, request.getReadTimeout());
+  }
+
+  @Test
+  public void compatibleProfileKeepsTheLibraryDefaults() throws Exception {
+    HttpRequest request = newMockRequest();
+    HttpRequest defaults = newMockRequest();
+    ComputeTransports.COMPATIBLE.initialize(request);
+
+    assertEquals(defaults.getConnectTimeout(), request.getConnectTimeout());
+    assertEquals(defaults.getReadTimeout(), request.getReadTimeout());
+  }
+
+  @Test
+  public void compressedResponsesWithoutALengthAreMeasuredFromTheirContent() throws Exception {
+    ComputeTransports.setProfile(ComputeTransports.POOLED);
+    final AtomicInteger intercepted = new AtomicInteger();
+    HttpRequestFactory requestFactory = new GzipTransport().createRequestFactory(
+        ComputeTransports.wrap(new HttpRequestInitializer() {
+          @Override
+          public void initialize(HttpRequest request) {
+            request.setParser(new JsonObjectParser(new GsonFactory()));
+            request.setResponseInterceptor(new HttpResponseInterceptor() {
+              @Override
+              public void interceptResponse(HttpResponse response) {
+                intercepted.incrementAndGet();
+              }
+            });
+          }
+        }));
+    long requests = AppMetrics.get(ComputeTransports.METRIC_REQUESTS);
+    long responseBytes = AppMetrics.get(ComputeTransports.METRIC_RESPONSE_BYTES);
+
+    // Parsed by the client.
+    GenericJson zones = requestFactory.buildGetRequest(URL).execute().parseAs(GenericJson.class);
+    assertEquals("compute#zoneList", zones.get("kind"));
+    // Read unparsed, as list pages are decoded.
+    InputStream content =
+        ComputeTransports.getContent(requestFactory.buildGetRequest(URL).execute());
+    try {
+      assertEquals(mPage.length, ByteStreams.toByteArray(content).length);
+    } finally {
+      content.close();
+    }
+
+    assertEquals(2, intercepted.get());
+    assertEquals(requests + 2, AppMetrics.get(ComputeTransports.METRIC_REQUESTS));
+    assertEquals(responseBytes + 2 * mPage.length,
+        AppMetrics.get(ComputeTransports.METRIC_RESPONSE_BYTES));
+  }
+
+  private static HttpRequest newMockRequest() throws IOException {
+    return new MockHttpTransport().createRequestFactory().buildGetRequest(URL);
+  }
+
+  /**
+   * Answers every request with the compressed page and no content length, as a chunked response
+   * does.
+   */
+  private class GzipTransport extends MockHttpTransport {
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest(url).setResponse(new MockLowLevelHttpResponse()
+          .setContentType("application/json; charset=UTF-8")
+          .setContentEncoding("gzip")
+          .setContent(new ByteArrayInputStream(mCompressedPage)));
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests {@link RetryPolicy} on requests configured the way {@link ComputeTransports} does, by an
+ * initializer running before the request method is set.
+ */
+public class RetryPolicyTest {
+  private static final GenericUrl URL =
+      new GenericUrl("https://www.googleapis.com/compute/v1/projects/test-project");
+
+  @Test
+  public void failedGetIsRetried() throws Exception {
+    ScriptedTransport transport = new ScriptedTransport(503, 200);
+    long retries = AppMetrics.get(RetryPolicy.METRIC_RETRIES);
+
+    HttpResponse response = newRequestFactory(transport, null).buildGetRequest(URL).execute();
+
+    assertEquals(200, response.getStatusCode());
+    assertEquals(2, transport.getRequestCount());
+    assertEquals(retries + 1, AppMetrics.get(RetryPolicy.METRIC_RETRIES));
+  }
+
+  @Test
+  public void getIsRetriedAfterANetworkError() throws Exception {
+    ScriptedTransport transport = new ScriptedTransport(-1, 200);
+
+    HttpResponse response = newRequestFactory(transport, null).buildGetRequest(URL).execute();
+
+    assertEquals(200, response.getStatusCode());
+    assertEquals(2, transport.getRequestCount());
+  }
+
+  @Test
+  public void getIsNotRetriedOnAThreadWithRetriesDisabled() throws Exception {
+    ScriptedTransport transport = new ScriptedTransport(503, 200);
+
+    boolean retriesEnabled = RetryPolicy.setRetriesEnabledOnThread(false);
+    try {
+      newRequestFactory(transport, null).buildGetRequest(URL).execute();
+      fail();
+    } catch (HttpResponseException e) {
+      assertEquals(503, e.getStatusCode());
+    } finally {
+      RetryPolicy.setRetriesEnabledOnThread(retriesEnabled);
+    }
+    assertEquals(1, transport.getRequestCount());
+    assertTrue(retriesEnabled);
+  }
+
+  @Test
+  public void failedPostIsNotRetried() throws Exception {
+    ScriptedTransport transport = new ScriptedTransport(503, 200);
+
+    try {
+      newRequestFactory(transport, null).buildPostRequest(URL, newContent()).execute();
+      fail();
+    } catch (HttpResponseException e) {
+      assertEquals(503, e.getStatusCode());
+    }
+    assertEquals(1, transport.getRequestCount());
+  }
+
+  @Test
+  public void postIsNotRetriedAfterANetworkError() throws Exception {
+    ScriptedTransport transport = new ScriptedTransport(-1, 200);
+
+    try {
+      newRequestFactory(transport, null).buildPostRequest(URL, newContent()).execute();
+      fail();
+    } catch (IOException e) {
+      assertTrue(!(e instanceof HttpResponseException));
+    }
+    assertEquals(1, transport.getRequestCount());
+  }
+
+  @Test
+  public void previousHandlerStillHandlesEveryMethod() throws Exception {
+    // Stands in for the handler refreshing expired tokens.
+    HttpUnsuccessfulResponseHandler refreshingHandler = new HttpUnsuccessfulResponseHandler() {
+      @Override
+      public boolean handleResponse(HttpRequest request, HttpResponse response,
+          boolean supportsRetry) {
+        return response.getStatusCode() == 401;
+      }
+    };
+    ScriptedTransport transport = new ScriptedTransport(401, 200);
+
+    HttpResponse response = newRequestFactory(transport, refreshingHandler)
+        .buildPostRequest(URL, newContent()).execute();
+
+    assertEquals(200, response.getStatusCode());
+    assertEquals(2, transport.getRequestCount());
+  }
+
+  private static HttpRequestFactory newRequestFactory(MockHttpTransport transport,
+      final HttpUnsuccessfulResponseHandler handler) {
+    return transport.createRequestFactory(new HttpRequestInitializer() {
+      @Override
+      public void initialize(HttpRequest request) {
+        request.setUnsuccessfulResponseHandler(handler);
+        RetryPolicy.install(request);
+      }
+    });
+  }
+
+  private static ByteArrayContent newContent() {
+    return ByteArrayContent.fromString("application/json", "{\"name\":\"instance-1\"}");
+  }
+
+  /**
+   * Answers requests with a list of status codes, failing with a network error for {@code -1}.
+   */
+  private static class ScriptedTransport extends MockHttpTransport {
+    private final List<Integer> mStatusCodes;
+    private int mRequestCount = 0;
+
+    ScriptedTransport(Integer... statusCodes) {
+      mStatusCodes = new ArrayList<Integer>(Arrays.asList(statusCodes));
+    }
+
+    int getRequestCount() {
+      return mRequestCount;
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest(url) {
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          int statusCode = mStatusCodes.remove(0);
+          mRequestCount++;
+          if (statusCode == -1) {
+            throw new IOException("Connection reset");
+          }
+          return new MockLowLevelHttpResponse().setStatusCode(statusCode);
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Tests {@link Rfc3339} on hand-picked timestamps and against {@code GregorianCalendar} on random
+ * ones.
+ */
+public class Rfc3339Test {
+  private static final long DEFAULT_MILLIS = -42L;
+
+  @Test
+  public void epochIsZero() {
+    assertEquals(0L, Rfc3339.parse("1970-01-01T00:00:00Z"));
+  }
+
+  @Test
+  public void offsetsAreSubtracted() {
+    long utc = Rfc3339.parse("2013-06-26T17:29:42.830Z");
+    assertEquals(1372267782830L, utc);
+    assertEquals(utc, Rfc3339.parse("2013-06-26T10:29:42.830-07:00"));
+    assertEquals(utc, Rfc3339.parse("2013-06-26T22:59:42.830+05:30"));
+    assertEquals(utc, Rfc3339.parse("2013-06-26T17:29:42.830+00:00"));
+    assertEquals(utc, Rfc3339.parse("2013-06-26T17:29:42.830-00:00"));
+    // The offset moves the date across midnight and the end of the year.
+    assertEquals(Rfc3339.parse("2014-01-01T02:00:00Z"),
+        Rfc3339.parse("2013-12-31T23:00:00-03:00"));
+  }
+
+  @Test
+  public void fractionsOfSecondsAreReadToTheMillisecond() {
+    long second = Rfc3339.parse("2013-06-26T17:29:42Z");
+    assertEquals(second + 800L, Rfc3339.parse("2013-06-26T17:29:42.8Z"));
+    assertEquals(second + 830L, Rfc3339.parse("2013-06-26T17:29:42.83Z"));
+    assertEquals(second + 830L, Rfc3339.parse("2013-06-26T17:29:42.830Z"));
+    assertEquals(second + 7L, Rfc3339.parse("2013-06-26T17:29:42.007Z"));
+    // Digits beyond milliseconds are truncated.
+    assertEquals(second + 830L, Rfc3339.parse("2013-06-26T17:29:42.830999999Z"));
+    assertEquals(second + 830L, Rfc3339.parse("2013-06-26T10:29:42.8301-07:00"));
+  }
+
+  @Test
+  public void leapSecondIsFoldedIntoTheLastSecondOfItsMinute() {
+    assertEquals(Rfc3339.parse("2016-12-31T23:59:59Z"), Rfc3339.parse("2016-12-31T23:59:60Z"));
+    assertEquals(Rfc3339.parse("1998-12-31T23:59:59.5Z"),
+        Rfc3339.parse("1998-12-31T23:59:60.5Z"));
+    assertEquals(Rfc3339.parse("2016-12-31T23:59:59Z"),
+        Rfc3339.parse("2016-12-31T15:59:60-08:00"));
+  }
+
+  @Test
+  public void lowerCaseAndSpaceSeparatorsAreAccepted() {
+    long expected = Rfc3339.parse("2013-06-26T17:29:42.830Z");
+    assertEquals(expected, Rfc3339.parse("2013-06-26t17:29:42.830z"));
+    assertEquals(expected, Rfc3339.parse("2013-06-26t17:29:42.830Z"));
+    assertEquals(expected, Rfc3339.parse("2013-06-26T17:29:42.830z"));
+    assertEquals(expected, Rfc3339.parse("2013-06-26 17:29:42.830Z"));
+  }
+
+  @Test
+  public void datesBeforeTheEpochAreNegative() {
+    assertEquals(-1L, Rfc3339.parse("1969-12-31T23:59:59.999Z"));
+    assertEquals(-1000L, Rfc3339.parse("1970-01-01T00:59:59+01:00"));
+    assertEquals(-2208988800000L, Rfc3339.parse("1900-01-01T00:00:00Z"));
+    assertEquals(-11644473600000L, Rfc3339.parse("1601-01-01T00:00:00Z"));
+    // Proleptic Gregorian calendar, as RFC 3339 requires, rather than the Julian one.
+    assertEquals(-62135596800000L, Rfc3339.parse("0001-01-01T00:00:00Z"));
+    assertEquals(-62167219200000L, Rfc3339.parse("0000-01-01T00:00:00Z"));
+  }
+
+  @Test
+  public void leapDaysFollowTheGregorianRules() {
+    assertEquals(Rfc3339.parse("2000-03-01T00:00:00Z") - 86400000L,
+        Rfc3339.parse("2000-02-29T00:00:00Z"));
+    assertEquals(Rfc3339.parse("1600-03-01T00:00:00Z") - 86400000L,
+        Rfc3339.parse("1600-02-29T00:00:00Z"));
+    assertInvalid("1900-02-29T00:00:00Z");
+    assertInvalid("2013-02-29T00:00:00Z");
+  }
+
+  @Test
+  public void invalidInputReturnsTheDefault() {
+    assertEquals(DEFAULT_MILLIS, Rfc3339.parse(null, DEFAULT_MILLIS));
+    String[] invalidValues = {
+        "",
+        "2013-06-26",
+        "2013-06-26T17:29:42",
+        "2013-06-26T17:29:42.Z",
+        "2013-06-26T17:29:42.830",
+        "2013-06-26T17:29:42+0700",
+        "2013-06-26T17:29:42+07",
+        "2013-06-26T17:29:42ZZ",
+        "2013-06-26T17:29:42Z ",
+        "2013-06-26X17:29:42Z",
+        "2013/06/26T17:29:42Z",
+        "13-06-26T17:29:42.830Z",
+        "2013-6-26T17:29:42.830Z",
+        "2013-00-26T17:29:42Z",
+        "2013-13-26T17:29:42Z",
+        "2013-06-00T17:29:42Z",
+        "2013-06-31T17:29:42Z",
+        "2013-06-26T24:00:00Z",
+        "2013-06-26T17:60:42Z",
+        "2013-06-26T17:29:61Z",
+        "-013-06-26T17:29:42Z",
+        "2013-06-26T17:29:4aZ",
+        "not a timestamp at all",
+    };
+    for (String value : invalidValues) {
+      assertInvalid(value);
+    }
+  }
+
+  /**
+   * Formats random instants from year 1 to 9999 with random offsets and fractions, and checks
+   * that they parse back to the instant computed by a proleptic {@code GregorianCalendar}.
+   */
+  @Test
+  public void randomTimestampsMatchGregorianCalendar() {
+    Random random = new Random(3339L);
+    GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+    for (int i = 0; i < 100000; i++) {
+      int year = 1 + random.nextInt(9999);
+      int month = 1 + random.nextInt(12);
+      calendar.clear();
+      calendar.set(year, month - 1, 1);
+      int day = 1 + random.nextInt(calendar.getActualMaximum(Calendar.DAY_OF_MONTH));
+      int hour = random.nextInt(24);
+      int minute = random.nextInt(60);
+      int second = random.nextInt(60);
+      int millis = random.nextInt(1000);
+      int offsetMinutes = random.nextInt(2 * 24 * 60 - 1) - (24 * 60 - 1);
+
+      calendar.set(year, month - 1, day, hour, minute, second);
+      calendar.set(Calendar.MILLISECOND, millis);
+      long expected = calendar.getTimeInMillis() - offsetMinutes * 60000L;
+
+      String value = String.format("%04d-%02d-%02dT%02d:%02d:%02d.%03d%s", year, month, day,
+          hour, minute, second, millis, formatOffset(offsetMinutes));
+      assertEquals(value, expected, Rfc3339.parse(value));
+    }
+  }
+
+  private static String formatOffset(int offsetMinutes) {
+    if (offsetMinutes == 0) {
+      return "Z";
+    }
+    int absoluteMinutes = Math.abs(offsetMinutes);
+    return String.format("%c%02d:%02d", (offsetMinutes < 0) ? '-' : '+', absoluteMinutes / 60,
+        absoluteMinutes % 60);
+  }
+
+  private static void assertInvalid(String value) {
+    assertEquals(value, DEFAULT_MILLIS, Rfc3339.parse(value, DEFAULT_MILLIS));
+    try {
+      Rfc3339.parse(value);
+      fail("Parsed invalid timestamp " + value);
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,334 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link TokenManager} with a fake token source, a fake ticker and a scheduler whose tasks
+ * are run by hand.
+ */
+public class TokenManagerTest {
+  private static final String ACCOUNT = "user@example.com";
+  private static final String OTHER_ACCOUNT = "other@example.com";
+  private static final String SCOPE = "oauth2:https://www.googleapis.com/auth/compute";
+
+  private FakeTokenSource mTokenSource;
+  private FakeTicker mTicker;
+  private FakeScheduler mScheduler;
+  private TokenManager mTokenManager;
+
+  @Before
+  public void setUp() {
+    mTokenSource = new FakeTokenSource();
+    mTicker = new FakeTicker();
+    mScheduler = new FakeScheduler();
+    mTokenManager = new TokenManager(mTokenSource, mScheduler, mTicker);
+  }
+
+  @Test
+  public void cachedTokenIsReturnedWithoutFetching() throws Exception {
+    assertEquals("token-1", mTokenManager.getToken(ACCOUNT, SCOPE));
+    assertEquals("token-1", mTokenManager.getToken(ACCOUNT, SCOPE));
+    assertEquals(1, mTokenSource.fetches.get());
+  }
+
+  @Test
+  public void expiredTokenIsFetchedAgain() throws Exception {
+    mTokenManager.getToken(ACCOUNT, SCOPE);
+    mTicker.advance(TokenManager.TOKEN_LIFETIME_MILLIS);
+    assertEquals("token-2", mTokenManager.getToken(ACCOUNT, SCOPE));
+  }
+
+  @Test
+  public void proactiveRefreshInvalidatesTheTokenItReplaces() throws Exception {
+    mTokenManager.getToken(ACCOUNT, SCOPE);
+    assertEquals(1, mScheduler.pendingCount());
+    assertEquals(TokenManager.TOKEN_LIFETIME_MILLIS - TokenManager.REFRESH_AHEAD_MILLIS,
+        mScheduler.pending().get(0).getDelay(TimeUnit.MILLISECONDS));
+
+    mTicker.advance(TokenManager.TOKEN_LIFETIME_MILLIS - TokenManager.REFRESH_AHEAD_MILLIS);
+    mScheduler.runPending();
+
+    assertEquals(Lists.newArrayList("token-1"), mTokenSource.invalidated);
+    assertEquals("token-2", mTokenManager.getToken(ACCOUNT, SCOPE));
+    // Still served past the expiry of the replaced token.
+    mTicker.advance(TokenManager.REFRESH_AHEAD_MILLIS);
+    assertEquals("token-2", mTokenManager.getToken(ACCOUNT, SCOPE));
+    assertEquals(2, mTokenSource.fetches.get());
+  }
+
+  @Test
+  public void onlyOneRefreshIsScheduledPerKey() throws Exception {
+    mTokenManager.getToken(ACCOUNT, SCOPE);
+    for (int i = 0; i < 5; i++) {
+      // A rejected token and its refetch.
+      String token = mTokenManager.getToken(ACCOUNT, SCOPE);
+      mTokenManager.invalidate(ACCOUNT, SCOPE, token);
+      mTokenManager.getToken(ACCOUNT, SCOPE);
+      // The scheduled refresh fetches and schedules the next one.
+      mScheduler.runPending();
+      assertEquals(1, mScheduler.pendingCount());
+    }
+    mTokenManager.getToken(OTHER_ACCOUNT, SCOPE);
+    assertEquals(2, mScheduler.pendingCount());
+  }
+
+  @Test
+  public void invalidateCancelsTheScheduledRefresh() throws Exception {
+    String token = mTokenManager.getToken(ACCOUNT, SCOPE);
+    mTokenManager.invalidate(ACCOUNT, SCOPE, token);
+    assertEquals(0, mScheduler.pendingCount());
+    assertEquals("token-2", mTokenManager.getToken(ACCOUNT, SCOPE));
+  }
+
+  @Test
+  public void clearCancelsEveryScheduledRefresh() throws Exception {
+    mTokenManager.getToken(ACCOUNT, SCOPE);
+    mTokenManager.getToken(OTHER_ACCOUNT, SCOPE);
+    mTokenManager.clear();
+    assertEquals(0, mScheduler.pendingCount());
+    assertEquals("token-3", mTokenManager.getToken(ACCOUNT, SCOPE));
+  }
+
+  @Test
+  public void clearOtherAccountsKeepsTheSelectedAccount() throws Exception {
+    mTokenManager.getToken(ACCOUNT, SCOPE);
+    mTokenManager.getToken(OTHER_ACCOUNT, SCOPE);
+    mTokenManager.clearOtherAccounts(ACCOUNT);
+    assertEquals(1, mScheduler.pendingCount());
+    assertEquals("token-1", mTokenManager.getToken(ACCOUNT, SCOPE));
+    assertEquals("token-3", mTokenManager.getToken(OTHER_ACCOUNT, SCOPE));
+  }
+
+  @Test
+  public void refreshStartedBeforeClearIsNotCached() throws Exception {
+    mTokenManager.prefetch(ACCOUNT, SCOPE);
+    mTokenManager.clear();
+    mScheduler.runPending();
+    assertEquals(0, mScheduler.pendingCount());
+    assertEquals("token-2", mTokenManager.getToken(ACCOUNT, SCOPE));
+  }
+
+  @Test
+  public void concurrentCallersShareOneFetch() throws Exception {
+    final CountDownLatch fetchStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFetch = new CountDownLatch(1);
+    mTokenSource.fetchStarted = fetchStarted;
+    mTokenSource.releaseFetch = releaseFetch;
+
+    List<Thread> threads = Lists.newArrayList();
+    final List<String> tokens = Lists.newArrayList();
+    for (int i = 0; i < 4; i++) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            String token = mTokenManager.getToken(ACCOUNT, SCOPE);
+            synchronized (tokens) {
+              tokens.add(token);
+            }
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    assertTrue(fetchStarted.await(5, TimeUnit.SECONDS));
+    // Give the other callers time to join the fetch in flight.
+    Thread.sleep(100);
+    releaseFetch.countDown();
+    for (Thread thread : threads) {
+      thread.join(5000);
+    }
+
+    assertEquals(1, mTokenSource.fetches.get());
+    assertEquals(Lists.newArrayList("token-1", "token-1", "token-1", "token-1"), tokens);
+  }
+
+  /**
+   * Hands out {@code token-1}, {@code token-2}, ... and records invalidated tokens.
+   */
+  private static class FakeTokenSource implements TokenSource {
+    final AtomicInteger fetches = new AtomicInteger();
+    final List<String> invalidated = Lists.newArrayList();
+    volatile CountDownLatch fetchStarted;
+    volatile CountDownLatch releaseFetch;
+
+    @Override
+    public String fetchToken(String account, String scope) {
+      if (fetchStarted != null) {
+        fetchStarted.countDown();
+        try {
+          releaseFetch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return "token-" + fetches.incrementAndGet();
+    }
+
+    @Override
+    public synchronized void invalidateToken(String token) {
+      invalidated.add(token);
+    }
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long mNanos = 0L;
+
+    void advance(long millis) {
+      mNanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public long read() {
+      return mNanos;
+    }
+  }
+
+  /**
+   * Scheduler queuing its tasks until {@link #runPending()}; delays are only recorded.
+   */
+  private static class FakeScheduler extends AbstractExecutorService
+      implements ScheduledExecutorService {
+    private final List<FakeScheduledFuture<?>> mTasks = Lists.newArrayList();
+
+    List<FakeScheduledFuture<?>> pending() {
+      for (Iterator<FakeScheduledFuture<?>> iterator = mTasks.iterator(); iterator.hasNext(); ) {
+        if (iterator.next().isDone()) {
+          iterator.remove();
+        }
+      }
+      return mTasks;
+    }
+
+    int pendingCount() {
+      return pending().size();
+    }
+
+    /**
+     * Run the tasks pending now; tasks they schedule stay pending.
+     */
+    void runPending() {
+      for (FakeScheduledFuture<?> task : Lists.newArrayList(pending())) {
+        task.run();
+      }
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      return add(new FakeScheduledFuture<Object>(command, unit.toMillis(delay)));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+      return add(new FakeScheduledFuture<V>(callable, unit.toMillis(delay)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+        long period, TimeUnit unit) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+        long delay, TimeUnit unit) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      schedule(command, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Lists.newArrayList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+
+    private <V> FakeScheduledFuture<V> add(FakeScheduledFuture<V> task) {
+      mTasks.add(task);
+      return task;
+    }
+  }
+
+  private static class FakeScheduledFuture<V> extends FutureTask<V> implements ScheduledFuture<V> {
+    private final long mDelayMillis;
+
+    FakeScheduledFuture(Runnable runnable, long delayMillis) {
+      super(runnable, null);
+      mDelayMillis = delayMillis;
+    }
+
+    FakeScheduledFuture(Callable<V> callable, long delayMillis) {
+      super(callable);
+      mDelayMillis = delayMillis;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(mDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      long otherDelayMillis = other.getDelay(TimeUnit.MILLISECONDS);
+      return (mDelayMillis < otherDelayMillis) ? -1 : ((mDelayMillis == otherDelayMillis) ? 0 : 1);
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.dummy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.Section;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.ZoneItem;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord.MaintenanceWindow;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests {@link ResourceSearchIndex}.
+ */
+public class ResourceSearchIndexTest {
+  private static final String BASE_LINK =
+      "https://www.googleapis.com/compute/v1/projects/test-project/zones/us-central1-a/";
+
+  private static final int INDEX_SIZE = 50000;
+
+  private ResourceSearchIndex mIndex;
+
+  @Before
+  public void setUp() {
+    mIndex = new ResourceSearchIndex();
+  }
+
+  @Test
+  public void longTermsMatchAnywhereInNamesTagsAndDescriptions() {
+    InstanceItem web = newInstance("web-frontend", "Serves the Storefront", "http-server");
+    InstanceItem db = newInstance("db-master", null, "mysql");
+    DiskItem disk = newDisk("web-frontend-boot", "Boot disk");
+    mIndex.addAll(Arrays.asList(web, db, disk));
+
+    assertEquals(ImmutableList.of(web, disk), mIndex.search("FRONT"));
+    assertEquals(ImmutableList.of(web), mIndex.search("storefront"));
+    assertEquals(ImmutableList.of(web), mIndex.search("p-ser"));
+    assertEquals(ImmutableList.of(db), mIndex.search("sql"));
+    assertEquals(Collections.emptyList(), mIndex.search("backend"));
+  }
+
+  @Test
+  public void shortTermsMatchTheStartOfAWord() {
+    InstanceItem web = newInstance("web-frontend", null);
+    InstanceItem db = newInstance("db-master", "Database");
+    mIndex.addAll(Arrays.asList(web, db));
+
+    assertEquals(ImmutableList.of(db), mIndex.search("db"));
+    assertEquals(ImmutableList.of(db), mIndex.search("d"));
+    assertEquals(ImmutableList.of(web), mIndex.search("fr"));
+    // "as" only occurs inside words.
+    assertEquals(Collections.emptyList(), mIndex.search("as"));
+  }
+
+  @Test
+  public void everyTermMustMatch() {
+    InstanceItem webA = newInstance("web-a", "Europe", "http-server");
+    InstanceItem webB = newInstance("web-b", "America", "http-server");
+    mIndex.addAll(Arrays.asList(webA, webB));
+
+    assertEquals(ImmutableList.of(webA, webB), mIndex.search("  web   http "));
+    assertEquals(ImmutableList.of(webB), mIndex.search("http web america"));
+    assertEquals(ImmutableList.of(webB), mIndex.search("b web"));
+    assertEquals(Collections.emptyList(), mIndex.search("web asia"));
+    assertEquals(Collections.emptyList(), mIndex.search("   "));
+  }
+
+  @Test
+  public void removedResourcesAreNotFound() {
+    InstanceItem web = newInstance("web-frontend", null);
+    InstanceItem web2 = newInstance("web-backend", null);
+    mIndex.addAll(Arrays.asList(web, web2));
+
+    mIndex.remove(web);
+
+    assertEquals(ImmutableList.of(web2), mIndex.search("web"));
+    assertEquals(Collections.emptyList(), mIndex.search("front"));
+    mIndex.clear();
+    assertEquals(Collections.emptyList(), mIndex.search("web"));
+  }
+
+  @Test
+  public void onlyResourcesAreIndexed() {
+    mIndex.add(DummyContent.getLoadedHeader(Section.INSTANCES));
+    mIndex.add(new DummyContent.DummyPlaceholder(Section.INSTANCES, 0, 0));
+
+    assertEquals(Collections.emptyList(), mIndex.search("instances"));
+    assertEquals(Collections.emptyList(), mIndex.search("loading"));
+  }
+
+  @Test
+  public void resultsListInstancesThenDisksThenZonesByName() {
+    ZoneItem zone = new ZoneItem(new ZoneRecord(BASE_LINK, "us-central1-a", "UP",
+        Collections.<MaintenanceWindow>emptyList()));
+    DiskItem disk = newDisk("us-disk", null);
+    InstanceItem instanceB = newInstance("us-b", null);
+    InstanceItem instanceA = newInstance("US-a", null);
+    mIndex.addAll(Arrays.asList(zone, disk, instanceB, instanceA));
+
+    assertEquals(ImmutableList.of(instanceA, instanceB, disk, zone), mIndex.search("us"));
+  }
+
+  /**
+   * Matches beyond the result limit must not push out resources that come first in result order,
+   * whatever order the resources were indexed in.
+   */
+  @Test
+  public void firstMatchesInResultOrderAreReturnedWhenMoreMatch() {
+    int count = 4 * ResourceSearchIndex.MAX_RESULTS;
+    List<DummyItem> items = Lists.newArrayList();
+    for (int i = 0; i < count; i++) {
+      items.add(newDisk(String.format("vm-%05d", i), null));
+      items.add(newInstance(String.format("vm-%05d", i), null));
+    }
+    Collections.shuffle(items, new Random(17L));
+    mIndex.addAll(items);
+
+    for (String query : new String[] {"vm-", "vm", "vm 0"}) {
+      List<DummyItem> results = mIndex.search(query);
+      assertEquals(query, ResourceSearchIndex.MAX_RESULTS, results.size());
+      for (int i = 0; i < results.size(); i++) {
+        DummyItem result = results.get(i);
+        assertTrue(query, result instanceof InstanceItem);
+        assertEquals(query, String.format("vm-%05d", i), result.content);
+      }
+    }
+  }
+
+  /**
+   * Indexes {@link #INDEX_SIZE} Instances and Disks and checks that typical queries, from one
+   * character matching everything to rare terms, check the text of a small share of them rather
+   * than scanning the index. Counting the checked resources keeps the test independent of the
+   * speed of the machine running it.
+   */
+  @Test
+  public void queriesCheckASmallShareOfTheIndex() {
+    Random random = new Random(50000L);
+    String[] roles = {"web", "db", "cache", "worker", "batch", "proxy", "build", "monitor"};
+    String[] regions = {"us-central1", "europe-west1", "asia-east1"};
+    List<DummyItem> items = Lists.newArrayListWithCapacity(INDEX_SIZE);
+    for (int i = 0; i < INDEX_SIZE; i++) {
+      String role = roles[random.nextInt(roles.length)];
+      String name = role + "-" + regions[random.nextInt(regions.length)] + "-" + i;
+      if (i % 2 == 0) {
+        items.add(newInstance(name, "Runs the " + role + " tier of release " + random.nextInt(50),
+            role + "-server", "env-" + (i % 4 == 0 ? "prod" : "staging")));
+      } else {
+        items.add(newDisk(name + "-data", "Data disk of " + role));
+      }
+    }
+    mIndex.addAll(items);
+
+    String[] queries = {"w", "we", "web", "web prod", "europe db", "tier", "release 42",
+        "monitor-asia", "-4999", "cache staging 7", "nothing-matches"};
+    for (String query : queries) {
+      mIndex.search(query);
+      int checkedCount = mIndex.getLastCheckedCount();
+      assertTrue("\"" + query + "\" checked " + checkedCount + " resources",
+          checkedCount < INDEX_SIZE / 10);
+    }
+  }
+
+  private static InstanceItem newInstance(String name, String description, String... tags) {
+    return new InstanceItem(new InstanceRecord(BASE_LINK + "instances/" + name, name,
+        "us-central1-a", "RUNNING", description, null, 0L, Arrays.asList(tags)), null);
+  }
+
+  private static DiskItem newDisk(String name, String description) {
+    return new DiskItem(new DiskRecord(BASE_LINK + "disks/" + name, name, "us-central1-a",
+        "READY", description, 10L, 0L), null);
+  }
+}
@@ -0,0 +1,180 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.dummy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DiskItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.ZoneItem;
+import com.google.devrel.samples.compute.android.model.DiskRecord;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord;
+import com.google.devrel.samples.compute.android.model.ZoneRecord.MaintenanceWindow;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link SnapshotDiff}.
+ */
+public class SnapshotDiffTest {
+  private static final String BASE_LINK =
+      "https://www.googleapis.com/compute/v1/projects/test-project/zones/";
+
+  @Test
+  public void identicalSnapshotsHaveAnEmptyDiff() {
+    List<DummyItem> previous = Arrays.<DummyItem>asList(newInstance("web", "RUNNING"),
+        newDisk("web-boot", 10L));
+    List<DummyItem> items = Arrays.<DummyItem>asList(newInstance("web", "RUNNING"),
+        newDisk("web-boot", 10L));
+
+    SnapshotDiff diff = SnapshotDiff.compute(previous, items);
+
+    assertTrue(diff.isEmpty());
+    assertEquals(previous, diff.merged);
+  }
+
+  @Test
+  public void unchangedItemsKeepTheirPreviousInstance() {
+    InstanceItem previousWeb = newInstance("web", "RUNNING");
+    InstanceItem previousDb = newInstance("db", "RUNNING");
+    InstanceItem web = newInstance("web", "RUNNING");
+    InstanceItem db = newInstance("db", "STOPPING");
+
+    SnapshotDiff diff = SnapshotDiff.compute(Arrays.asList(previousWeb, previousDb),
+        Arrays.asList(web, db));
+
+    assertSame(previousWeb, diff.merged.get(0));
+    assertSame(db, diff.merged.get(1));
+    assertEquals(ImmutableList.of(db), diff.changed);
+    assertEquals(ImmutableList.of(previousDb), diff.replaced);
+    assertTrue(diff.inserted.isEmpty());
+    assertTrue(diff.removed.isEmpty());
+    assertFalse(diff.isEmpty());
+  }
+
+  @Test
+  public void insertedAndRemovedItemsAreMatchedById() {
+    InstanceItem previousWeb = newInstance("web", "RUNNING");
+    InstanceItem previousDb = newInstance("db", "RUNNING");
+    InstanceItem web = newInstance("web", "RUNNING");
+    InstanceItem cache = newInstance("cache", "PROVISIONING");
+
+    SnapshotDiff diff = SnapshotDiff.compute(Arrays.asList(previousWeb, previousDb),
+        Arrays.asList(cache, web));
+
+    assertEquals(ImmutableList.of(cache), diff.inserted);
+    assertEquals(ImmutableList.of(previousDb), diff.removed);
+    assertTrue(diff.changed.isEmpty());
+    assertEquals(ImmutableList.of(cache, previousWeb), diff.merged);
+  }
+
+  @Test
+  public void reorderedItemsMakeTheDiffNonEmpty() {
+    InstanceItem web = newInstance("web", "RUNNING");
+    InstanceItem db = newInstance("db", "RUNNING");
+
+    SnapshotDiff diff = SnapshotDiff.compute(Arrays.asList(web, db), Arrays.asList(db, web));
+
+    assertFalse(diff.isEmpty());
+    assertTrue(diff.inserted.isEmpty());
+    assertTrue(diff.removed.isEmpty());
+    assertTrue(diff.changed.isEmpty());
+    assertEquals(ImmutableList.of(db, web), diff.merged);
+  }
+
+  @Test
+  public void emptySnapshots() {
+    InstanceItem web = newInstance("web", "RUNNING");
+
+    assertTrue(SnapshotDiff.compute(Collections.<DummyItem>emptyList(),
+        Collections.<DummyItem>emptyList()).isEmpty());
+    SnapshotDiff cleared = SnapshotDiff.compute(Arrays.asList(web),
+        Collections.<DummyItem>emptyList());
+    assertEquals(ImmutableList.of(web), cleared.removed);
+    assertTrue(cleared.merged.isEmpty());
+    SnapshotDiff loaded = SnapshotDiff.compute(Collections.<DummyItem>emptyList(),
+        Arrays.asList(web));
+    assertEquals(ImmutableList.of(web), loaded.inserted);
+  }
+
+  @Test
+  public void fingerprintCoversTheDisplayedFields() {
+    long fingerprint = SnapshotDiff.getFingerprint(newInstance("web", "RUNNING"));
+    assertEquals(fingerprint, SnapshotDiff.getFingerprint(newInstance("web", "RUNNING")));
+    assertNotEquals(fingerprint, SnapshotDiff.getFingerprint(newInstance("web", "STOPPED")));
+    assertNotEquals(fingerprint, SnapshotDiff.getFingerprint(new InstanceItem(
+        new InstanceRecord(BASE_LINK + "us-central1-a/instances/web", "web", "us-central1-a",
+            "RUNNING", null, null, 0L, Arrays.asList("http-server")), null)));
+
+    InstanceItem withMessage = new InstanceItem(newInstance("web", "RUNNING").instance,
+        "Zone activity: maintenance");
+    assertNotEquals(fingerprint, SnapshotDiff.getFingerprint(withMessage));
+
+    assertNotEquals(SnapshotDiff.getFingerprint(newDisk("data", 10L)),
+        SnapshotDiff.getFingerprint(newDisk("data", 100L)));
+    assertNotEquals(SnapshotDiff.getFingerprint(newZone("us-central1-a", 0L)),
+        SnapshotDiff.getFingerprint(newZone("us-central1-a", 1000L)));
+  }
+
+  @Test
+  public void fingerprintSeparatesFields() {
+    // The same characters split differently between description and zone.
+    InstanceItem a = new InstanceItem(new InstanceRecord(BASE_LINK + "a/instances/web", "web",
+        "ab", "RUNNING", "c", null, 0L, null), null);
+    InstanceItem b = new InstanceItem(new InstanceRecord(BASE_LINK + "a/instances/web", "web",
+        "a", "RUNNING", "bc", null, 0L, null), null);
+    assertNotEquals(SnapshotDiff.getFingerprint(a), SnapshotDiff.getFingerprint(b));
+  }
+
+  @Test
+  public void stableIdsAreDistinct() {
+    ImmutableSet.Builder<Long> ids = ImmutableSet.builder();
+    int count = 10000;
+    for (int i = 0; i < count; i++) {
+      ids.add(newInstance(String.format("vm-%05d", i), "RUNNING").getStableId());
+    }
+    assertEquals(count, ids.build().size());
+    assertEquals(newInstance("web", "RUNNING").getStableId(),
+        newInstance("web", "STOPPED").getStableId());
+  }
+
+  private static InstanceItem newInstance(String name, String status) {
+    return new InstanceItem(new InstanceRecord(BASE_LINK + "us-central1-a/instances/" + name,
+        name, "us-central1-a", status, null, null, 0L, null), null);
+  }
+
+  private static DiskItem newDisk(String name, long sizeGb) {
+    return new DiskItem(new DiskRecord(BASE_LINK + "us-central1-a/disks/" + name, name,
+        "us-central1-a", "READY", null, sizeGb, 0L), null);
+  }
+
+  private static ZoneItem newZone(String name, long maintenanceBeginMillis) {
+    return new ZoneItem(new ZoneRecord(BASE_LINK + name, name, "UP", Arrays.asList(
+        new MaintenanceWindow(maintenanceBeginMillis, maintenanceBeginMillis + 3600000L))));
+  }
+}
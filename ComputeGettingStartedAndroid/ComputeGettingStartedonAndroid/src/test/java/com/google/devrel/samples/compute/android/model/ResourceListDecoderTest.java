@@ -0,0 +1,249 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.compute.model.InstanceAggregatedList;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.samples.compute.android.Rfc3339;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * Tests {@link ResourceListDecoder} on both response shapes and compares the memory it allocates
+ * with parsing the full API model, on synthetic pages of {@link #PAGE_SIZE} Instances.
+ */
+public class ResourceListDecoderTest {
+  private static final String BASE_LINK =
+      "https://www.googleapis.com/compute/v1/projects/test-project/";
+  private static final String[] ZONES = {"us-central1-a", "us-central1-b", "europe-west1-a"};
+
+  private static final int PAGE_SIZE = 500;
+  private static final int WARMUP_PAGES = 50;
+  private static final int MEASURED_PAGES = 50;
+
+  private final JsonFactory mJsonFactory = new GsonFactory();
+
+  @Test
+  public void aggregatedInstancesAreDecodedAcrossScopes() throws Exception {
+    ResourceListDecoder.Page<InstanceRecord> page =
+        ResourceListDecoder.INSTANCES.decode(mJsonFactory.createJsonParser(
+            aggregatedInstancePage(6, "token-2")));
+
+    assertEquals(6, page.items.size());
+    assertEquals("token-2", page.nextPageToken);
+    InstanceRecord first = page.items.get(0);
+    assertEquals("instance-0", first.name);
+    assertEquals(BASE_LINK + "zones/us-central1-a/instances/instance-0", first.selfLink);
+    assertEquals("us-central1-a", first.zone);
+    assertEquals("n1-standard-1", first.machineType);
+    assertEquals("RUNNING", first.status);
+    assertEquals("Instance 0", first.description);
+    assertEquals(Rfc3339.parse("2013-06-26T10:29:42.830-07:00"), first.creationTimeMillis);
+    assertEquals(ImmutableList.of("http-server", "tag-0"), first.tags);
+    // Every zone holds two of the six Instances; scopes without Instances carry a warning.
+    assertEquals("europe-west1-a", page.items.get(5).zone);
+  }
+
+  @Test
+  public void decodedStringsRepeatedAcrossResourcesAreShared() throws Exception {
+    List<InstanceRecord> items = ResourceListDecoder.INSTANCES.decode(
+        mJsonFactory.createJsonParser(aggregatedInstancePage(6, null))).items;
+
+    assertSame(items.get(0).zone, items.get(1).zone);
+    assertSame(items.get(0).status, items.get(3).status);
+  }
+
+  @Test
+  public void listShapeIsDecoded() throws Exception {
+    String json = "{\"kind\":\"compute#diskList\",\"id\":\"1\",\"items\":["
+        + "{\"kind\":\"compute#disk\",\"selfLink\":\"" + BASE_LINK
+        + "zones/us-central1-a/disks/disk-0\",\"name\":\"disk-0\",\"zone\":\"" + BASE_LINK
+        + "zones/us-central1-a\",\"status\":\"READY\",\"sizeGb\":\"100\","
+        + "\"creationTimestamp\":\"2013-06-26T17:29:42Z\",\"options\":{\"a\":[1,2,{\"b\":null}]}},"
+        + "{\"name\":\"disk-1\",\"description\":null,\"sizeGb\":null}"
+        + "]}";
+
+    ResourceListDecoder.Page<DiskRecord> page =
+        ResourceListDecoder.DISKS.decode(mJsonFactory.createJsonParser(json));
+
+    assertEquals(2, page.items.size());
+    assertNull(page.nextPageToken);
+    DiskRecord first = page.items.get(0);
+    assertEquals("disk-0", first.name);
+    assertEquals("us-central1-a", first.zone);
+    assertEquals("READY", first.status);
+    assertEquals(100L, first.sizeGb);
+    assertEquals(Rfc3339.parse("2013-06-26T10:29:42-07:00"), first.creationTimeMillis);
+    DiskRecord second = page.items.get(1);
+    assertEquals("disk-1", second.name);
+    assertNull(second.description);
+    assertEquals(0L, second.sizeGb);
+    assertEquals(0L, second.creationTimeMillis);
+  }
+
+  @Test
+  public void pageWithoutItemsIsEmpty() throws Exception {
+    ResourceListDecoder.Page<DiskRecord> page = ResourceListDecoder.DISKS.decode(
+        mJsonFactory.createJsonParser("{\"kind\":\"compute#diskList\",\"nextPageToken\":\"t\"}"));
+
+    assertTrue(page.items.isEmpty());
+    assertEquals("t", page.nextPageToken);
+  }
+
+  @Test(expected = IOException.class)
+  public void responseThatIsNotAnObjectIsRejected() throws Exception {
+    ResourceListDecoder.DISKS.decode(mJsonFactory.createJsonParser("[]"));
+  }
+
+  @Test
+  public void fieldMaskMatchesTheResponseShape() {
+    assertEquals("items/*/disks(selfLink,name,zone,status,description),nextPageToken",
+        ResourceListDecoder.DISKS.getFieldMask(true));
+    assertEquals("items(selfLink,name,zone,status,description,tags/items),nextPageToken",
+        ResourceListDecoder.INSTANCES.getFieldMask(false));
+  }
+
+  /**
+   * Decodes full aggregated pages, as returned without a field mask, with the streaming decoder
+   * and with the API model. The decoder must allocate at most half as many bytes per Instance as
+   * the model it replaces; it allocates about a quarter.
+   */
+  @Test
+  public void decoderAllocatesLessThanHalfOfModelParsing() throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    assumeTrue(allocations.isThreadAllocatedMemorySupported());
+    allocations.setThreadAllocatedMemoryEnabled(true);
+    long threadId = Thread.currentThread().getId();
+
+    String json = aggregatedInstancePage(PAGE_SIZE, "next-page");
+    Measurement decoder = new Measurement("ResourceListDecoder") {
+      @Override
+      int decodePage(String page) throws IOException {
+        return ResourceListDecoder.INSTANCES.decode(mJsonFactory.createJsonParser(page))
+            .items.size();
+      }
+    };
+    Measurement model = new Measurement("InstanceAggregatedList") {
+      @Override
+      int decodePage(String page) throws IOException {
+        return mJsonFactory.createJsonParser(page).parseAndClose(InstanceAggregatedList.class)
+            .getItems().size();
+      }
+    };
+    for (Measurement measurement : new Measurement[] {decoder, model}) {
+      measurement.run(json, WARMUP_PAGES);
+      long startBytes = allocations.getThreadAllocatedBytes(threadId);
+      measurement.run(json, MEASURED_PAGES);
+      measurement.bytes = allocations.getThreadAllocatedBytes(threadId) - startBytes;
+    }
+
+    assertTrue(decoder + " vs " + model, 2 * decoder.bytes < model.bytes);
+  }
+
+  private abstract static class Measurement {
+    final String name;
+    long bytes;
+
+    Measurement(String name) {
+      this.name = name;
+    }
+
+    abstract int decodePage(String page) throws IOException;
+
+    void run(String page, int pageCount) throws IOException {
+      for (int i = 0; i < pageCount; i++) {
+        // The model holds one Instance per scope and item, the decoder one record per item.
+        assertTrue(decodePage(page) > 0);
+      }
+    }
+
+    @Override
+    public String toString() {
+      long itemCount = (long) PAGE_SIZE * MEASURED_PAGES;
+      return String.format("%s: %d bytes allocated per Instance", name, bytes / itemCount);
+    }
+  }
+
+  /**
+   * An {@code aggregatedList} response page of full Instances spread evenly over {@link #ZONES},
+   * followed by a scope without Instances.
+   */
+  private static String aggregatedInstancePage(int instanceCount, String nextPageToken) {
+    StringBuilder json = new StringBuilder("{\"kind\":\"compute#instanceAggregatedList\",")
+        .append("\"id\":\"projects/test-project/aggregated/instances\",\"items\":{");
+    int perZone = (instanceCount + ZONES.length - 1) / ZONES.length;
+    for (int z = 0; z < ZONES.length; z++) {
+      json.append("\"zones/").append(ZONES[z]).append("\":{\"instances\":[");
+      for (int i = z * perZone; i < Math.min((z + 1) * perZone, instanceCount); i++) {
+        if (i > z * perZone) {
+          json.append(',');
+        }
+        appendInstance(json, ZONES[z], i);
+      }
+      json.append("]},");
+    }
+    json.append("\"zones/asia-east1-a\":{\"warning\":{\"code\":\"NO_RESULTS_ON_PAGE\",")
+        .append("\"message\":\"There are no results for scope 'zones/asia-east1-a' on this ")
+        .append("page.\",\"data\":[{\"key\":\"scope\",\"value\":\"zones/asia-east1-a\"}]}}}");
+    if (nextPageToken != null) {
+      json.append(",\"nextPageToken\":\"").append(nextPageToken).append('"');
+    }
+    json.append(",\"selfLink\":\"").append(BASE_LINK).append("aggregated/instances\"}");
+    return json.toString();
+  }
+
+  private static void appendInstance(StringBuilder json, String zone, int index) {
+    String zoneLink = BASE_LINK + "zones/" + zone;
+    json.append("{\"kind\":\"compute#instance\",\"id\":\"").append(1000000 + index)
+        .append("\",\"creationTimestamp\":\"2013-06-26T10:29:42.830-07:00\",")
+        .append("\"zone\":\"").append(zoneLink).append("\",")
+        .append("\"status\":\"RUNNING\",\"name\":\"instance-").append(index).append("\",")
+        .append("\"description\":\"Instance ").append(index).append("\",")
+        .append("\"tags\":{\"items\":[\"http-server\",\"tag-").append(index)
+        .append("\"],\"fingerprint\":\"42WmSpB8rSM=\"},")
+        .append("\"machineType\":\"").append(zoneLink).append("/machineTypes/n1-standard-1\",")
+        .append("\"canIpForward\":false,\"networkInterfaces\":[{\"network\":\"").append(BASE_LINK)
+        .append("global/networks/default\",\"networkIP\":\"10.240.0.").append(index % 250)
+        .append("\",\"name\":\"nic0\",\"accessConfigs\":[{\"kind\":\"compute#accessConfig\",")
+        .append("\"type\":\"ONE_TO_ONE_NAT\",\"name\":\"External NAT\",\"natIP\":\"8.35.0.")
+        .append(index % 250).append("\"}]}],\"disks\":[{\"kind\":\"compute#attachedDisk\",")
+        .append("\"type\":\"PERSISTENT\",\"mode\":\"READ_WRITE\",\"source\":\"").append(zoneLink)
+        .append("/disks/instance-").append(index).append("\",\"deviceName\":\"persistent-disk-0\",")
+        .append("\"index\":0,\"boot\":true}],\"metadata\":{\"kind\":\"compute#metadata\",")
+        .append("\"fingerprint\":\"6N7eHbJ8p+Q=\",\"items\":[{\"key\":\"startup-script\",")
+        .append("\"value\":\"#! /bin/bash\\napt-get update\\napt-get install -y apache2\\n\"}]},")
+        .append("\"serviceAccounts\":[{\"email\":\"default\",\"scopes\":[")
+        .append("\"https://www.googleapis.com/auth/devstorage.read_only\"]}],")
+        .append("\"scheduling\":{\"onHostMaintenance\":\"MIGRATE\",\"automaticRestart\":true},")
+        .append("\"selfLink\":\"").append(zoneLink).append("/instances/instance-").append(index)
+        .append("\"}");
+  }
+}
@@ -0,0 +1,127 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Tests {@link ResourceQuery}.
+ */
+public class ResourceQueryTest {
+  private static final String BASE_LINK =
+      "https://www.googleapis.com/compute/v1/projects/test-project/zones/";
+
+  @Test
+  public void parseReadsQualifiedTerms() {
+    ResourceQuery query = ResourceQuery.parse("  status:running frontend name:web-.* zone:eu-b ");
+
+    assertEquals("RUNNING", query.status);
+    assertEquals("web-.*", query.namePattern);
+    assertEquals("eu-b", query.zone);
+    assertFalse(query.isEmpty());
+    assertEquals("frontend", ResourceQuery.stripQualifiers(
+        "  status:running frontend name:web-.* zone:eu-b "));
+  }
+
+  @Test
+  public void parseIgnoresFreeTextAndEmptyQualifiers() {
+    assertSame(ResourceQuery.ALL, ResourceQuery.parse("web frontend"));
+    assertEquals(ResourceQuery.ALL, ResourceQuery.parse("status: name: zone:"));
+    assertTrue(ResourceQuery.parse("").isEmpty());
+    assertEquals("web frontend", ResourceQuery.stripQualifiers("web  status:running frontend"));
+    assertEquals("", ResourceQuery.stripQualifiers("zone:eu-b"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseRejectsInvalidStatus() {
+    ResourceQuery.parse("status:run-ning");
+  }
+
+  @Test(expected = PatternSyntaxException.class)
+  public void parseRejectsInvalidNamePattern() {
+    ResourceQuery.parse("name:web-(");
+  }
+
+  @Test
+  public void nameIsSentAsTheFilterBeforeStatus() {
+    assertNull(ResourceQuery.ALL.getFilter());
+    assertNull(ResourceQuery.ALL.withZone("eu-b").getFilter());
+    assertEquals("status eq RUNNING", ResourceQuery.ALL.withStatus("running").getFilter());
+    assertEquals("name eq web-.*", ResourceQuery.ALL.withNamePattern("web-.*").getFilter());
+    assertEquals("name eq web-.*",
+        ResourceQuery.ALL.withStatus("RUNNING").withNamePattern("web-.*").getFilter());
+    // White space cannot be sent, so the status is sent instead.
+    assertEquals("status eq RUNNING",
+        ResourceQuery.ALL.withStatus("RUNNING").withNamePattern("web .*").getFilter());
+  }
+
+  @Test
+  public void predicatesNotSentAreMatchedOnTheDevice() {
+    ResourceQuery byName = ResourceQuery.ALL.withStatus("RUNNING").withNamePattern("web-.*");
+    // The name was sent; only the status is checked.
+    assertTrue(byName.matchesInstance(newInstance("anything", "RUNNING", "eu-b")));
+    assertFalse(byName.matchesInstance(newInstance("web-1", "STOPPED", "eu-b")));
+
+    ResourceQuery byStatus = ResourceQuery.ALL.withStatus("RUNNING").withNamePattern("web .*");
+    // The status was sent; only the name is checked, against the whole name.
+    assertTrue(byStatus.matchesInstance(newInstance("web frontend", "STOPPED", "eu-b")));
+    assertFalse(byStatus.matchesInstance(newInstance("my web frontend", "RUNNING", "eu-b")));
+
+    ResourceQuery nameOnly = ResourceQuery.ALL.withNamePattern("data .*");
+    assertTrue(nameOnly.matchesDisk(newDisk("data 1", "READY", "eu-b")));
+  }
+
+  @Test
+  public void zoneIsAlwaysMatched() {
+    ResourceQuery query = ResourceQuery.ALL.withZone("eu-b");
+
+    assertTrue(query.matchesInstance(newInstance("web", "RUNNING", "eu-b")));
+    assertFalse(query.matchesInstance(newInstance("web", "RUNNING", "us-a")));
+    assertTrue(query.matchesDisk(newDisk("data", "READY", "eu-b")));
+    assertFalse(query.matchesDisk(newDisk("data", "READY", "us-a")));
+    assertTrue(ResourceQuery.ALL.matchesDisk(newDisk("data", "READY", "us-a")));
+  }
+
+  @Test
+  public void queriesAreEqualByPredicates() {
+    ResourceQuery query = ResourceQuery.parse("status:running name:web zone:eu-b");
+
+    assertEquals(query, ResourceQuery.ALL.withZone("eu-b").withNamePattern("web")
+        .withStatus("RUNNING"));
+    assertEquals(query.hashCode(), ResourceQuery.ALL.withZone("eu-b").withNamePattern("web")
+        .withStatus("RUNNING").hashCode());
+    assertNotEquals(query, query.withZone(null));
+    assertEquals(ResourceQuery.ALL, query.withStatus(null).withNamePattern(null).withZone(null));
+  }
+
+  private static InstanceRecord newInstance(String name, String status, String zone) {
+    return new InstanceRecord(BASE_LINK + zone + "/instances/" + name, name, zone, status, null,
+        null, 0L, null);
+  }
+
+  private static DiskRecord newDisk(String name, String status, String zone) {
+    return new DiskRecord(BASE_LINK + zone + "/disks/" + name, name, zone, status, null, 10L, 0L);
+  }
+}
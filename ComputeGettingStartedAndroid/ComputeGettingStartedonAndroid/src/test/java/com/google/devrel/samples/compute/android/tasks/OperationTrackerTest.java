@@ -0,0 +1,411 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.devrel.samples.compute.android.AppMetrics;
+import com.google.devrel.samples.compute.android.RetryPolicy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests the batched polling of {@link OperationTracker} against a fake Compute Engine endpoint
+ * answering batch requests. Polls run on the test thread when {@link HeldScheduler#runHeld()} is
+ * called.
+ */
+public class OperationTrackerTest {
+  private static final String PROJECT_ID = "test-project";
+  private static final String ZONE = "us-central1-a";
+
+  private FakeComputeEndpoint mEndpoint;
+  private Compute mCompute;
+  private HeldScheduler mScheduler;
+  private OperationTracker mTracker;
+  private RecordingListener mListener;
+
+  @Before
+  public void setUp() {
+    mEndpoint = new FakeComputeEndpoint();
+    mCompute = new Compute.Builder(mEndpoint, new GsonFactory(), null)
+        .setApplicationName("OperationTrackerTest")
+        .build();
+    mScheduler = new HeldScheduler();
+    mTracker = new OperationTracker(mScheduler);
+    mListener = new RecordingListener();
+  }
+
+  @Test
+  public void duePollsAreCombinedIntoBatchesOfTheConfiguredSize() throws Exception {
+    mTracker.setPollBatchSize(50);
+    for (int i = 0; i < 120; i++) {
+      track("done-" + i);
+    }
+    long batchedPolls = AppMetrics.get(OperationTracker.METRIC_BATCHED_POLLS);
+
+    pollWhenDue(OperationTracker.INITIAL_POLL_DELAY_MILLIS);
+
+    assertEquals(Lists.newArrayList(50, 50, 20), mEndpoint.batchSizes);
+    assertEquals(0, mEndpoint.singleRequests);
+    assertEquals(120, mListener.completed.size());
+    assertEquals(0, mTracker.getTrackedCount());
+    assertEquals(batchedPolls + 120, AppMetrics.get(OperationTracker.METRIC_BATCHED_POLLS));
+  }
+
+  @Test
+  public void batchSizeOfOneDisablesBatching() throws Exception {
+    mTracker.setPollBatchSize(1);
+    for (int i = 0; i < 3; i++) {
+      track("done-" + i);
+    }
+
+    pollWhenDue(OperationTracker.INITIAL_POLL_DELAY_MILLIS);
+
+    assertTrue(mEndpoint.batchSizes.isEmpty());
+    assertEquals(3, mEndpoint.singleRequests);
+    assertEquals(3, mListener.completed.size());
+  }
+
+  @Test
+  public void itemFailuresAreMappedBackToTheirOperations() throws Exception {
+    track("done-1");
+    track("missing-1");
+    track("unavailable-1");
+    track("running-1");
+
+    pollWhenDue(OperationTracker.INITIAL_POLL_DELAY_MILLIS);
+
+    assertEquals(Lists.newArrayList(4), mEndpoint.batchSizes);
+    assertEquals(Lists.newArrayList("done-1"), mListener.completed);
+    // Gone operations fail at once; transient errors and running operations are polled again.
+    assertEquals(Lists.newArrayList("missing-1"), mListener.failed);
+    assertNotNull(mListener.errors.get("missing-1"));
+    assertEquals(2, mTracker.getTrackedCount());
+
+    pollWhenDue(OperationTracker.INITIAL_POLL_DELAY_MILLIS << 1);
+
+    assertEquals(Lists.newArrayList(4, 2), mEndpoint.batchSizes);
+    assertEquals(Lists.newArrayList("done-1", "running-1", "unavailable-1"),
+        sorted(mListener.completed));
+    assertEquals(0, mTracker.getTrackedCount());
+  }
+
+  @Test
+  public void operationReportingErrorsFails() throws Exception {
+    track("done-1");
+    track("error-1");
+
+    pollWhenDue(OperationTracker.INITIAL_POLL_DELAY_MILLIS);
+
+    assertEquals(Lists.newArrayList("done-1"), mListener.completed);
+    assertEquals(Lists.newArrayList("error-1"), mListener.failed);
+    // The operation was polled; its own errors are in its status.
+    assertNull(mListener.errors.get("error-1"));
+  }
+
+  @Test
+  public void failedBatchRecordsAnErrorForEachOfItsOperations() throws Exception {
+    mEndpoint.failBatches = true;
+    for (int i = 0; i < 3; i++) {
+      track("done-" + i);
+    }
+
+    pollWhenDue(OperationTracker.INITIAL_POLL_DELAY_MILLIS);
+
+    assertEquals(Lists.newArrayList(3), mEndpoint.batchSizes);
+    assertTrue(mListener.completed.isEmpty());
+    assertTrue(mListener.failed.isEmpty());
+    assertEquals(3, mTracker.getTrackedCount());
+
+    mEndpoint.failBatches = false;
+    pollWhenDue(OperationTracker.INITIAL_POLL_DELAY_MILLIS << 1);
+
+    assertEquals(3, mListener.completed.size());
+  }
+
+  @Test
+  public void failedPollsAreRescheduledInsteadOfRetried() throws Exception {
+    Compute retryingCompute = newRetryingCompute();
+    mTracker.setPollBatchSize(1);
+    mTracker.track(retryingCompute, PROJECT_ID, ZONE, "unavailable-1", mListener);
+
+    pollWhenDue(OperationTracker.INITIAL_POLL_DELAY_MILLIS);
+
+    assertEquals(1, mEndpoint.singleRequests);
+    assertEquals(1, mTracker.getTrackedCount());
+
+    pollWhenDue(OperationTracker.INITIAL_POLL_DELAY_MILLIS << 1);
+
+    assertEquals(2, mEndpoint.singleRequests);
+    assertEquals(Lists.newArrayList("unavailable-1"), mListener.completed);
+  }
+
+  @Test
+  public void failedBatchItemsAreRescheduledInsteadOfRetried() throws Exception {
+    Compute retryingCompute = newRetryingCompute();
+    mTracker.track(retryingCompute, PROJECT_ID, ZONE, "unavailable-1", mListener);
+    mTracker.track(retryingCompute, PROJECT_ID, ZONE, "done-1", mListener);
+
+    pollWhenDue(OperationTracker.INITIAL_POLL_DELAY_MILLIS);
+
+    // A retried item would have been sent again in a batch of its own.
+    assertEquals(Lists.newArrayList(2), mEndpoint.batchSizes);
+    assertEquals(Lists.newArrayList("done-1"), mListener.completed);
+    assertEquals(1, mTracker.getTrackedCount());
+  }
+
+  private void track(String operationName) {
+    mTracker.track(mCompute, PROJECT_ID, ZONE, operationName, mListener);
+  }
+
+  /**
+   * Client whose requests are retried by the {@link RetryPolicy}, as the clients of the
+   * application are.
+   */
+  private Compute newRetryingCompute() {
+    return new Compute.Builder(mEndpoint, new GsonFactory(), new HttpRequestInitializer() {
+      @Override
+      public void initialize(HttpRequest request) {
+        RetryPolicy.install(request);
+      }
+    }).setApplicationName("OperationTrackerTest").build();
+  }
+
+  /**
+   * Wait until every operation scheduled within {@code delayMillis} is due, then run the polls.
+   */
+  private void pollWhenDue(long delayMillis) throws InterruptedException {
+    Thread.sleep(delayMillis);
+    mScheduler.runHeld();
+  }
+
+  private static List<String> sorted(List<String> list) {
+    List<String> sorted = Lists.newArrayList(list);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  private static class RecordingListener implements OperationTracker.Listener {
+    final List<String> completed = Lists.newArrayList();
+    final List<String> failed = Lists.newArrayList();
+    final Map<String, Exception> errors = Maps.newHashMap();
+
+    @Override
+    public void onOperationCompleted(Operation operation) {
+      completed.add(operation.getName());
+    }
+
+    @Override
+    public void onOperationFailed(Operation operation, Exception error) {
+      String name = (operation != null) ? operation.getName() : nameOf(error);
+      failed.add(name);
+      errors.put(name, error);
+    }
+
+    private static String nameOf(Exception error) {
+      Matcher matcher = Pattern.compile("operation (\\S+)").matcher(error.getMessage());
+      return matcher.find() ? matcher.group(1) : error.getMessage();
+    }
+  }
+
+  /**
+   * Fake {@code zoneOperations.get} endpoint, answering single and batch requests. How an
+   * operation is answered depends on its name:
+   * <ul>
+   * <li>{@code done-*}: done.</li>
+   * <li>{@code error-*}: done with errors.</li>
+   * <li>{@code running-*}: running on the first poll, done afterwards.</li>
+   * <li>{@code unavailable-*}: HTTP 503 on the first poll, done afterwards.</li>
+   * <li>{@code missing-*}: HTTP 404.</li>
+   * </ul>
+   */
+  private static class FakeComputeEndpoint extends MockHttpTransport {
+    private static final Pattern OPERATION_URL =
+        Pattern.compile("GET \\S*/zones/[^/]+/operations/([^ /?\\r\\n]+)");
+    private static final String BOUNDARY = "batch_response";
+
+    final List<Integer> batchSizes = Lists.newArrayList();
+    int singleRequests = 0;
+    volatile boolean failBatches = false;
+    private final Multiset<String> mPolls = HashMultiset.create();
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, final String url) {
+      return new MockLowLevelHttpRequest(url) {
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          if (url.endsWith("/batch")) {
+            return executeBatch(getContentAsString());
+          }
+          singleRequests++;
+          Matcher matcher = OPERATION_URL.matcher("GET " + url);
+          assertTrue(url, matcher.find());
+          return answer(matcher.group(1));
+        }
+      };
+    }
+
+    private LowLevelHttpResponse executeBatch(String content) throws IOException {
+      Matcher matcher = OPERATION_URL.matcher(content);
+      List<String> names = Lists.newArrayList();
+      while (matcher.find()) {
+        names.add(matcher.group(1));
+      }
+      batchSizes.add(names.size());
+      if (failBatches) {
+        return new MockLowLevelHttpResponse().setStatusCode(500);
+      }
+
+      StringBuilder body = new StringBuilder();
+      for (int i = 0; i < names.size(); i++) {
+        MockLowLevelHttpResponse part = answer(names.get(i));
+        body.append("--").append(BOUNDARY).append("\r\n")
+            .append("Content-Type: application/http\r\n")
+            .append("Content-ID: <response-").append(i + 1).append(">\r\n\r\n")
+            .append("HTTP/1.1 ").append(part.getStatusCode()).append(" Status\r\n")
+            .append("Content-Type: application/json; charset=UTF-8\r\n\r\n")
+            .append(readContent(part)).append("\r\n");
+      }
+      body.append("--").append(BOUNDARY).append("--\r\n");
+      return new MockLowLevelHttpResponse()
+          .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+          .setContent(body.toString());
+    }
+
+    private MockLowLevelHttpResponse answer(String name) {
+      int poll;
+      synchronized (mPolls) {
+        poll = mPolls.add(name, 1) + 1;
+      }
+      MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+          .setContentType("application/json; charset=UTF-8");
+      if (name.startsWith("missing-")) {
+        return response.setStatusCode(404).setContent(error(404, "operation " + name));
+      } else if (name.startsWith("unavailable-") && poll == 1) {
+        return response.setStatusCode(503).setContent(error(503, "backend unavailable"));
+      } else if (name.startsWith("running-") && poll == 1) {
+        return response.setContent(operation(name, "RUNNING", ""));
+      } else if (name.startsWith("error-")) {
+        return response.setContent(operation(name, "DONE",
+            ",\"error\":{\"errors\":[{\"code\":\"QUOTA_EXCEEDED\"}]}"));
+      }
+      return response.setContent(operation(name, "DONE", ""));
+    }
+
+    private static String operation(String name, String status, String extraFields) {
+      return "{\"kind\":\"compute#operation\",\"name\":\"" + name + "\",\"zone\":\"" + ZONE
+          + "\",\"status\":\"" + status + "\"" + extraFields + "}";
+    }
+
+    private static String error(int code, String message) {
+      return "{\"error\":{\"code\":" + code + ",\"message\":\"" + message + "\",\"errors\":"
+          + "[{\"message\":\"" + message + "\"}]}}";
+    }
+
+    private static String readContent(MockLowLevelHttpResponse response) throws IOException {
+      return new Scanner(response.getContent(), "UTF-8").useDelimiter("\\A").next();
+    }
+  }
+
+  /**
+   * Scheduler holding every scheduled task, whatever its delay, until {@link #runHeld()} runs it
+   * on the calling thread.
+   */
+  private static class HeldScheduler extends ScheduledThreadPoolExecutor {
+    private final List<HeldTask<?>> mHeld = Lists.newArrayList();
+
+    HeldScheduler() {
+      super(1);
+    }
+
+    void runHeld() {
+      List<HeldTask<?>> held;
+      synchronized (mHeld) {
+        held = Lists.newArrayList(mHeld);
+        mHeld.clear();
+      }
+      for (HeldTask<?> task : held) {
+        task.run();
+      }
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      return hold(new HeldTask<Object>(Executors.callable(command)));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+      return hold(new HeldTask<V>(callable));
+    }
+
+    private <V> HeldTask<V> hold(HeldTask<V> task) {
+      synchronized (mHeld) {
+        mHeld.add(task);
+      }
+      return task;
+    }
+  }
+
+  private static class HeldTask<V> extends FutureTask<V> implements ScheduledFuture<V> {
+    HeldTask(Callable<V> callable) {
+      super(callable);
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return 0L;
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/* Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devrel.samples.compute.android.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.database.DataSetObservable;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.devrel.samples.compute.android.AppUtils;
+import com.google.devrel.samples.compute.android.dummy.DummyContent;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.DummyPlaceholder;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.InstanceItem;
+import com.google.devrel.samples.compute.android.dummy.DummyContent.Section;
+import com.google.devrel.samples.compute.android.dummy.ResourceSnapshot;
+import com.google.devrel.samples.compute.android.model.InstanceRecord;
+import com.google.devrel.samples.compute.android.tasks.ProjectFetchEngine.ListingMode;
+import com.google.devrel.samples.compute.android.tasks.ProjectFetchEngine.PageCursor;
+import com.google.devrel.samples.compute.android.tasks.ProjectFetchEngine.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests the rows {@link ResourcePager} publishes for pages evicted from its window. Pages are
+ * handed over with {@link ResourcePager#addPage}, so nothing is downloaded.
+ */
+public class ResourcePagerTest {
+  private static final int PAGE_SIZE = 25;
+  private static final int PAGE_COUNT = AppUtils.RESOURCE_LISTING_WINDOW_PAGES + 2;
+
+  private ResourcePager mPager;
+
+  @Before
+  public void setUp() {
+    DummyContent.clear();
+    mPager = new ResourcePager(new ProjectFetchEngine(null, "test-project", ListingMode.AGGREGATED),
+        new DataSetObservable());
+    for (int page = 0; page < PAGE_COUNT; page++) {
+      mPager.addPage(Section.INSTANCES, new PageCursor(Stream.INSTANCES, null, "page-" + page),
+          newPage(page), null);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    mPager.close();
+    DummyContent.clear();
+  }
+
+  @Test
+  public void pagesOutsideTheWindowAreReplacedByOnePlaceholderPerRow() {
+    List<DummyItem> rows = mPager.getSections().get(Section.INSTANCES);
+
+    assertEquals(PAGE_COUNT * PAGE_SIZE, rows.size());
+    // The pages farthest from the last one added were evicted.
+    for (int row = 0; row < 2 * PAGE_SIZE; row++) {
+      DummyPlaceholder placeholder = (DummyPlaceholder) rows.get(row);
+      assertEquals(row / PAGE_SIZE, placeholder.pageIndex);
+    }
+    assertTrue(rows.get(2 * PAGE_SIZE) instanceof InstanceItem);
+  }
+
+  @Test
+  public void everyRowHasItsOwnId() {
+    List<DummyItem> rows = mPager.getSections().get(Section.INSTANCES);
+
+    Set<String> ids = Sets.newHashSet();
+    Set<Long> stableIds = Sets.newHashSet();
+    for (DummyItem row : rows) {
+      ids.add(row.id);
+      stableIds.add(row.getStableId());
+    }
+    assertEquals(rows.size(), ids.size());
+    assertEquals(rows.size(), stableIds.size());
+  }
+
+  @Test
+  public void snapshotIndexesEveryPlaceholder() {
+    assertTrue(mPager.publish(Section.INSTANCES));
+
+    ResourceSnapshot snapshot = DummyContent.getSnapshot();
+    List<DummyItem> items = snapshot.getSectionItems(Section.INSTANCES);
+    assertEquals(PAGE_COUNT * PAGE_SIZE, items.size());
+    for (DummyItem item : items) {
+      assertSame(item, snapshot.getItem(item.id));
+    }
+  }
+
+  @Test
+  public void publishingUnchangedPagesAgainChangesNothing() {
+    assertTrue(mPager.publish(Section.INSTANCES));
+    List<DummyItem> published = DummyContent.getSnapshot().getSectionItems(Section.INSTANCES);
+
+    assertFalse(mPager.publish(Section.INSTANCES));
+    List<DummyItem> republished = DummyContent.getSnapshot().getSectionItems(Section.INSTANCES);
+    for (int row = 0; row < published.size(); row++) {
+      assertSame(published.get(row), republished.get(row));
+    }
+  }
+
+  private static List<DummyItem> newPage(int page) {
+    List<DummyItem> items = Lists.newArrayList();
+    for (int row = 0; row < PAGE_SIZE; row++) {
+      String name = "instance-" + page + "-" + row;
+      items.add(new InstanceItem(new InstanceRecord(
+          "https://www.googleapis.com/compute/v1/projects/test-project/zones/us-central1-a/"
+              + "instances/" + name, name, "us-central1-a", "RUNNING", null, null, 0L, null),
+          null));
+    }
+    return items;
+  }
+}